@@ -1,9 +1,14 @@
 package com.knoban.hih;
 
 import com.knoban.hih.player.Player;
+import com.knoban.hih.requests.RequestCode;
+import com.knoban.multiplayer.logging.Log;
 import com.knoban.multiplayer.server.MultiplayerServer;
+import com.knoban.multiplayer.server.RateLimit;
+import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Alden Bansemer (kNoAPP)
@@ -15,13 +20,35 @@ public class Main {
      * @param args The passed jvm arguments
      */
     public static void main(String args[]) {
+        Log.getLogger("requests").setSampleRate(100); // A busy lobby would otherwise spend its time printing
+        Log.getLogger("connections").setSampleRate(100);
         try {
-            MultiplayerServer server = new MultiplayerServer(25575);
-            server.setConnectionDriver(Player.class);
+            MultiplayerServer server = createServer(25575);
             server.open();
             server.startProcessingRequests();
         } catch(IOException e) {
             System.out.println("Unable to create the server: " + e.getMessage());
         }
     }
+
+    /**
+     * Create the game's server with the settings it runs with in production. Load tests use this too.
+     * @param port The port to run on.
+     * @return The server, not yet opened.
+     * @throws IOException If the server socket cannot be created.
+     */
+    @NotNull
+    public static MultiplayerServer createServer(int port) throws IOException {
+        MultiplayerServer server = new MultiplayerServer(port);
+        server.setConnectionDriver(Player.class);
+        server.setRequestRegistry(Player.createRequestRegistry());
+        server.setTransportMode(MultiplayerServer.TransportMode.NIO);
+        server.setConnectionRateLimit(new RateLimit(50, 200));
+        server.setRequestRateLimit(RequestCode.JOIN_ROOM, new RateLimit(2, 10)); // Slows down guessing room codes
+        server.setRequestRateLimit(RequestCode.CREATE_ROOM, new RateLimit(1, 5));
+        server.setRequestRateLimit(RequestCode.SET_USERNAME, new RateLimit(2, 10)); // Renames are pushed to the whole room
+        server.setIdleTimeout(2, TimeUnit.MINUTES); // Frees the seats of players who vanished without disconnecting
+        server.setMetricsPort(port + 1); // Scraped from localhost only
+        return server;
+    }
 }
@@ -0,0 +1,165 @@
+package com.knoban.hih.bots;
+
+import com.knoban.hih.requests.RequestCode;
+import com.knoban.multiplayer.requests.GeneralRequestCode;
+import com.knoban.multiplayer.streams.CSInputStream;
+import com.knoban.multiplayer.streams.CSOutputStream;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * A headless player speaking exactly what the Unity client (RiggleClient.cs) speaks: protocol v1, where every
+ * message is HANDSHAKE + request code followed by its data, and Strings are NUL-terminated. Requests are sent one
+ * at a time and timed from the moment they're sent until their answer is read.
+ * <br><br>
+ * Not Thread-safe. Each bot runs on its own Thread.
+ * @author Alden Bansemer (kNoAPP)
+ */
+class Bot implements AutoCloseable {
+
+    static final int REQUEST_CODES = RequestCode.SET_USERNAME + 1; // Bots send every request up to SET_USERNAME
+    private static final int READ_TIMEOUT_MILLIS = 10_000; // A server that stops answering fails the bot
+
+    private final Socket socket;
+    private final CSInputStream in;
+    private final CSOutputStream out;
+    private final LoadStatistics statistics;
+
+    /**
+     * Connect a new bot to the server.
+     * @param host The server's host.
+     * @param port The server's port.
+     * @param statistics Where to time requests as they're answered.
+     * @throws IOException If the bot can't connect.
+     */
+    Bot(@NotNull String host, int port, @NotNull LoadStatistics statistics) throws IOException {
+        this.socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+        this.in = new CSInputStream(socket.getInputStream());
+        this.out = new CSOutputStream(socket.getOutputStream());
+        this.statistics = statistics;
+    }
+
+    /**
+     * @return The bot's UUID.
+     */
+    @NotNull
+    String requestUserId() throws IOException {
+        send(RequestCode.USER_ID);
+        long sent = flush();
+        await(RequestCode.USER_ID, sent);
+        return in.readString();
+    }
+
+    /**
+     * @param username The username to take.
+     * @return The username the server gave the bot.
+     */
+    @NotNull
+    String setUsername(@NotNull String username) throws IOException {
+        send(RequestCode.SET_USERNAME);
+        out.writeString(username);
+        long sent = flush();
+        await(RequestCode.SET_USERNAME, sent);
+        return in.readString();
+    }
+
+    /**
+     * @return The code of the new room or null if the server is out of room codes.
+     */
+    String createRoom() throws IOException {
+        send(RequestCode.CREATE_ROOM);
+        long sent = flush();
+        await(RequestCode.CREATE_ROOM, sent);
+        String code = in.readString();
+        return code.isEmpty() ? null : code;
+    }
+
+    /**
+     * @param code The room's code.
+     * @return 0x00 if joined, 0x01 if the room wasn't found, 0x02 if it was full.
+     */
+    byte joinRoom(@NotNull String code) throws IOException {
+        send(RequestCode.JOIN_ROOM);
+        out.writeString(code);
+        long sent = flush();
+        await(RequestCode.JOIN_ROOM, sent);
+        return in.readS8();
+    }
+
+    /**
+     * @return 0x00 if the bot left its room, 0x01 if it wasn't in one.
+     */
+    byte leaveRoom() throws IOException {
+        send(RequestCode.LEAVE_ROOM);
+        long sent = flush();
+        await(RequestCode.LEAVE_ROOM, sent);
+        return in.readS8(); // Not being in a room is answered 0x01 0x00. The stray byte is skipped by resyncing.
+    }
+
+    /**
+     * Poll the bot's room like the lobby screen does.
+     * @return 0x00 if the bot is in a room, 0x01 if it isn't.
+     */
+    byte roomInfo() throws IOException {
+        send(RequestCode.ROOM_INFO);
+        long sent = flush();
+        await(RequestCode.ROOM_INFO, sent);
+        byte status = in.readS8();
+        if(status != 0)
+            return status;
+
+        in.skipString(); // Room code
+        int players = in.readS8();
+        for(int i=0; i<players; i++)
+            in.skipString(); // Usernames, host first
+        return status;
+    }
+
+    private void send(short requestCode) throws IOException {
+        out.writeS16(GeneralRequestCode.HANDSHAKE);
+        out.writeS16(requestCode);
+    }
+
+    /**
+     * Send the request written so far.
+     * @return When it was sent. (in System.nanoTime())
+     */
+    private long flush() throws IOException {
+        long sent = System.nanoTime();
+        out.flush();
+        return sent;
+    }
+
+    /**
+     * Read up to the data of the answer to a request, the way the Unity client does. Bytes before a handshake are
+     * skipped one at a time until the stream is back in sync.
+     * @param requestCode The request being answered.
+     * @param sent When the request was sent.
+     * @throws IOException If anything other than the answer arrives. Bots never ask for pushed messages.
+     */
+    private void await(short requestCode, long sent) throws IOException {
+        short handshake = in.readS16();
+        while(handshake != GeneralRequestCode.HANDSHAKE) {
+            handshake = (short) ((handshake >> 8 & 0xFF) | in.readS8() << 8); // Shift in one byte (little-endian)
+            statistics.recordDesync();
+        }
+
+        short answered = in.readS16();
+        if(answered != requestCode)
+            throw new IOException("Expected an answer to " + requestCode + " but got " + answered);
+
+        statistics.recordAnswer(requestCode, System.nanoTime() - sent);
+    }
+
+    /**
+     * Disconnect from the server.
+     */
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,313 @@
+package com.knoban.hih.bots;
+
+import com.knoban.hih.Main;
+import com.knoban.hih.game.Room;
+import com.knoban.hih.requests.RequestCode;
+import com.knoban.multiplayer.metrics.HistogramSummary;
+import com.knoban.multiplayer.server.ConnectionExecutor;
+import com.knoban.multiplayer.server.ConnectionExecutors;
+import com.knoban.multiplayer.server.MultiplayerServer;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fills a server with headless players to find out how many it can take. Bots connect at a steady rate, then each
+ * plays a few rounds of the lobby: join a room another bot opened (or open one), poll it like the lobby screen does,
+ * and leave. Progress is printed every second and latency percentiles for each request at the end.
+ * <br><br>
+ * Configured with system properties:
+ * -Dhost=127.0.0.1 -Dport=25575 The server to load.
+ * -Dbots=1000 How many bots to connect.
+ * -Dramp=200 How many bots connect per second.
+ * -Drounds=5 How many rooms each bot goes through.
+ * -Dpolls=4 How many times each bot polls its room per round.
+ * -Dthink=250 Average milliseconds a bot waits between requests in a room.
+ * -Dlocal=false Whether to start the server in this process, set up like Main does.
+ * -DserverOutput=false Whether to print what a local server prints. Off, it would bury the progress lines.
+ * -Dblocking=false Whether a local server uses BLOCKING mode, on virtual threads where the runtime has them.
+ * <br><br>
+ * Exits with 1 if any bot failed.
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class LoadGenerator {
+
+    private static final int MAX_GUESTS = Room.MAX_ROOM_SIZE - 1;
+    private static final int MAX_JOIN_ATTEMPTS = 3; // Then open a room instead of chasing full ones
+
+    private final String host;
+    private final int port;
+    private final int bots;
+    private final double ramp;
+    private final int rounds;
+    private final int polls;
+    private final long thinkMillis;
+    private final PrintStream console;
+
+    private final LoadStatistics statistics = new LoadStatistics(Bot.REQUEST_CODES);
+    private final Queue<String> openRooms = new ConcurrentLinkedQueue<>(); // A room's code once for each free seat
+    private volatile boolean isRunning;
+
+    /**
+     * @param host The server's host.
+     * @param port The server's port.
+     * @param bots How many bots to connect.
+     * @param ramp How many bots connect per second.
+     * @param rounds How many rooms each bot goes through.
+     * @param polls How many times each bot polls its room per round.
+     * @param thinkMillis Average milliseconds a bot waits between requests in a room.
+     * @param console Where to print progress and results.
+     */
+    public LoadGenerator(@NotNull String host, int port, int bots, double ramp, int rounds, int polls,
+                         long thinkMillis, @NotNull PrintStream console) {
+        if(bots < 1 || ramp <= 0 || rounds < 0 || polls < 0 || thinkMillis < 0)
+            throw new IllegalArgumentException("Load tests need at least one bot and a positive ramp!");
+
+        this.host = host;
+        this.port = port;
+        this.bots = bots;
+        this.ramp = ramp;
+        this.rounds = rounds;
+        this.polls = polls;
+        this.thinkMillis = thinkMillis;
+        this.console = console;
+    }
+
+    /**
+     * Entry into the load test.
+     * @param args Unused. See the class for the system properties it takes.
+     */
+    public static void main(String args[]) {
+        int port = Integer.getInteger("port", 25575);
+        LoadGenerator generator = new LoadGenerator(System.getProperty("host", "127.0.0.1"), port,
+                Integer.getInteger("bots", 1000), Integer.getInteger("ramp", 200), Integer.getInteger("rounds", 5),
+                Integer.getInteger("polls", 4), Long.getLong("think", 250), System.out);
+
+        MultiplayerServer server = null;
+        if(Boolean.getBoolean("local")) {
+            if(!Boolean.getBoolean("serverOutput")) {
+                System.setOut(new PrintStream(new OutputStream() {
+                    @Override
+                    public void write(int b) {}
+
+                    @Override
+                    public void write(byte[] b, int off, int len) {}
+                }));
+            }
+
+            try {
+                server = Main.createServer(port);
+                if(Boolean.getBoolean("blocking")) {
+                    server.setTransportMode(MultiplayerServer.TransportMode.BLOCKING);
+                    server.setConnectionExecutor(ConnectionExecutors.preferVirtual());
+                }
+                server.open();
+                server.startProcessingRequests();
+            } catch(IOException e) {
+                generator.console.println("Unable to create the server: " + e.getMessage());
+                System.exit(1);
+            }
+        }
+
+        boolean isPassed = generator.run();
+        if(server != null)
+            server.close();
+        System.exit(isPassed ? 0 : 1);
+    }
+
+    /**
+     * Run the load test. Blocks until every bot is done.
+     * @return True, if no bot failed.
+     */
+    public boolean run() {
+        ConnectionExecutor executor = ConnectionExecutors.preferVirtual();
+        console.println("Load testing " + host + ":" + port + " with " + bots + " bots at " + ramp + "/s on "
+                + (ConnectionExecutors.isVirtualSupported() ? "virtual" : "platform") + " threads.");
+
+        isRunning = true;
+        long start = System.nanoTime();
+        Thread reporter = new Thread(() -> report(start), "Riggle Load Reporter");
+        reporter.setDaemon(true);
+        reporter.start();
+
+        List<Thread> threads = new ArrayList<>(bots);
+        long interval = (long) (1_000_000_000L / ramp);
+        long next = start;
+        for(int i=1; i<=bots; i++) {
+            long wait;
+            while((wait = next - System.nanoTime()) > 0)
+                LockSupport.parkNanos(wait);
+            next += interval;
+
+            int id = i;
+            threads.add(executor.execute("Riggle Bot #" + id, () -> play(id)));
+        }
+
+        for(Thread thread : threads) {
+            try {
+                thread.join();
+            } catch(InterruptedException e) {
+                console.println("Got interrupted while waiting on bots: " + e.getMessage());
+                break;
+            }
+        }
+
+        isRunning = false;
+        reporter.interrupt();
+        summarize(System.nanoTime() - start);
+        return statistics.getFailed() == 0;
+    }
+
+    private void play(int id) {
+        Bot bot;
+        try {
+            bot = new Bot(host, port, statistics);
+        } catch(IOException e) {
+            console.println("Bot #" + id + " could not connect: " + e.getMessage());
+            statistics.recordFailure();
+            return;
+        }
+
+        statistics.recordConnect();
+        try {
+            bot.requestUserId();
+            bot.setUsername("Bot #" + id);
+            for(int round=0; round<rounds; round++) {
+                if(!enterRoom(bot))
+                    continue;
+
+                for(int poll=0; poll<polls; poll++) {
+                    think();
+                    if(bot.roomInfo() != 0)
+                        statistics.recordRefusal(RequestCode.ROOM_INFO);
+                }
+                if(bot.leaveRoom() != 0)
+                    statistics.recordRefusal(RequestCode.LEAVE_ROOM);
+                think();
+            }
+        } catch(IOException e) {
+            console.println("Bot #" + id + " failed: " + e.getMessage());
+            statistics.recordFailure();
+        } finally {
+            try {
+                bot.close();
+            } catch(IOException e) {
+                console.println("Bot #" + id + " could not disconnect: " + e.getMessage());
+            }
+            statistics.recordDisconnect();
+        }
+    }
+
+    /**
+     * Join a room another bot opened or open one for others to join.
+     * @param bot The bot.
+     * @return True, if the bot is in a room.
+     */
+    private boolean enterRoom(@NotNull Bot bot) throws IOException {
+        String code;
+        for(int attempt=0; attempt<MAX_JOIN_ATTEMPTS && (code = openRooms.poll()) != null; attempt++) {
+            if(bot.joinRoom(code) == 0)
+                return true;
+            statistics.recordRefusal(RequestCode.JOIN_ROOM); // The room filled up or its players all left
+        }
+
+        code = bot.createRoom();
+        if(code == null) {
+            statistics.recordRefusal(RequestCode.CREATE_ROOM);
+            return false;
+        }
+
+        for(int i=0; i<MAX_GUESTS; i++)
+            openRooms.offer(code);
+        return true;
+    }
+
+    /**
+     * Wait somewhere between half and one and a half times the think time, so bots don't fall into lockstep.
+     */
+    private void think() throws InterruptedIOException {
+        if(thinkMillis == 0)
+            return;
+
+        try {
+            Thread.sleep(thinkMillis / 2 + ThreadLocalRandom.current().nextLong(thinkMillis + 1));
+        } catch(InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while thinking");
+        }
+    }
+
+    private void report(long start) {
+        long lastAnswers = 0;
+        while(isRunning) {
+            try {
+                Thread.sleep(1000);
+            } catch(InterruptedException e) {
+                return;
+            }
+
+            long answers = statistics.getAnswers();
+            console.println(String.format("[%4ds] %d connected, %d answers/s, %d failed, %d desyncs",
+                    (System.nanoTime() - start) / 1_000_000_000L, statistics.getConnected(), answers - lastAnswers,
+                    statistics.getFailed(), statistics.getDesyncs()));
+            lastAnswers = answers;
+        }
+    }
+
+    private void summarize(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        long answers = statistics.getAnswers();
+        console.println(String.format("%d bots (%d failed) got %d answers in %.1fs (%.0f/s) with %d desyncs.",
+                bots, statistics.getFailed(), answers, seconds, answers / seconds, statistics.getDesyncs()));
+        console.println(String.format("%-14s %9s %9s %9s %9s %9s %9s %9s",
+                "REQUEST", "COUNT", "RATE/s", "REFUSED", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+
+        String[] names = requestNames();
+        for(short code=0; code<Bot.REQUEST_CODES; code++) {
+            HistogramSummary latencies = statistics.getLatencies(code).summarize();
+            if(latencies.getCount() == 0)
+                continue;
+
+            console.println(String.format("%-14s %9d %9.0f %9d %9.2f %9.2f %9.2f %9.2f",
+                    names[code], latencies.getCount(), latencies.getCount() / seconds, statistics.getRefusals(code),
+                    latencies.getP50() / 1e6, latencies.getP99() / 1e6, latencies.getP999() / 1e6,
+                    latencies.getMax() / 1e6));
+        }
+    }
+
+    /**
+     * @return The names of the request codes bots send, indexed by request code.
+     */
+    @NotNull
+    private String[] requestNames() {
+        String[] names = new String[Bot.REQUEST_CODES];
+        for(Field field : RequestCode.class.getFields()) {
+            if(field.getType() != short.class || !Modifier.isStatic(field.getModifiers()))
+                continue;
+
+            try {
+                short code = field.getShort(null);
+                if(code >= 0 && code < names.length)
+                    names[code] = field.getName();
+            } catch(IllegalAccessException e) {
+                console.println("Unable to read request code " + field.getName() + ": " + e.getMessage());
+            }
+        }
+
+        for(int i=0; i<names.length; i++) {
+            if(names[i] == null)
+                names[i] = String.valueOf(i);
+        }
+        return names;
+    }
+}
@@ -0,0 +1,91 @@
+package com.knoban.hih.bots;
+
+import com.knoban.multiplayer.metrics.Histogram;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What every bot in a load test has seen so far. Safe to use from any Thread.
+ * @author Alden Bansemer (kNoAPP)
+ */
+class LoadStatistics {
+
+    private final LongAdder answers = new LongAdder();
+    private final LongAdder desyncs = new LongAdder();
+    private final LongAdder[] refusals; // Answered, but not with 0x00 (ex. room full), indexed by request code
+    private final AtomicInteger connected = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final Histogram[] latencies; // Indexed by request code
+
+    /**
+     * @param requestCodes One more than the largest request code bots send.
+     */
+    LoadStatistics(int requestCodes) {
+        this.refusals = new LongAdder[requestCodes];
+        this.latencies = new Histogram[requestCodes];
+        for(int i=0; i<requestCodes; i++) {
+            refusals[i] = new LongAdder();
+            latencies[i] = new Histogram();
+        }
+    }
+
+    /**
+     * @param requestCode The request that was answered.
+     * @param latencyNanos How long the answer took since the request was sent.
+     */
+    void recordAnswer(short requestCode, long latencyNanos) {
+        answers.increment();
+        latencies[requestCode].record(latencyNanos);
+    }
+
+    void recordDesync() {
+        desyncs.increment();
+    }
+
+    void recordRefusal(short requestCode) {
+        refusals[requestCode].increment();
+    }
+
+    void recordConnect() {
+        connected.incrementAndGet();
+    }
+
+    void recordFailure() {
+        failed.incrementAndGet();
+    }
+
+    void recordDisconnect() {
+        connected.decrementAndGet();
+    }
+
+    long getAnswers() {
+        return answers.sum();
+    }
+
+    long getDesyncs() {
+        return desyncs.sum();
+    }
+
+    long getRefusals(short requestCode) {
+        return refusals[requestCode].sum();
+    }
+
+    int getConnected() {
+        return connected.get();
+    }
+
+    int getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @param requestCode The request code.
+     * @return How long every bot waited on answers to the request code, in nanoseconds.
+     */
+    @NotNull
+    Histogram getLatencies(short requestCode) {
+        return latencies[requestCode];
+    }
+}
@@ -1,12 +1,19 @@
 package com.knoban.hih.game;
 
 import com.knoban.hih.player.Player;
+import com.knoban.hih.requests.RequestCode;
+import com.knoban.multiplayer.server.Broadcast;
+import com.knoban.multiplayer.server.ResponseWriter;
+import com.knoban.multiplayer.streams.CSOutputStream;
 import com.knoban.multiplayer.utils.RoomCode;
+import com.knoban.multiplayer.utils.RoomCodesExhaustedException;
+import com.knoban.multiplayer.utils.RoomRegistry;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -16,35 +23,40 @@ import java.util.List;
 public class Room {
 
     public static final short MAX_ROOM_SIZE = 4;
-    private static final HashMap<RoomCode, Room> ROOMS = new HashMap<>();
+
+    private final RoomRegistry<Room> registry; // Shared by all shards
 
     private Player leader; // The player with the permissions
     private final List<Player> players = new LinkedList<>();
+    private final List<Player> subscribers = new ArrayList<>(MAX_ROOM_SIZE); // Players getting changes pushed
+    private final List<Player> reserved = new ArrayList<>(MAX_ROOM_SIZE); // Joining once they leave their old room
 
     private RoomCode code;
     private boolean inGame;
+    private int version; // Bumped on every change pushed to subscribers
 
     /**
      * Creates an empty Room players can join. Pretty much like a party system. The generated room code
      * will be unique.
+     * @param registry The registry to list the room in. Usually the server's.
      * @param leader The initial host of the lobby
+     * @throws RoomCodesExhaustedException If every room code is in use.
      */
-    public Room(@NotNull Player leader) {
+    public Room(@NotNull RoomRegistry<Room> registry, @NotNull Player leader) {
+        this.registry = registry;
+        this.code = registry.allocate();
         this.leader = leader;
         players.add(leader);
-
-        // Room code generation should be recoded if the game gets popular. This could be potentially a long-running
-        // do-while.
-        do {
-           this.code = new RoomCode();
-        } while(getRoomFromCode(code) != null);
-        ROOMS.put(code, this);
+        if(leader.isSubscribed())
+            subscribers.add(leader);
 
         this.inGame = false;
+        registry.register(code, this); // Last, so other threads never find a half-built room
     }
 
     /**
-     * @return The leader of the Room. Only null if the room was destroyed, which should be never if you do things right.
+     * @return The leader of the Room. Only null if the room was destroyed, which should be never if you do things
+     * right, or while everyone left and a reserved player has yet to join.
      */
     @NotNull
     public Player getLeader() {
@@ -65,31 +77,159 @@ public class Room {
      * @return True, if the player was added to the room.
      */
     public boolean addPlayer(@NotNull Player player) {
-        if(players.contains(player) || players.size() >= MAX_ROOM_SIZE || inGame)
+        if(!hasSpotFor(player))
             return false;
 
-        players.add(player);
+        join(player);
+        return true;
+    }
+
+    /**
+     * Hold a spot in the room for a player who still has to leave the room they're in. The room stays open while
+     * spots are held, even if everyone else leaves. Call claim() once the player has left.
+     * @param player The player's connection to hold a spot for.
+     * @return True, if a spot was held.
+     */
+    public boolean reserve(@NotNull Player player) {
+        if(!hasSpotFor(player))
+            return false;
+
+        reserved.add(player);
         return true;
     }
 
+    /**
+     * Add a player a spot was held for with reserve(). They join even if the room started a game since.
+     * @param player The player's connection to add.
+     */
+    public void claim(@NotNull Player player) {
+        if(reserved.remove(player))
+            join(player);
+    }
+
+    private boolean hasSpotFor(@NotNull Player player) {
+        return !players.contains(player) && !reserved.contains(player)
+                && players.size() + reserved.size() < MAX_ROOM_SIZE && !inGame;
+    }
+
+    private void join(@NotNull Player player) {
+        players.add(player);
+        if(leader == null)
+            leader = player; // Everyone left while the player's spot was held
+        String username = player.getUsername();
+        publish(out -> {
+            out.writeS8(RoomEvent.PLAYER_JOINED);
+            out.writeString(username);
+        });
+
+        if(player.isSubscribed())
+            subscribers.add(player); // After publishing. Joining players get a snapshot instead.
+    }
+
     /**
      * Remove a player from the room.
      * @param player The player's connection to remove.
      * @return True, if the player was previously in the room and left.
      */
     public boolean removePlayer(@NotNull Player player) {
-        boolean toRet = players.remove(player);
+        int index = players.indexOf(player);
+        boolean toRet = index >= 0;
+        if(toRet) {
+            players.remove(index);
+            subscribers.remove(player);
+        }
+
         if(players.size() == 0) {
-            destroy();
+            if(reserved.isEmpty())
+                destroy();
+            else
+                leader = null; // Kept open for the players joining
             return toRet;
         }
 
-        if(toRet && player.equals(leader))
+        if(toRet) {
+            publish(out -> {
+                out.writeS8(RoomEvent.PLAYER_LEFT);
+                out.writeS8((byte) index);
+            });
+        }
+
+        if(toRet && player.equals(leader)) {
             leader = players.get(0);
+            publish(out -> {
+                out.writeS8(RoomEvent.LEADER_CHANGED);
+                out.writeS8((byte) 0);
+            });
+        }
 
         return toRet;
     }
 
+    /**
+     * Let subscribers know a player in the room changed their username.
+     * @param player The player that was renamed.
+     */
+    public void renamePlayer(@NotNull Player player) {
+        int index = players.indexOf(player);
+        if(index < 0)
+            return;
+
+        String username = player.getUsername();
+        publish(out -> {
+            out.writeS8(RoomEvent.PLAYER_RENAMED);
+            out.writeS8((byte) index);
+            out.writeString(username);
+        });
+    }
+
+    /**
+     * Start or stop pushing changes to a player in the room.
+     * @param player The player in the room.
+     * @param subscribed True, to push changes to the player.
+     */
+    public void setSubscribed(@NotNull Player player, boolean subscribed) {
+        subscribers.remove(player);
+        if(subscribed && players.contains(player))
+            subscribers.add(player);
+    }
+
+    /**
+     * Bump the room's version and push a change to every subscriber.
+     * @param event Writes the RoomEvent and its data.
+     */
+    private void publish(@NotNull ResponseWriter event) {
+        int version = ++this.version;
+        if(subscribers.isEmpty())
+            return;
+
+        new Broadcast(RequestCode.ROOM_EVENT, out -> {
+            out.writeS32(version);
+            event.write(out);
+        }).send(subscribers, null);
+    }
+
+    /**
+     * Write the whole state of the room: S32 version, String room code, S8 in game, S8 player count, and a String
+     * username per player. The first player is the host.
+     * @param out The stream to write to.
+     * @throws IOException If the snapshot could not be written.
+     */
+    public void writeSnapshot(@NotNull CSOutputStream out) throws IOException {
+        out.writeS32(version);
+        out.writeString(code.toString());
+        out.writeS8((byte) (inGame ? 1 : 0));
+        out.writeS8((byte) players.size());
+        for(Player player : players)
+            out.writeString(player.getUsername());
+    }
+
+    /**
+     * @return The version of the room's state. Bumped on every change.
+     */
+    public int getVersion() {
+        return version;
+    }
+
     /**
      * @return A list of all players in the room. The first in the list is the host.
      */
@@ -97,6 +237,18 @@ public class Room {
         return Collections.unmodifiableList(players);
     }
 
+    /**
+     * Send a response to every player in the room. The response is encoded once no matter how many players there
+     * are. Only call this from the room's shard, like from a request handled by a player in the room.
+     * @param requestCode The request code of the response.
+     * @param writer Writes the response's data.
+     * @param except A player to leave out (ex. the sender) or null to send to everyone.
+     * @return The number of players sent to.
+     */
+    public int broadcast(short requestCode, @NotNull ResponseWriter writer, @Nullable Player except) {
+        return new Broadcast(requestCode, writer).send(players, except);
+    }
+
     /**
      * @return False if in lobby. True if in game. Party is disbanded after the game so no post-win state.
      */
@@ -109,41 +261,26 @@ public class Room {
      * @param inGame True, in game. False, in lobby.
      */
     public void setInGame(boolean inGame) {
+        if(this.inGame == inGame)
+            return;
+
         this.inGame = inGame;
+        publish(out -> {
+            out.writeS8(RoomEvent.IN_GAME_CHANGED);
+            out.writeS8((byte) (inGame ? 1 : 0));
+        });
     }
 
     /**
      * Destroys the room. The room code is returned to the pool. All players are removed.
      */
     public void destroy() {
-        ROOMS.remove(code);
+        registry.unregister(code, this);
+        subscribers.clear();
 
-        for(Player player : Collections.unmodifiableList(players))
+        for(Player player : new ArrayList<>(players)) // Copied, removing players changes the list
             removePlayer(player);
 
         leader = null;
     }
-
-    /**
-     * Gets the Room corresponding to the provided code.
-     * @param code A 4-character (no number) code. Not case-sensitive.
-     * @return The Room or null if it doesn't exist.
-     */
-    @Nullable
-    public static Room getRoomFromCode(@NotNull String code) {
-        if(code.length() != 4)
-            return null;
-
-        return getRoomFromCode(new RoomCode(code));
-    }
-
-    /**
-     * Gets the Room corresponding to the provided code.
-     * @param code A 4-character (no number) code. Not case-sensitive.
-     * @return The Room or null if it doesn't exist.
-     */
-    @Nullable
-    public static Room getRoomFromCode(@NotNull RoomCode code) {
-        return ROOMS.get(code);
-    }
 }
@@ -0,0 +1,17 @@
+package com.knoban.hih.game;
+
+/**
+ * The kinds of changes pushed to players subscribed to their room. Every RequestCode.ROOM_EVENT carries the
+ * room's new S32 version, one of these, and then the data listed next to it. Players are referred to by their
+ * index in the room's player list, the first being the host.
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class RoomEvent {
+
+    public static final byte PLAYER_JOINED = 0; // String username. The player is added to the end of the list.
+    public static final byte PLAYER_LEFT = 1; // S8 index
+    public static final byte LEADER_CHANGED = 2; // S8 index of the new leader
+    public static final byte IN_GAME_CHANGED = 3; // S8 1 if in game, 0 if in lobby
+    public static final byte PLAYER_RENAMED = 4; // S8 index, String username
+
+}
@@ -4,10 +4,15 @@ import com.knoban.hih.game.Room;
 import com.knoban.hih.requests.RequestCode;
 import com.knoban.hih.requests.impl.JoinRoomRequest;
 import com.knoban.hih.requests.impl.SetUsernameRequest;
+import com.knoban.hih.requests.impl.SubscribeRoomRequest;
+import com.knoban.multiplayer.logging.Log;
+import com.knoban.multiplayer.logging.Logger;
 import com.knoban.multiplayer.requests.GeneralRequestCode;
 import com.knoban.multiplayer.requests.RequestFulfillment;
+import com.knoban.multiplayer.requests.RequestRegistry;
 import com.knoban.multiplayer.server.MultiplayerConnection;
-import com.knoban.multiplayer.utils.Tools;
+import com.knoban.multiplayer.utils.RoomCodesExhaustedException;
+import com.knoban.multiplayer.utils.RoomRegistry;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -19,8 +24,12 @@ import java.net.Socket;
  */
 public class Player extends MultiplayerConnection {
 
+    private static final Logger REQUESTS = Log.getLogger("requests");
+
     private String username;
     private Room room;
+    private boolean isSubscribed; // Room changes are pushed instead of polled with ROOM_INFO
+    private boolean isSnapshotPending; // CREATE_ROOM was answered and handed to the new room's shard for its snapshot
 
     /**
      * Creates a new Player. This should only be called by MultiplayerServer.
@@ -31,6 +40,30 @@ public class Player extends MultiplayerConnection {
         this.username = "Unnamed Player";
     }
 
+    /**
+     * @return The player's username.
+     */
+    @NotNull
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * @return True, if changes to the player's room are pushed to them.
+     */
+    public boolean isSubscribed() {
+        return isSubscribed;
+    }
+
+    /**
+     * Send the player everything about their room. Subscribed players apply ROOM_EVENTs on top of this.
+     * @throws IOException If the snapshot could not be written.
+     */
+    private void sendSnapshot() throws IOException {
+        beginResponse(RequestCode.ROOM_SNAPSHOT);
+        room.writeSnapshot(out);
+    }
+
     /**
      * Leaves the room the player is currently in if any.
      * @returns True, if they were in a room and left.
@@ -45,120 +78,192 @@ public class Player extends MultiplayerConnection {
     }
 
     /**
-     * Decode requests here using the in variable to get more data from client. This runs on its own thread
-     * so be careful of race conditions. After decoding, encode a RequestFulfillment object and return it. This
-     * object will be passed to your thread-safe handleRequest method.
-     * @param requestCode The requestCode received from the client.
-     * @throws IOException If at any point the server/client have trouble communicating. Handled automatically.s
+     * @return The rooms on this player's server.
+     */
+    @NotNull
+    private RoomRegistry<Room> getRooms() {
+        return getServer().getRoomRegistry();
+    }
+
+    /**
+     * Requests are handled on the shard owning the player's room so room state stays single-threaded. Joining a
+     * room holds a spot on the joined room's shard, leaves the old room on its shard, then joins on the joined
+     * room's shard again. The player is never in two rooms, so only one room's shard ever sends to them.
+     * @param requestCode The request about to be handled.
+     * @param data The data that comes with it.
+     * @return The room being joined or left, the player's room, or the player if none.
      */
     @Override
-    @Nullable
-    public RequestFulfillment decodeRequest(short requestCode) throws IOException {
-        switch(requestCode) {
-            case RequestCode.JOIN_ROOM:
-                return new JoinRoomRequest(in.readString());
-            case RequestCode.SET_USERNAME:
-                return new SetUsernameRequest(in.readString());
-            case RequestCode.USER_ID:
-            case RequestCode.LEAVE_ROOM:
-            case RequestCode.CREATE_ROOM:
-            case RequestCode.ROOM_INFO:
-            default:
-                return null;
+    @NotNull
+    protected Object getAffinity(short requestCode, @Nullable RequestFulfillment data) {
+        if(requestCode == RequestCode.JOIN_ROOM && data != null) {
+            JoinRoomRequest joinRoomRequest = (JoinRoomRequest) data;
+            if(joinRoomRequest.getReserved() != null)
+                return room != null ? room : joinRoomRequest.getReserved();
+
+            Room joiningRoom = getRooms().get(joinRoomRequest.getPackedCode());
+            if(joiningRoom != null)
+                return joiningRoom;
         }
+
+        if(room != null)
+            return room;
+
+        return this;
     }
 
     /**
-     * Override this method to supply your own request handling.
-     * @param requestCode The short requestCode
-     * @param data        The data that comes with it. (You may want to cast this to your own classes)
-     * @throws IOException If at any point the server/client have trouble communicating. Handled automatically.
+     * @return Every request players make, to set with MultiplayerServer.setRequestRegistry().
      */
-    @Override
-    public void handleRequest(short requestCode, @Nullable RequestFulfillment data) throws IOException {
-        switch(requestCode) {
-            case GeneralRequestCode.CONNECTED:
-                return;
-            case GeneralRequestCode.DISCONNECT:
-                leaveRoom();
-                return;
-            case RequestCode.USER_ID:
-                System.out.println(Tools.formatSocket(connection) + ": USER_ID");
-                out.writeS16(GeneralRequestCode.HANDSHAKE);
-                out.writeS16(requestCode);
-                out.writeString(uuid.toString());
-                return;
-            case RequestCode.JOIN_ROOM:
-                System.out.println(Tools.formatSocket(connection) + ": JOIN_ROOM");
-                assert data != null;
-                JoinRoomRequest joinRoomRequest = (JoinRoomRequest) data;
-                Room joiningRoom = Room.getRoomFromCode(joinRoomRequest.getCode());
-                out.writeS16(GeneralRequestCode.HANDSHAKE);
-                out.writeS16(requestCode);
-                if(joiningRoom == null) {
-                    out.writeS8((byte) 1); // Error 0x01 - room not found
-                    return;
-                }
-
-                if(!joiningRoom.addPlayer(this)) {
-                    out.writeS8((byte) 2); // Error 0x02 - room found, but full
-                    return;
-                }
-
-                leaveRoom();
-                room = joiningRoom;
-                out.writeS8((byte) 0); // Ok 0x00 - room joined
-                return;
-            case RequestCode.LEAVE_ROOM:
-                System.out.println(Tools.formatSocket(connection) + ": LEAVE_ROOM");
-                out.writeS16(GeneralRequestCode.HANDSHAKE);
-                out.writeS16(requestCode);
+    @NotNull
+    public static RequestRegistry<Player> createRequestRegistry() {
+        RequestRegistry<Player> registry = new RequestRegistry<>(Player.class);
+        registry.register(GeneralRequestCode.CONNECTED, "CONNECTED", (player, data) -> {});
+        registry.register(GeneralRequestCode.DISCONNECT, "DISCONNECT", (player, data) -> player.leaveRoom());
+        registry.register(GeneralRequestCode.DRAINED, "DRAINED", (player, data) -> player.handleDrained());
+        registry.register(RequestCode.USER_ID, "USER_ID", (player, data) -> player.handleUserId());
+        registry.register(RequestCode.JOIN_ROOM, "JOIN_ROOM",
+                in -> new JoinRoomRequest(in.readString()), Player::handleJoinRoom);
+        registry.register(RequestCode.LEAVE_ROOM, "LEAVE_ROOM", (player, data) -> player.handleLeaveRoom());
+        registry.register(RequestCode.CREATE_ROOM, "CREATE_ROOM", (player, data) -> player.handleCreateRoom());
+        registry.register(RequestCode.ROOM_INFO, "ROOM_INFO", (player, data) -> player.handleRoomInfo());
+        registry.register(RequestCode.SET_USERNAME, "SET_USERNAME",
+                in -> new SetUsernameRequest(in.readString()), Player::handleSetUsername);
+        registry.register(RequestCode.SUBSCRIBE_ROOM, "SUBSCRIBE_ROOM",
+                in -> new SubscribeRoomRequest(in.readS8() != 0, in.readS32()), Player::handleSubscribeRoom);
+        return registry;
+    }
 
-                if(!leaveRoom()) {
-                    out.writeS8((byte) 1); // Error 0x01 - not currently in a room
-                }
+    private void handleDrained() throws IOException {
+        if(isSubscribed && room != null)
+            sendSnapshot(); // Room events were left out while the client fell behind
+    }
 
-                out.writeS8((byte) 0); // Ok 0x00 - room left
-                return;
-            case RequestCode.CREATE_ROOM:
-                System.out.println(Tools.formatSocket(connection) + ": CREATE_ROOM");
+    private void handleUserId() throws IOException {
+        REQUESTS.info("{}: USER_ID", connection);
+        beginResponse(RequestCode.USER_ID);
+        out.writeString(uuid.toString());
+    }
 
-                leaveRoom();
-                Room newRoom = new Room(this);
-                room = newRoom;
+    private void handleJoinRoom(@Nullable JoinRoomRequest joinRoomRequest) throws IOException {
+        assert joinRoomRequest != null;
+        Room joiningRoom = joinRoomRequest.getReserved();
+        if(joiningRoom == null) {
+            REQUESTS.info("{}: JOIN_ROOM", connection);
+            joiningRoom = getRooms().get(joinRoomRequest.getPackedCode());
+            if(joiningRoom != null && handOff(joiningRoom))
+                return; // Looked up again on the room's own shard
 
-                out.writeS16(GeneralRequestCode.HANDSHAKE);
-                out.writeS16(requestCode);
-                out.writeString(newRoom.getRoomCode().toString());
-                return;
-            case RequestCode.ROOM_INFO:
-                System.out.println(Tools.formatSocket(connection) + ": ROOM_INFO");
-
-                out.writeS16(GeneralRequestCode.HANDSHAKE);
-                out.writeS16(requestCode);
-                if(room == null) {
-                    out.writeS8((byte) 1); // Error 0x01 - not currently in a room
-                    return;
-                }
-
-                out.writeS8((byte) 0); // Ok 0x00 - printing room info
-                out.writeString(room.getRoomCode().toString());
-                out.writeS8((byte) room.getPlayers().size());
-                for(Player player : room.getPlayers())
-                    out.writeString(player.username); // Prints player names. The first player is the host.
+            if(joiningRoom == null) {
+                beginResponse(RequestCode.JOIN_ROOM);
+                out.writeS8((byte) 1); // Error 0x01 - room not found
                 return;
-            case RequestCode.SET_USERNAME:
-                System.out.println(Tools.formatSocket(connection) + ": SET_USERNAME");
-                assert data != null;
-                SetUsernameRequest setUsernameRequest = (SetUsernameRequest) data;
-                username = setUsernameRequest.getUsername();
-
-                out.writeS16(GeneralRequestCode.HANDSHAKE);
-                out.writeS16(requestCode);
-                out.writeString(username);
+            }
+
+            if(!joiningRoom.reserve(this)) {
+                beginResponse(RequestCode.JOIN_ROOM);
+                out.writeS8((byte) 2); // Error 0x02 - room found, but full
                 return;
-            default:
-                System.out.println("Got unknown request: " + requestCode);
+            }
+            joinRoomRequest.setReserved(joiningRoom);
         }
+
+        if(room != null) {
+            if(handOff(room))
+                return; // The old room lives on another shard. Leave it there first.
+            leaveRoom();
+        }
+
+        if(handOff(joiningRoom))
+            return; // Back to the joined room's shard to take the spot
+
+        joinRoomRequest.setReserved(null);
+        joiningRoom.claim(this);
+        room = joiningRoom;
+        beginResponse(RequestCode.JOIN_ROOM);
+        out.writeS8((byte) 0); // Ok 0x00 - room joined
+        if(isSubscribed)
+            sendSnapshot();
+    }
+
+    private void handleLeaveRoom() throws IOException {
+        REQUESTS.info("{}: LEAVE_ROOM", connection);
+        beginResponse(RequestCode.LEAVE_ROOM);
+
+        if(!leaveRoom()) {
+            out.writeS8((byte) 1); // Error 0x01 - not currently in a room
+        }
+
+        out.writeS8((byte) 0); // Ok 0x00 - room left
+    }
+
+    private void handleCreateRoom() throws IOException {
+        if(isSnapshotPending) {
+            isSnapshotPending = false; // Already answered on the shard that created the room
+            sendSnapshot();
+            return;
+        }
+
+        REQUESTS.info("{}: CREATE_ROOM", connection);
+
+        leaveRoom();
+        beginResponse(RequestCode.CREATE_ROOM);
+        try {
+            room = new Room(getRooms(), this);
+        } catch(RoomCodesExhaustedException e) {
+            REQUESTS.warn("Unable to create room: {}", e.getMessage());
+            out.writeString(""); // No room code - no rooms left
+            return;
+        }
+
+        out.writeString(room.getRoomCode().toString());
+        if(!isSubscribed)
+            return;
+
+        if(handOff(room)) {
+            isSnapshotPending = true; // The new room lives on another shard. Only read it there.
+            return;
+        }
+        sendSnapshot();
+    }
+
+    private void handleRoomInfo() throws IOException {
+        REQUESTS.info("{}: ROOM_INFO", connection);
+
+        beginResponse(RequestCode.ROOM_INFO);
+        if(room == null) {
+            out.writeS8((byte) 1); // Error 0x01 - not currently in a room
+            return;
+        }
+
+        out.writeS8((byte) 0); // Ok 0x00 - printing room info
+        out.writeString(room.getRoomCode().toString());
+        out.writeS8((byte) room.getPlayers().size());
+        for(Player player : room.getPlayers())
+            out.writeString(player.username); // Prints player names. The first player is the host.
+    }
+
+    private void handleSetUsername(@Nullable SetUsernameRequest setUsernameRequest) throws IOException {
+        REQUESTS.info("{}: SET_USERNAME", connection);
+        assert setUsernameRequest != null;
+        username = setUsernameRequest.getUsername();
+
+        beginResponse(RequestCode.SET_USERNAME);
+        out.writeString(username);
+        if(room != null)
+            room.renamePlayer(this);
+    }
+
+    private void handleSubscribeRoom(@Nullable SubscribeRoomRequest subscribeRoomRequest) throws IOException {
+        REQUESTS.info("{}: SUBSCRIBE_ROOM", connection);
+        assert subscribeRoomRequest != null;
+        isSubscribed = subscribeRoomRequest.isSubscribe();
+        if(room != null)
+            room.setSubscribed(this, isSubscribed);
+
+        beginResponse(RequestCode.SUBSCRIBE_ROOM);
+        out.writeS8((byte) 0); // Ok 0x00 - subscription changed
+        if(isSubscribed && room != null && room.getVersion() != subscribeRoomRequest.getVersion())
+            sendSnapshot(); // Client is out of date
     }
 }
@@ -11,5 +11,8 @@ public class RequestCode {
     public static final short CREATE_ROOM = 4;
     public static final short ROOM_INFO = 5;
     public static final short SET_USERNAME = 6;
+    public static final short SUBSCRIBE_ROOM = 7;
+    public static final short ROOM_EVENT = 8; // Pushed by the server, never requested
+    public static final short ROOM_SNAPSHOT = 9; // Pushed by the server, never requested
 
 }
@@ -1,7 +1,10 @@
 package com.knoban.hih.requests.impl;
 
+import com.knoban.hih.game.Room;
 import com.knoban.multiplayer.requests.RequestFulfillment;
+import com.knoban.multiplayer.utils.RoomCode;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * @author Alden Bansemer (kNoAPP)
@@ -9,6 +12,8 @@ import org.jetbrains.annotations.NotNull;
 public class JoinRoomRequest implements RequestFulfillment {
 
     private String code;
+    private int packedCode;
+    private Room reserved; // Holds the player's spot while they're handed to their old room's shard to leave it
 
     /**
      * Create a RoomRequest
@@ -23,6 +28,7 @@ public class JoinRoomRequest implements RequestFulfillment {
             code = code.substring(0, 4);
 
         this.code = code.toUpperCase();
+        this.packedCode = RoomCode.pack(this.code);
     }
 
     /**
@@ -32,4 +38,26 @@ public class JoinRoomRequest implements RequestFulfillment {
     public String getCode() {
         return code;
     }
+
+    /**
+     * @return The code of the room being requested packed for lookups or -1 if it's not a valid code.
+     */
+    public int getPackedCode() {
+        return packedCode;
+    }
+
+    /**
+     * @return The room holding a spot for the player until they leave their old room, or null if there's none.
+     */
+    @Nullable
+    public Room getReserved() {
+        return reserved;
+    }
+
+    /**
+     * @param reserved The room holding a spot for the player or null once they joined it.
+     */
+    public void setReserved(@Nullable Room reserved) {
+        this.reserved = reserved;
+    }
 }
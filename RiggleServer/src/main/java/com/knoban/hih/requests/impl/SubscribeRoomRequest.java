@@ -0,0 +1,36 @@
+package com.knoban.hih.requests.impl;
+
+import com.knoban.multiplayer.requests.RequestFulfillment;
+
+/**
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class SubscribeRoomRequest implements RequestFulfillment {
+
+    private boolean subscribe;
+    private int version;
+
+    /**
+     * Create a SubscribeRoomRequest
+     * @param subscribe True, to have room changes pushed. False, to stop.
+     * @param version The version of the room the client already has or -1 if none.
+     */
+    public SubscribeRoomRequest(boolean subscribe, int version) {
+        this.subscribe = subscribe;
+        this.version = version;
+    }
+
+    /**
+     * @return True, to have room changes pushed. False, to stop.
+     */
+    public boolean isSubscribe() {
+        return subscribe;
+    }
+
+    /**
+     * @return The version of the room the client already has or -1 if none.
+     */
+    public int getVersion() {
+        return version;
+    }
+}
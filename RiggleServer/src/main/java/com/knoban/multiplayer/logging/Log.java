@@ -0,0 +1,162 @@
+package com.knoban.multiplayer.logging;
+
+import com.knoban.multiplayer.utils.Tools;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.PrintStream;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Logging that stays off the request path. Loggers put events in a ring of preallocated slots and a single
+ * background thread formats and writes them, so a slow console never holds up the threads reading and processing
+ * requests. If the writer falls a whole ring behind, new events are dropped rather than waited on, and the writer
+ * says how many once it catches up.
+ * <br><br>
+ * Events are written in the order they were logged, without anything added, just like System.out.println would
+ * have. Whatever is still in the ring when the JVM shuts down is written first.
+ * @author Alden Bansemer (kNoAPP)
+ */
+public final class Log {
+
+    private static final int CAPACITY = 8192;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10); // How stale an idle writer gets
+    private static final long REPORT_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long FLUSH_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final LogRing ring = new LogRing(CAPACITY);
+    private static final Map<String, Logger> loggers = new ConcurrentHashMap<>();
+    private static final LongAdder dropped = new LongAdder();
+    private static volatile PrintStream output; // Null to write to whatever System.out is at the time
+    private static final Thread writer;
+
+    static {
+        writer = new Thread(Log::write, "Riggle Log Writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "Riggle Log Flush"));
+    }
+
+    private Log() {}
+
+    /**
+     * @param category The category. (ex. requests)
+     * @return The category's logger. Every call with the same category returns the same one.
+     */
+    @NotNull
+    public static Logger getLogger(@NotNull String category) {
+        return loggers.computeIfAbsent(category, Logger::new);
+    }
+
+    /**
+     * @param output Where events are written or null for System.out. (defaults to null)
+     */
+    public static void setOutput(@Nullable PrintStream output) {
+        Log.output = output;
+    }
+
+    /**
+     * @return The number of events dropped because the writer fell behind.
+     */
+    public static long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Wait until everything logged before this call is written, for up to a second.
+     */
+    public static void flush() {
+        long target = ring.getClaimed();
+        long deadline = System.nanoTime() + FLUSH_TIMEOUT_NANOS;
+        while(ring.getReleased() < target && System.nanoTime() - deadline < 0) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    static void enqueue(@NotNull Logger logger, @NotNull LogLevel level, @NotNull String message,
+                        @Nullable Object arg0, @Nullable Object arg1, @Nullable Object arg2) {
+        LogRing.Slot slot = ring.claim();
+        if(slot == null) {
+            dropped.increment();
+            return;
+        }
+
+        slot.logger = logger;
+        slot.level = level;
+        slot.message = message;
+        slot.arg0 = arg0;
+        slot.arg1 = arg1;
+        slot.arg2 = arg2;
+        ring.publish(slot);
+    }
+
+    private static void write() {
+        StringBuilder line = new StringBuilder(256);
+        long reportedAt = System.nanoTime();
+        long reportedDrops = 0;
+        while(true) {
+            PrintStream out = output != null ? output : System.out;
+            int written = 0;
+            LogRing.Slot slot;
+            while((slot = ring.poll()) != null) {
+                line.setLength(0);
+                try {
+                    format(line, slot.message, slot.arg0, slot.arg1, slot.arg2);
+                } catch(RuntimeException e) { // A broken toString() shouldn't take the writer down
+                    line.append(slot.message).append(" (failed to format: ").append(e.getMessage()).append(')');
+                }
+                out.println(line);
+                ring.release(slot); // After writing, so flush() knows it's out
+                ++written;
+            }
+
+            long now = System.nanoTime();
+            if(now - reportedAt >= REPORT_NANOS) {
+                reportedAt = now;
+                for(Logger logger : loggers.values()) {
+                    long sampledOut = logger.takeSampledOut();
+                    if(sampledOut > 0)
+                        out.println("Sampled out " + sampledOut + " " + logger.getCategory() + " events");
+                }
+
+                long drops = dropped.sum();
+                if(drops > reportedDrops) {
+                    out.println("Dropped " + (drops - reportedDrops) + " log events, the log writer fell behind");
+                    reportedDrops = drops;
+                }
+            }
+
+            if(written > 0)
+                out.flush();
+            else
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+    }
+
+    /**
+     * Write a message with each {} replaced by the next argument.
+     */
+    private static void format(@NotNull StringBuilder sb, @NotNull String message, @Nullable Object arg0,
+                               @Nullable Object arg1, @Nullable Object arg2) {
+        int from = 0;
+        int argument = 0;
+        int at;
+        while(argument < 3 && (at = message.indexOf("{}", from)) >= 0) {
+            sb.append(message, from, at);
+            Object arg = argument == 0 ? arg0 : argument == 1 ? arg1 : arg2;
+            ++argument;
+            if(arg instanceof Socket)
+                sb.append(Tools.formatSocket((Socket) arg));
+            else
+                sb.append(arg);
+            from = at + 2;
+        }
+        sb.append(message, from, message.length());
+    }
+}
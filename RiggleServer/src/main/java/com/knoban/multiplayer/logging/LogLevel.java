@@ -0,0 +1,13 @@
+package com.knoban.multiplayer.logging;
+
+/**
+ * How important a log event is. A logger writes events at or above its level.
+ * @author Alden Bansemer (kNoAPP)
+ */
+public enum LogLevel {
+    DEBUG, // Detail only worth having while chasing a problem
+    INFO, // Normal operation (ex. connects, requests)
+    WARN, // Something went wrong with one connection or request
+    ERROR, // Something went wrong with the server
+    OFF // Nothing is written
+}
@@ -0,0 +1,131 @@
+package com.knoban.multiplayer.logging;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded ring of preallocated log events for many producer threads and one writer thread. Producers claim a
+ * slot, fill it in and publish it. Nothing is allocated and nobody waits: when the ring is full, claiming fails and
+ * the event is dropped.
+ * <br><br>
+ * Every slot has a sequence number. A slot is free for the producer claiming position p when its sequence is p,
+ * holds a published event for the writer at position p when it is p + 1, and is freed for the next lap by setting
+ * it to p + capacity. Sequences are volatile, so the event's fields, written before the sequence, are visible to
+ * whoever reads the sequence next.
+ * @author Alden Bansemer (kNoAPP)
+ */
+class LogRing {
+
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLong producerIndex = new AtomicLong();
+    private volatile long consumerIndex; // Only written by the writer thread
+
+    /**
+     * @param capacity The most events the ring holds. Rounded up to the next power of two.
+     */
+    LogRing(int capacity) {
+        if(capacity < 1 || capacity > (1 << 30))
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30!");
+
+        int size = Integer.highestOneBit(capacity);
+        if(size < capacity)
+            size <<= 1;
+
+        this.slots = new Slot[size];
+        this.mask = size - 1;
+        for(int i=0; i<size; i++)
+            slots[i] = new Slot(i);
+    }
+
+    /**
+     * Claim a slot to fill in. Safe to call from any thread. Follow up with publish().
+     * @return The slot or null if the ring is full.
+     */
+    @Nullable
+    Slot claim() {
+        long index = producerIndex.get();
+        while(true) {
+            Slot slot = slots[(int) index & mask];
+            long diff = slot.sequence - index;
+            if(diff == 0) {
+                if(producerIndex.compareAndSet(index, index + 1)) {
+                    slot.index = index;
+                    return slot;
+                }
+                index = producerIndex.get();
+            } else if(diff < 0) {
+                return null; // The writer hasn't freed this slot from the last lap yet
+            } else {
+                index = producerIndex.get(); // Another producer claimed it first
+            }
+        }
+    }
+
+    /**
+     * Hand a filled in slot to the writer.
+     * @param slot The slot from claim().
+     */
+    void publish(@NotNull Slot slot) {
+        slot.sequence = slot.index + 1;
+    }
+
+    /**
+     * Take the next published event. Writer thread only. Follow up with release() once it's written.
+     * @return The slot or null if nothing is published yet.
+     */
+    @Nullable
+    Slot poll() {
+        long index = consumerIndex;
+        Slot slot = slots[(int) index & mask];
+        return slot.sequence == index + 1 ? slot : null;
+    }
+
+    /**
+     * Free the slot from poll() for producers. Writer thread only.
+     * @param slot The written slot.
+     */
+    void release(@NotNull Slot slot) {
+        slot.logger = null;
+        slot.arg0 = null; // Don't hold on to connections until the slot comes around again
+        slot.arg1 = null;
+        slot.arg2 = null;
+        slot.sequence = slot.index + slots.length;
+        consumerIndex = slot.index + 1;
+    }
+
+    /**
+     * @return The number of events claimed so far.
+     */
+    long getClaimed() {
+        return producerIndex.get();
+    }
+
+    /**
+     * @return The number of events written so far.
+     */
+    long getReleased() {
+        return consumerIndex;
+    }
+
+    /**
+     * One log event. Fields are filled in by the producer that claimed it and read by the writer.
+     */
+    static final class Slot {
+
+        private volatile long sequence;
+        private long index;
+        Logger logger;
+        LogLevel level;
+        String message;
+        Object arg0;
+        Object arg1;
+        Object arg2;
+
+        private Slot(long sequence) {
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.knoban.multiplayer.logging;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Logs one category of events (ex. requests). Events are handed to Log's writer thread with their arguments and
+ * only formatted there, so logging costs the caller a level check and a slot in the ring. Messages mark where
+ * arguments go with {}. Sockets are written as ip:port.
+ * <br><br>
+ * Categories that log per request can be sampled: past the sample rate, DEBUG and INFO events are counted instead
+ * of written and the writer notes how many were left out once a second. WARN and ERROR are always written, since
+ * they matter most when things get busy.
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class Logger {
+
+    private static final long SAMPLE_WINDOW_NANOS = 1_000_000_000L;
+
+    private final String category;
+    private volatile LogLevel level = LogLevel.INFO;
+    private volatile int sampleRate; // Events per second or 0 to write them all
+    private volatile long sampleWindow; // Which second sampled counts
+    private final AtomicInteger sampled = new AtomicInteger();
+    private final LongAdder sampledOut = new LongAdder();
+
+    Logger(@NotNull String category) {
+        this.category = category;
+    }
+
+    /**
+     * @return The category this logger logs. (ex. requests)
+     */
+    @NotNull
+    public String getCategory() {
+        return category;
+    }
+
+    /**
+     * @param level The least important level written. (defaults to INFO)
+     */
+    public void setLevel(@NotNull LogLevel level) {
+        this.level = level;
+    }
+
+    @NotNull
+    public LogLevel getLevel() {
+        return level;
+    }
+
+    /**
+     * Write at most this many DEBUG and INFO events a second. The rest are counted and left out. WARN and ERROR
+     * events don't count toward the rate and are never left out.
+     * @param sampleRate The events per second or 0 to write every event. (defaults to 0)
+     */
+    public void setSampleRate(int sampleRate) {
+        if(sampleRate < 0)
+            throw new IllegalArgumentException("Sample rate can't be negative!");
+
+        this.sampleRate = sampleRate;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @param level The level.
+     * @return True, if events at the level are written. Use it to skip work done only to build arguments.
+     */
+    public boolean isEnabled(@NotNull LogLevel level) {
+        return level != LogLevel.OFF && level.compareTo(this.level) >= 0;
+    }
+
+    public void debug(@NotNull String message) {
+        log(LogLevel.DEBUG, message, null, null, null);
+    }
+
+    public void debug(@NotNull String message, @Nullable Object arg) {
+        log(LogLevel.DEBUG, message, arg, null, null);
+    }
+
+    public void debug(@NotNull String message, @Nullable Object arg0, @Nullable Object arg1) {
+        log(LogLevel.DEBUG, message, arg0, arg1, null);
+    }
+
+    public void debug(@NotNull String message, @Nullable Object arg0, @Nullable Object arg1, @Nullable Object arg2) {
+        log(LogLevel.DEBUG, message, arg0, arg1, arg2);
+    }
+
+    public void info(@NotNull String message) {
+        log(LogLevel.INFO, message, null, null, null);
+    }
+
+    public void info(@NotNull String message, @Nullable Object arg) {
+        log(LogLevel.INFO, message, arg, null, null);
+    }
+
+    public void info(@NotNull String message, @Nullable Object arg0, @Nullable Object arg1) {
+        log(LogLevel.INFO, message, arg0, arg1, null);
+    }
+
+    public void info(@NotNull String message, @Nullable Object arg0, @Nullable Object arg1, @Nullable Object arg2) {
+        log(LogLevel.INFO, message, arg0, arg1, arg2);
+    }
+
+    public void warn(@NotNull String message) {
+        log(LogLevel.WARN, message, null, null, null);
+    }
+
+    public void warn(@NotNull String message, @Nullable Object arg) {
+        log(LogLevel.WARN, message, arg, null, null);
+    }
+
+    public void warn(@NotNull String message, @Nullable Object arg0, @Nullable Object arg1) {
+        log(LogLevel.WARN, message, arg0, arg1, null);
+    }
+
+    public void warn(@NotNull String message, @Nullable Object arg0, @Nullable Object arg1, @Nullable Object arg2) {
+        log(LogLevel.WARN, message, arg0, arg1, arg2);
+    }
+
+    public void error(@NotNull String message) {
+        log(LogLevel.ERROR, message, null, null, null);
+    }
+
+    public void error(@NotNull String message, @Nullable Object arg) {
+        log(LogLevel.ERROR, message, arg, null, null);
+    }
+
+    public void error(@NotNull String message, @Nullable Object arg0, @Nullable Object arg1) {
+        log(LogLevel.ERROR, message, arg0, arg1, null);
+    }
+
+    public void error(@NotNull String message, @Nullable Object arg0, @Nullable Object arg1, @Nullable Object arg2) {
+        log(LogLevel.ERROR, message, arg0, arg1, arg2);
+    }
+
+    /**
+     * Log an event. Never blocks. If the writer has fallen too far behind, the event is dropped and counted.
+     * @param level The event's level.
+     * @param message The message with a {} for each argument.
+     * @param arg0 The first argument or null.
+     * @param arg1 The second argument or null.
+     * @param arg2 The third argument or null.
+     */
+    public void log(@NotNull LogLevel level, @NotNull String message, @Nullable Object arg0, @Nullable Object arg1,
+                    @Nullable Object arg2) {
+        if(!isEnabled(level))
+            return;
+
+        if(sampleRate > 0 && level.compareTo(LogLevel.WARN) < 0 && !sample()) {
+            sampledOut.increment();
+            return;
+        }
+
+        Log.enqueue(this, level, message, arg0, arg1, arg2);
+    }
+
+    /**
+     * @return True, if the event fits in this second's sample. Threads racing into a new second may let a few
+     * extra through.
+     */
+    private boolean sample() {
+        long window = System.nanoTime() / SAMPLE_WINDOW_NANOS;
+        if(window != sampleWindow) {
+            sampleWindow = window;
+            sampled.set(0);
+        }
+        return sampled.incrementAndGet() <= sampleRate;
+    }
+
+    /**
+     * @return The number of events left out by sampling since the last call. Writer thread only.
+     */
+    long takeSampledOut() {
+        return sampledOut.sumThenReset();
+    }
+}
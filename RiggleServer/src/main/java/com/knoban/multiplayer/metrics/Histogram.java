@@ -0,0 +1,94 @@
+package com.knoban.multiplayer.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts values in log-linear buckets: every power of two is split into 32 buckets, so any recorded value is known
+ * to within about 3% no matter how large it is, from a nanosecond to days. Takes a fixed ~15 KB.
+ * <br><br>
+ * Recording is lock-free and never allocates, so it's safe on the request path from any number of Threads. Reading
+ * while others record gives a summary that may be a few values behind.
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param value The value to record. Negative values count as 0.
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        counts.incrementAndGet(indexOf(value));
+        sum.add(value);
+
+        long max;
+        while(value > (max = this.max.get()) && !this.max.compareAndSet(max, value));
+    }
+
+    /**
+     * @return The count, mean, max and common percentiles of everything recorded so far.
+     */
+    @NotNull
+    public HistogramSummary summarize() {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for(int i=0; i<BUCKETS; i++) {
+            counts[i] = this.counts.get(i);
+            count += counts[i];
+        }
+
+        long max = this.max.get();
+        long sum = this.sum.sum();
+        return new HistogramSummary(count, count == 0 ? 0 : sum / count, sum,
+                percentile(counts, count, max, 50), percentile(counts, count, max, 90),
+                percentile(counts, count, max, 99), percentile(counts, count, max, 99.9), max);
+    }
+
+    /**
+     * @return The value the percentile of recorded values are at or under, rounded up to the end of its bucket.
+     */
+    private static long percentile(@NotNull long[] counts, long count, long max, double percentile) {
+        if(count == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for(int i=0; i<BUCKETS; i++) {
+            seen += counts[i];
+            if(seen >= rank)
+                return Math.min(max, highestIn(i));
+        }
+        return max; // Recorded into while being read
+    }
+
+    private static int indexOf(long value) {
+        if(value < SUB_BUCKETS)
+            return (int) value;
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value); // At least SUB_BUCKET_BITS
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long highestIn(int index) {
+        if(index < SUB_BUCKETS)
+            return index;
+
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        int shift = exponent - SUB_BUCKET_BITS;
+        long lowest = (1L << exponent) | (subBucket << shift);
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,94 @@
+package com.knoban.multiplayer.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * What a Histogram held when it was summarized. Values are in whatever unit was recorded (nanoseconds for
+ * latencies). Shows up in JMX consoles as a composite with one item per getter.
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class HistogramSummary {
+
+    private final long count;
+    private final long mean;
+    private final long sum;
+    private final long p50;
+    private final long p90;
+    private final long p99;
+    private final long p999;
+    private final long max;
+
+    @ConstructorProperties({"count", "mean", "sum", "p50", "p90", "p99", "p999", "max"})
+    public HistogramSummary(long count, long mean, long sum, long p50, long p90, long p99, long p999, long max) {
+        this.count = count;
+        this.mean = mean;
+        this.sum = sum;
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.p999 = p999;
+        this.max = max;
+    }
+
+    /**
+     * @return The number of recorded values.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return The average recorded value.
+     */
+    public long getMean() {
+        return mean;
+    }
+
+    /**
+     * @return All recorded values added together.
+     */
+    public long getSum() {
+        return sum;
+    }
+
+    /**
+     * @return The median.
+     */
+    public long getP50() {
+        return p50;
+    }
+
+    /**
+     * @return The 90th percentile.
+     */
+    public long getP90() {
+        return p90;
+    }
+
+    /**
+     * @return The 99th percentile.
+     */
+    public long getP99() {
+        return p99;
+    }
+
+    /**
+     * @return The 99.9th percentile.
+     */
+    public long getP999() {
+        return p999;
+    }
+
+    /**
+     * @return The largest recorded value.
+     */
+    public long getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count + ", mean=" + mean + ", p50=" + p50 + ", p90=" + p90 + ", p99=" + p99 + ", p999="
+                + p999 + ", max=" + max;
+    }
+}
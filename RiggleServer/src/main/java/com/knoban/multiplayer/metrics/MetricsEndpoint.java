@@ -0,0 +1,130 @@
+package com.knoban.multiplayer.metrics;
+
+import com.knoban.multiplayer.logging.Log;
+import com.knoban.multiplayer.logging.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves a server's metrics as plain text over HTTP, for Prometheus or curl to scrape. Only listens on the loopback
+ * address, so metrics never leave the machine unless something local forwards them. Scrapes are answered one at a
+ * time on a single Thread, which is plenty for a scraper every few seconds.
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class MetricsEndpoint {
+
+    private static final Logger METRICS = Log.getLogger("metrics");
+
+    private static final int READ_TIMEOUT_MILLIS = 2000; // Scrapers that stall can't hold up the next one
+
+    private final ServerMetrics metrics;
+    private final ServerSocket serverSocket;
+    private Thread thread;
+    private volatile boolean isRunning;
+
+    /**
+     * Bind the endpoint. Call start() to begin answering scrapes.
+     * @param metrics The metrics to serve.
+     * @param port The port to listen on.
+     * @throws IOException If the port can't be bound.
+     */
+    public MetricsEndpoint(@NotNull ServerMetrics metrics, int port) throws IOException {
+        this.metrics = metrics;
+        this.serverSocket = new ServerSocket(port, 8, InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * @return The port the endpoint listens on.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Start the endpoint's thread.
+     */
+    public void start() {
+        if(isRunning)
+            return;
+
+        isRunning = true;
+        thread = new Thread(this::run, "Riggle Metrics Endpoint");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        while(isRunning) {
+            try(Socket scraper = serverSocket.accept()) {
+                scraper.setSoTimeout(READ_TIMEOUT_MILLIS);
+                answer(scraper);
+            } catch(SocketException e) {
+                if(isRunning)
+                    METRICS.warn("Failed to answer metrics scrape: {}", e.getMessage());
+            } catch(IOException e) {
+                METRICS.warn("Failed to answer metrics scrape: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Answer one HTTP request. Any GET gets the metrics. Headers are read and ignored.
+     * @param scraper The connection to answer.
+     * @throws IOException If the connection fails.
+     */
+    private void answer(@NotNull Socket scraper) throws IOException {
+        BufferedReader in = new BufferedReader(
+                new InputStreamReader(scraper.getInputStream(), StandardCharsets.US_ASCII));
+        String requestLine = in.readLine();
+        if(requestLine == null)
+            return;
+
+        String line;
+        while((line = in.readLine()) != null && !line.isEmpty()); // Skip headers
+
+        String status;
+        StringBuilder body = new StringBuilder(8192);
+        if(requestLine.startsWith("GET ")) {
+            status = "200 OK";
+            metrics.writeText(body);
+        } else {
+            status = "405 Method Not Allowed";
+            body.append("Only GET is supported.\n");
+        }
+
+        byte[] content = body.toString().getBytes(StandardCharsets.UTF_8);
+        String headers = "HTTP/1.1 " + status + "\r\n"
+                + "Content-Type: text/plain; version=0.0.4; charset=utf-8\r\n"
+                + "Content-Length: " + content.length + "\r\n"
+                + "Connection: close\r\n\r\n";
+
+        OutputStream out = scraper.getOutputStream();
+        out.write(headers.getBytes(StandardCharsets.US_ASCII));
+        out.write(content);
+        out.flush();
+    }
+
+    /**
+     * Stop answering scrapes and free the port.
+     */
+    public void close() {
+        isRunning = false;
+        try {
+            serverSocket.close();
+            if(thread != null)
+                thread.join();
+        } catch(IOException | InterruptedException e) {
+            METRICS.warn("Got interrupted while stopping the metrics endpoint: {}", e.getMessage());
+        }
+        thread = null;
+    }
+}
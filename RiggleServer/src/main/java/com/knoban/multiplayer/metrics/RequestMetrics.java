@@ -0,0 +1,52 @@
+package com.knoban.multiplayer.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Where the time of one request code goes, in nanoseconds: decoding it until it's queued, waiting in the queue
+ * until a processing shard gets to it, and handling it.
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class RequestMetrics {
+
+    private final String name;
+    private final Histogram decode = new Histogram();
+    private final Histogram queueWait = new Histogram();
+    private final Histogram handle = new Histogram();
+
+    RequestMetrics(@NotNull String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return The request code's name. (ex. JOIN_ROOM)
+     */
+    @NotNull
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return From the start of decoding until the request was queued, including any wait on a rate limit.
+     */
+    @NotNull
+    public Histogram getDecode() {
+        return decode;
+    }
+
+    /**
+     * @return From being queued until a processing shard started handling it.
+     */
+    @NotNull
+    public Histogram getQueueWait() {
+        return queueWait;
+    }
+
+    /**
+     * @return How long handling took. Its count is the number of requests handled.
+     */
+    @NotNull
+    public Histogram getHandle() {
+        return handle;
+    }
+}
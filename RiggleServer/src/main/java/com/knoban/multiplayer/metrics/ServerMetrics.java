@@ -0,0 +1,277 @@
+package com.knoban.multiplayer.metrics;
+
+import com.knoban.multiplayer.logging.Log;
+import com.knoban.multiplayer.logging.Logger;
+import com.knoban.multiplayer.requests.GeneralRequestCode;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Everything a MultiplayerServer measures about itself. Recording is lock-free and never allocates, so it happens
+ * on the request path itself. Reading (JMX, the plain-text endpoint) is what pays for summarizing.
+ * <br><br>
+ * Requests are measured per request code, but only for codes that were named. The rest are measured together as
+ * OTHER, so a client sending made-up codes can't make the server allocate anything.
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class ServerMetrics implements ServerMetricsMXBean {
+
+    private static final Logger METRICS = Log.getLogger("metrics");
+
+    private static final String PREFIX = "riggle_";
+
+    private final AtomicReferenceArray<RequestMetrics> requests = new AtomicReferenceArray<>(1 << 16); // By code & 0xFFFF
+    private final List<RequestMetrics> namedRequests = new CopyOnWriteArrayList<>();
+    private final RequestMetrics otherRequests = new RequestMetrics("OTHER");
+    private final Histogram queueDepths = new Histogram();
+    private final Histogram processingPasses = new Histogram();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final List<Gauge> gauges = new CopyOnWriteArrayList<>();
+
+    public ServerMetrics() {
+        nameRequests(GeneralRequestCode.class);
+    }
+
+    /**
+     * Start measuring a request code on its own. Name codes before the server is opened.
+     * @param requestCode The request code.
+     * @param name The name to show it under. (ex. JOIN_ROOM)
+     */
+    public synchronized void nameRequest(short requestCode, @NotNull String name) {
+        RequestMetrics metrics = new RequestMetrics(name);
+        RequestMetrics old = requests.getAndSet(requestCode & 0xFFFF, metrics);
+        if(old != null)
+            namedRequests.remove(old);
+        namedRequests.add(metrics);
+    }
+
+    /**
+     * Name every public static short field of a class of request codes after the field. (ex. RequestCode.class)
+     * @param requestCodes The class holding the request codes.
+     */
+    public void nameRequests(@NotNull Class<?> requestCodes) {
+        for(Field field : requestCodes.getFields()) {
+            if(field.getType() != short.class || !Modifier.isStatic(field.getModifiers()))
+                continue;
+
+            try {
+                nameRequest(field.getShort(null), field.getName());
+            } catch(IllegalAccessException e) {
+                METRICS.warn("Unable to read request code {}: {}", field.getName(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @param requestCode The request code.
+     * @return What is measured for the request code. Codes that weren't named share OTHER's.
+     */
+    @NotNull
+    public RequestMetrics getRequest(short requestCode) {
+        RequestMetrics toRet = requests.get(requestCode & 0xFFFF);
+        return toRet == null ? otherRequests : toRet;
+    }
+
+    /**
+     * Show a value that is read when metrics are, rather than recorded. (ex. the number of open rooms)
+     * @param name The gauge's name in lower_snake_case. Prefixed with riggle_ in plain text.
+     * @param help What the gauge shows.
+     * @param value Supplies the gauge's current value. Called from whichever Thread reads the metrics.
+     */
+    public void addGauge(@NotNull String name, @NotNull String help, @NotNull LongSupplier value) {
+        gauges.add(new Gauge(name, help, value));
+    }
+
+    public void recordDecode(short requestCode, long nanos) {
+        getRequest(requestCode).getDecode().record(nanos);
+    }
+
+    public void recordQueueWait(short requestCode, long nanos) {
+        getRequest(requestCode).getQueueWait().record(nanos);
+    }
+
+    public void recordHandle(short requestCode, long nanos) {
+        getRequest(requestCode).getHandle().record(nanos);
+    }
+
+    /**
+     * @param depth How many requests a connection had queued right after queueing one more.
+     */
+    public void recordQueueDepth(int depth) {
+        queueDepths.record(depth);
+    }
+
+    /**
+     * @param nanos How long a processing shard spent on one connection's queued requests.
+     */
+    public void recordProcessingPass(long nanos) {
+        processingPasses.record(nanos);
+    }
+
+    public void recordBytesIn(long bytes) {
+        bytesIn.add(bytes);
+    }
+
+    public void recordBytesOut(long bytes) {
+        bytesOut.add(bytes);
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public Map<String, Long> getGauges() {
+        Map<String, Long> toRet = new LinkedHashMap<>();
+        for(Gauge gauge : gauges)
+            toRet.put(gauge.name, gauge.value.getAsLong());
+        return toRet;
+    }
+
+    @Override
+    public Map<String, HistogramSummary> getDecodeTimes() {
+        return summarizeRequests(RequestMetrics::getDecode);
+    }
+
+    @Override
+    public Map<String, HistogramSummary> getQueueWaits() {
+        return summarizeRequests(RequestMetrics::getQueueWait);
+    }
+
+    @Override
+    public Map<String, HistogramSummary> getHandleTimes() {
+        return summarizeRequests(RequestMetrics::getHandle);
+    }
+
+    @Override
+    public HistogramSummary getQueueDepths() {
+        return queueDepths.summarize();
+    }
+
+    @Override
+    public HistogramSummary getProcessingPassTimes() {
+        return processingPasses.summarize();
+    }
+
+    @NotNull
+    private Map<String, HistogramSummary> summarizeRequests(@NotNull Function<RequestMetrics, Histogram> histogram) {
+        Map<String, HistogramSummary> toRet = new LinkedHashMap<>();
+        for(RequestMetrics request : namedRequests) {
+            HistogramSummary summary = histogram.apply(request).summarize();
+            if(summary.getCount() > 0)
+                toRet.put(request.getName(), summary);
+        }
+
+        HistogramSummary other = histogram.apply(otherRequests).summarize();
+        if(other.getCount() > 0)
+            toRet.put(otherRequests.getName(), other);
+        return toRet;
+    }
+
+    /**
+     * Write every metric in the plain-text format Prometheus scrapes. Times are in seconds.
+     * @param sb Where to write.
+     */
+    public void writeText(@NotNull StringBuilder sb) {
+        Map<String, HistogramSummary> handleTimes = getHandleTimes();
+        writeType(sb, "requests_total", "Requests handled.", "counter");
+        for(Map.Entry<String, HistogramSummary> entry : handleTimes.entrySet())
+            writeValue(sb, "requests_total", "request=\"" + entry.getKey() + "\"", entry.getValue().getCount());
+
+        writeRequestSummaries(sb, "request_decode_seconds", "From decoding a request until it was queued.",
+                getDecodeTimes());
+        writeRequestSummaries(sb, "request_queue_wait_seconds", "From queueing a request until handling began.",
+                getQueueWaits());
+        writeRequestSummaries(sb, "request_handle_seconds", "Time spent handling a request.", handleTimes);
+
+        writeType(sb, "queue_depth", "Requests a connection had queued, sampled on every queued request.", "summary");
+        writeSummary(sb, "queue_depth", null, queueDepths.summarize(), 1);
+        writeType(sb, "processing_pass_seconds", "Time spent on one connection's queued requests.", "summary");
+        writeSummary(sb, "processing_pass_seconds", null, processingPasses.summarize(), 1e9);
+
+        writeType(sb, "bytes_in_total", "Bytes read from connections.", "counter");
+        writeValue(sb, "bytes_in_total", null, getBytesIn());
+        writeType(sb, "bytes_out_total", "Bytes written to connections.", "counter");
+        writeValue(sb, "bytes_out_total", null, getBytesOut());
+
+        for(Gauge gauge : gauges) {
+            writeType(sb, gauge.name, gauge.help, "gauge");
+            writeValue(sb, gauge.name, null, gauge.value.getAsLong());
+        }
+    }
+
+    private static void writeRequestSummaries(@NotNull StringBuilder sb, @NotNull String name, @NotNull String help,
+                                              @NotNull Map<String, HistogramSummary> summaries) {
+        writeType(sb, name, help, "summary");
+        for(Map.Entry<String, HistogramSummary> entry : summaries.entrySet())
+            writeSummary(sb, name, "request=\"" + entry.getKey() + "\"", entry.getValue(), 1e9);
+    }
+
+    private static void writeType(@NotNull StringBuilder sb, @NotNull String name, @NotNull String help,
+                                  @NotNull String type) {
+        sb.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void writeSummary(@NotNull StringBuilder sb, @NotNull String name, @Nullable String labels,
+                                     @NotNull HistogramSummary summary, double unit) {
+        String prefix = labels == null ? "" : labels + ",";
+        writeValue(sb, name, prefix + "quantile=\"0.5\"", summary.getP50() / unit);
+        writeValue(sb, name, prefix + "quantile=\"0.9\"", summary.getP90() / unit);
+        writeValue(sb, name, prefix + "quantile=\"0.99\"", summary.getP99() / unit);
+        writeValue(sb, name, prefix + "quantile=\"0.999\"", summary.getP999() / unit);
+        writeValue(sb, name, prefix + "quantile=\"1\"", summary.getMax() / unit);
+        writeValue(sb, name + "_sum", labels, summary.getSum() / unit);
+        writeValue(sb, name + "_count", labels, summary.getCount());
+    }
+
+    private static void writeValue(@NotNull StringBuilder sb, @NotNull String name, @Nullable String labels,
+                                   double value) {
+        writeName(sb, name, labels);
+        sb.append(value).append('\n');
+    }
+
+    private static void writeValue(@NotNull StringBuilder sb, @NotNull String name, @Nullable String labels,
+                                   long value) {
+        writeName(sb, name, labels);
+        sb.append(value).append('\n');
+    }
+
+    private static void writeName(@NotNull StringBuilder sb, @NotNull String name, @Nullable String labels) {
+        sb.append(PREFIX).append(name);
+        if(labels != null)
+            sb.append('{').append(labels).append('}');
+        sb.append(' ');
+    }
+
+    private static final class Gauge {
+
+        private final String name;
+        private final String help;
+        private final LongSupplier value;
+
+        private Gauge(String name, String help, LongSupplier value) {
+            this.name = name;
+            this.help = help;
+            this.value = value;
+        }
+    }
+}
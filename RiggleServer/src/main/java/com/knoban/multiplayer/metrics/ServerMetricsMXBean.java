@@ -0,0 +1,27 @@
+package com.knoban.multiplayer.metrics;
+
+import java.util.Map;
+
+/**
+ * What a MultiplayerServer shows in JMX consoles (ex. JConsole, VisualVM). Times are in nanoseconds. Request maps
+ * are keyed by request name and only hold requests that were seen.
+ * @author Alden Bansemer (kNoAPP)
+ */
+public interface ServerMetricsMXBean {
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    Map<String, Long> getGauges();
+
+    Map<String, HistogramSummary> getDecodeTimes();
+
+    Map<String, HistogramSummary> getQueueWaits();
+
+    Map<String, HistogramSummary> getHandleTimes();
+
+    HistogramSummary getQueueDepths();
+
+    HistogramSummary getProcessingPassTimes();
+}
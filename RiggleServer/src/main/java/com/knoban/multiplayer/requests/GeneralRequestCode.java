@@ -8,5 +8,9 @@ public class GeneralRequestCode {
     public static final short HANDSHAKE = ~(0);
     public static final short CONNECTED = ~(1);
     public static final short DISCONNECT = ~(2);
+    public static final short PROTOCOL = ~(3); // S16 requested version. Answered with the S16 version agreed on.
+    public static final short BATCH = ~(4); // V2 and up. Framed requests (S16 code + S32 length + data) back to back. Answered the same way.
+    public static final short DRAINED = ~(5); // Never sent. Handled once a slow connection catches up after broadcasts to it were coalesced.
+    public static final short HEARTBEAT = ~(6); // S8 0 for a ping, answered with a pong, or 1 for a pong. Keeps idle connections open.
 
 }
@@ -0,0 +1,15 @@
+package com.knoban.multiplayer.requests;
+
+/**
+ * Framing versions a client can ask for with GeneralRequestCode.PROTOCOL. Every connection starts out on V1.
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class ProtocolVersion {
+
+    public static final short V1 = 1; // HANDSHAKE + request code, then the request's data
+    public static final short V2 = 2; // HANDSHAKE + request code + S32 length, then exactly that many bytes of data
+    public static final short V3 = 3; // V2 framing with Strings as a varint length and UTF-8 (StringEncoding.UTF8_PREFIXED)
+    public static final short V4 = 4; // V3 with Deflate compressed frames, flagged by the top bit of their length (see FrameDeflater)
+    public static final short LATEST = V4;
+
+}
@@ -0,0 +1,25 @@
+package com.knoban.multiplayer.requests;
+
+import com.knoban.multiplayer.streams.CSInputStream;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+
+/**
+ * Reads the data that comes with one kind of request. Runs on the connection's reader thread (or event loop), so
+ * it shouldn't touch game state. (ex. in -> new JoinRoomRequest(in.readString()))
+ * @param <R> The request's data.
+ * @author Alden Bansemer (kNoAPP)
+ */
+@FunctionalInterface
+public interface RequestDecoder<R extends RequestFulfillment> {
+
+    /**
+     * @param in The stream positioned after the request code.
+     * @return The decoded request or null if no data.
+     * @throws IOException If the request cannot be decoded.
+     */
+    @Nullable
+    R decode(@NotNull CSInputStream in) throws IOException;
+}
@@ -0,0 +1,24 @@
+package com.knoban.multiplayer.requests;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+
+/**
+ * Handles one kind of request on the shard processing the connection. Usually a method reference to the
+ * connection driver's own method. (ex. Player::joinRoom)
+ * @param <C> The connection driver.
+ * @param <R> The request's data.
+ * @author Alden Bansemer (kNoAPP)
+ */
+@FunctionalInterface
+public interface RequestHandler<C, R extends RequestFulfillment> {
+
+    /**
+     * @param connection The connection that sent the request.
+     * @param data The data from the request's decoder or null if it has none.
+     * @throws IOException If at any point the server/client have trouble communicating. Handled automatically.
+     */
+    void handle(@NotNull C connection, @Nullable R data) throws IOException;
+}
@@ -0,0 +1,155 @@
+package com.knoban.multiplayer.requests;
+
+import com.knoban.multiplayer.metrics.ServerMetrics;
+import com.knoban.multiplayer.streams.CSInputStream;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Maps request codes to how they're decoded and handled, so adding a request is one registration instead of a case
+ * in both decodeRequest and handleRequest. Registrations sit in an array indexed by request code, so finding one
+ * costs the same however many requests a game has. Codes that aren't registered fall back to the connection's
+ * decodeRequest and handleRequest.
+ * <br><br>
+ * Register everything before the server is opened. Lookups aren't synchronized with registering.
+ * @param <C> The connection driver requests are handled by. (ex. Player)
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class RequestRegistry<C> {
+
+    private final Class<C> connectionDriver;
+    private final Registration<C, ?>[] registrations;
+    private final List<Registration<C, ?>> registered = new ArrayList<>();
+
+    /**
+     * @param connectionDriver The connection driver handlers take. Servers check it against their own when opened.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public RequestRegistry(@NotNull Class<C> connectionDriver) {
+        this.connectionDriver = connectionDriver;
+        this.registrations = new Registration[1 << 16];
+    }
+
+    /**
+     * @return The connection driver handlers take. (ex. Player.class)
+     */
+    @NotNull
+    public Class<C> getConnectionDriver() {
+        return connectionDriver;
+    }
+
+    /**
+     * Register a request without data.
+     * @param requestCode The request code.
+     * @param name The name it's measured under. (ex. LEAVE_ROOM)
+     * @param handler Handles the request.
+     */
+    public void register(short requestCode, @NotNull String name,
+                         @NotNull RequestHandler<? super C, RequestFulfillment> handler) {
+        register(requestCode, name, null, handler);
+    }
+
+    /**
+     * Register a request.
+     * @param requestCode The request code.
+     * @param name The name it's measured under. (ex. JOIN_ROOM)
+     * @param decoder Reads the request's data or null if it has none.
+     * @param handler Handles the request with the decoded data.
+     * @param <R> The request's data.
+     */
+    public <R extends RequestFulfillment> void register(short requestCode, @NotNull String name,
+                                                        @Nullable RequestDecoder<? extends R> decoder,
+                                                        @NotNull RequestHandler<? super C, ? super R> handler) {
+        if(requestCode == GeneralRequestCode.HANDSHAKE || requestCode == GeneralRequestCode.PROTOCOL
+                || requestCode == GeneralRequestCode.BATCH || requestCode == GeneralRequestCode.HEARTBEAT)
+            throw new IllegalArgumentException("Request " + requestCode + " is handled by the connection itself!");
+
+        Registration<C, R> registration = new Registration<>(requestCode, name, decoder, handler);
+        Registration<C, ?> old = registrations[requestCode & 0xFFFF];
+        if(old != null)
+            registered.remove(old);
+        registrations[requestCode & 0xFFFF] = registration;
+        registered.add(registration);
+    }
+
+    /**
+     * @param requestCode The request code.
+     * @return How the request is decoded and handled or null if it falls back to decodeRequest and handleRequest.
+     */
+    @Nullable
+    public Registration<C, ?> get(short requestCode) {
+        return registrations[requestCode & 0xFFFF];
+    }
+
+    /**
+     * @return Every registration in the order they were registered.
+     */
+    @NotNull
+    public List<Registration<C, ?>> getRegistrations() {
+        return Collections.unmodifiableList(registered);
+    }
+
+    /**
+     * Measure every registered request under its own name.
+     * @param metrics The metrics to name them in.
+     */
+    public void nameRequests(@NotNull ServerMetrics metrics) {
+        for(Registration<C, ?> registration : registered)
+            metrics.nameRequest(registration.requestCode, registration.name);
+    }
+
+    /**
+     * How one request code is decoded and handled.
+     * @param <C> The connection driver.
+     * @param <R> The request's data.
+     */
+    public static final class Registration<C, R extends RequestFulfillment> {
+
+        private final short requestCode;
+        private final String name;
+        private final RequestDecoder<? extends R> decoder;
+        private final RequestHandler<? super C, ? super R> handler;
+
+        private Registration(short requestCode, @NotNull String name, @Nullable RequestDecoder<? extends R> decoder,
+                             @NotNull RequestHandler<? super C, ? super R> handler) {
+            this.requestCode = requestCode;
+            this.name = name;
+            this.decoder = decoder;
+            this.handler = handler;
+        }
+
+        public short getRequestCode() {
+            return requestCode;
+        }
+
+        @NotNull
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @param in The stream positioned after the request code.
+         * @return The decoded request or null if no data.
+         * @throws IOException If the request cannot be decoded.
+         */
+        @Nullable
+        public RequestFulfillment decode(@NotNull CSInputStream in) throws IOException {
+            return decoder == null ? null : decoder.decode(in);
+        }
+
+        /**
+         * @param connection The connection that sent the request.
+         * @param data The data decode() returned.
+         * @throws IOException If at any point the server/client have trouble communicating.
+         */
+        @SuppressWarnings("unchecked")
+        public void handle(@NotNull C connection, @Nullable RequestFulfillment data) throws IOException {
+            handler.handle(connection, (R) data);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.knoban.multiplayer.requests.impl;
+
+import com.knoban.multiplayer.requests.RequestFulfillment;
+import com.knoban.multiplayer.utils.Pair;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class BatchRequest implements RequestFulfillment {
+
+    private List<Pair<Short, RequestFulfillment>> requests;
+
+    /**
+     * Create a BatchRequest
+     * @param requests The decoded requests in the order they were sent.
+     */
+    public BatchRequest(@NotNull List<Pair<Short, RequestFulfillment>> requests) {
+        this.requests = Collections.unmodifiableList(requests);
+    }
+
+    /**
+     * @return The decoded requests in the order they were sent.
+     */
+    @NotNull
+    public List<Pair<Short, RequestFulfillment>> getRequests() {
+        return requests;
+    }
+}
@@ -0,0 +1,29 @@
+package com.knoban.multiplayer.requests.impl;
+
+import com.knoban.multiplayer.requests.RequestFulfillment;
+
+/**
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class HeartbeatRequest implements RequestFulfillment {
+
+    public static final byte PING = 0;
+    public static final byte PONG = 1;
+
+    private byte kind;
+
+    /**
+     * Create a HeartbeatRequest
+     * @param kind PING, if the client wants an answer, or PONG, if it is answering one.
+     */
+    public HeartbeatRequest(byte kind) {
+        this.kind = kind;
+    }
+
+    /**
+     * @return True, if the client wants an answer.
+     */
+    public boolean isPing() {
+        return kind == PING;
+    }
+}
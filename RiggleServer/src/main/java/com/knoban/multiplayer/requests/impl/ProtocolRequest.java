@@ -0,0 +1,26 @@
+package com.knoban.multiplayer.requests.impl;
+
+import com.knoban.multiplayer.requests.RequestFulfillment;
+
+/**
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class ProtocolRequest implements RequestFulfillment {
+
+    private short version;
+
+    /**
+     * Create a ProtocolRequest
+     * @param version The protocol version agreed on with the client.
+     */
+    public ProtocolRequest(short version) {
+        this.version = version;
+    }
+
+    /**
+     * @return The protocol version agreed on with the client.
+     */
+    public short getVersion() {
+        return version;
+    }
+}
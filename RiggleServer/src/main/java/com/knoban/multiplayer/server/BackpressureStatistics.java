@@ -0,0 +1,70 @@
+package com.knoban.multiplayer.server;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how often connections fall behind reading their responses and what was done about it. Safe to use from
+ * any thread.
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class BackpressureStatistics {
+
+    private final LongAdder saturations = new LongAdder();
+    private final LongAdder droppedBroadcasts = new LongAdder();
+    private final LongAdder coalescedBroadcasts = new LongAdder();
+    private final LongAdder slowDisconnects = new LongAdder();
+
+    BackpressureStatistics() {}
+
+    void recordSaturation() {
+        saturations.increment();
+    }
+
+    void recordBroadcast(MultiplayerServer.SlowConsumerPolicy policy) {
+        switch(policy) {
+            case DROP:
+                droppedBroadcasts.increment();
+                break;
+            case COALESCE:
+                coalescedBroadcasts.increment();
+                break;
+            case DISCONNECT:
+                slowDisconnects.increment();
+                break;
+        }
+    }
+
+    /**
+     * @return The number of times a connection's outbound queue went over the high-water mark.
+     */
+    public long getSaturations() {
+        return saturations.sum();
+    }
+
+    /**
+     * @return The number of broadcasts dropped because the recipient was saturated.
+     */
+    public long getDroppedBroadcasts() {
+        return droppedBroadcasts.sum();
+    }
+
+    /**
+     * @return The number of broadcasts left out because the recipient was saturated and will be caught up instead.
+     */
+    public long getCoalescedBroadcasts() {
+        return coalescedBroadcasts.sum();
+    }
+
+    /**
+     * @return The number of connections closed for being too slow.
+     */
+    public long getSlowDisconnects() {
+        return slowDisconnects.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "saturations=" + getSaturations() + ", dropped=" + getDroppedBroadcasts() + ", coalesced="
+                + getCoalescedBroadcasts() + ", disconnects=" + getSlowDisconnects();
+    }
+}
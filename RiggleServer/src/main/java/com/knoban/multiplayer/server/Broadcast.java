@@ -0,0 +1,86 @@
+package com.knoban.multiplayer.server;
+
+import com.knoban.multiplayer.logging.Log;
+import com.knoban.multiplayer.logging.Logger;
+import com.knoban.multiplayer.requests.ProtocolVersion;
+import com.knoban.multiplayer.streams.CSOutputStream;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A response sent to many connections at once. It is encoded once into a read-only buffer for every protocol
+ * version its recipients speak, usually just one, and the same bytes are handed to every recipient. Sending costs
+ * the same no matter how large the response is.
+ * <br><br>
+ * Only send to connections processed on the current shard, like members of a room from the room's shard. Unlike
+ * responses, broadcasts are sent right away regardless of the server's FlushPolicy. Anything the recipients
+ * already had waiting to be sent goes first.
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class Broadcast {
+
+    private static final Logger CONNECTIONS = Log.getLogger("connections");
+
+    private final short requestCode;
+    private final ResponseWriter writer;
+    private final ByteBuffer[] encoded = new ByteBuffer[ProtocolVersion.LATEST + 1];
+
+    /**
+     * @param requestCode The request code of the response.
+     * @param writer Writes the response's data.
+     */
+    public Broadcast(short requestCode, @NotNull ResponseWriter writer) {
+        this.requestCode = requestCode;
+        this.writer = writer;
+    }
+
+    /**
+     * Send the response to every recipient.
+     * @param recipients The connections to send to.
+     * @param except A connection to skip (ex. the sender) or null to send to all.
+     * @return The number of connections sent to.
+     */
+    public int send(@NotNull Iterable<? extends MultiplayerConnection> recipients, @Nullable MultiplayerConnection except) {
+        int sent = 0;
+        for(MultiplayerConnection recipient : recipients) {
+            if(recipient == except)
+                continue;
+
+            try {
+                recipient.sendShared(encode(recipient.getOutboundVersion()));
+                ++sent;
+            } catch(IOException e) {
+                CONNECTIONS.warn("Unable to broadcast response: {}", e.getMessage());
+            }
+        }
+        return sent;
+    }
+
+    /**
+     * @param protocolVersion The protocol version to encode for.
+     * @return The whole response, header included, in a read-only buffer.
+     * @throws IOException If the writer fails.
+     */
+    @NotNull
+    ByteBuffer encode(short protocolVersion) throws IOException {
+        ByteBuffer toRet = encoded[protocolVersion];
+        if(toRet != null)
+            return toRet;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CSOutputStream out = new CSOutputStream(bytes);
+        MultiplayerConnection.writeHeader(out, requestCode, protocolVersion);
+        writer.write(out);
+        if(out.isFrameOpen())
+            out.endFrame();
+        out.flush();
+
+        toRet = ByteBuffer.wrap(bytes.toByteArray()).asReadOnlyBuffer();
+        encoded[protocolVersion] = toRet;
+        return toRet;
+    }
+}
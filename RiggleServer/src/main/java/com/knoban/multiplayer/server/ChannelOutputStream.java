@@ -0,0 +1,41 @@
+package com.knoban.multiplayer.server;
+
+import com.knoban.multiplayer.streams.BufferPool;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Hands outbound bytes of a connection to its outbound queue, which its event loop or writer thread drains. Nothing
+ * touches the socket here, so writing never blocks. The CSOutputStream in front of this already gathers writes, so
+ * every write here is a whole flush worth of bytes. Each one is copied into a direct buffer leased from the pool,
+ * which the connection releases once it's written.
+ * @author Alden Bansemer (kNoAPP)
+ */
+class ChannelOutputStream extends OutputStream {
+
+    private final MultiplayerConnection connection;
+    private final BufferPool bufferPool;
+
+    ChannelOutputStream(@NotNull MultiplayerConnection connection, @NotNull BufferPool bufferPool) {
+        this.connection = connection;
+        this.bufferPool = bufferPool;
+    }
+
+    @Override
+    public void write(int b) {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(@NotNull byte[] b, int off, int len) {
+        if(len == 0)
+            return;
+
+        ByteBuffer data = bufferPool.lease(len);
+        data.put(b, off, len);
+        data.flip();
+        connection.queueWrite(data);
+    }
+}
@@ -0,0 +1,26 @@
+package com.knoban.multiplayer.server;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Supplies the threads blocking MultiplayerConnections read and write on. See ConnectionExecutors for the built-in options.
+ * @author Alden Bansemer (kNoAPP)
+ */
+public interface ConnectionExecutor {
+
+    /**
+     * Start running a task on a new thread.
+     * @param name The name to give the thread.
+     * @param task The task to run.
+     * @return The started thread. Callers may join on it.
+     */
+    @NotNull
+    Thread execute(@NotNull String name, @NotNull Runnable task);
+
+    /**
+     * @return True, if the threads are virtual. Blocking connections only get a writer thread each if they are.
+     */
+    default boolean isVirtual() {
+        return false;
+    }
+}
@@ -0,0 +1,67 @@
+package com.knoban.multiplayer.server;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Built-in ConnectionExecutors. Virtual threads are only available when running on Java 21 or newer. The server
+ * jar is multi-release, so older runtimes keep using platform threads.
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class ConnectionExecutors {
+
+    private static final ConnectionExecutor PLATFORM = (name, task) -> {
+        Thread thread = new Thread(task, name);
+        thread.start();
+        return thread;
+    };
+
+    private static final ConnectionExecutor VIRTUAL = new ConnectionExecutor() {
+        @NotNull
+        @Override
+        public Thread execute(@NotNull String name, @NotNull Runnable task) {
+            return VirtualThreads.start(name, task);
+        }
+
+        @Override
+        public boolean isVirtual() {
+            return true;
+        }
+    };
+
+    private ConnectionExecutors() {}
+
+    /**
+     * @return An executor that gives each connection its own platform thread.
+     */
+    @NotNull
+    public static ConnectionExecutor platform() {
+        return PLATFORM;
+    }
+
+    /**
+     * @return An executor that gives each connection its own virtual thread.
+     * @throws UnsupportedOperationException If virtual threads are not supported on this runtime.
+     */
+    @NotNull
+    public static ConnectionExecutor virtual() {
+        if(!VirtualThreads.isSupported())
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or newer!");
+
+        return VIRTUAL;
+    }
+
+    /**
+     * @return Virtual threads if this runtime supports them, otherwise platform threads.
+     */
+    @NotNull
+    public static ConnectionExecutor preferVirtual() {
+        return VirtualThreads.isSupported() ? VIRTUAL : PLATFORM;
+    }
+
+    /**
+     * @return True, if this runtime supports virtual threads.
+     */
+    public static boolean isVirtualSupported() {
+        return VirtualThreads.isSupported();
+    }
+}
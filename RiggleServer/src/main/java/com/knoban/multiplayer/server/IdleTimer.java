@@ -0,0 +1,100 @@
+package com.knoban.multiplayer.server;
+
+import com.knoban.multiplayer.logging.Log;
+import com.knoban.multiplayer.logging.Logger;
+import com.knoban.multiplayer.utils.TimingWheel;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A single Thread that closes connections nothing was read from for too long. Connections sit in a TimingWheel at
+ * their deadline and only note the time when they read something, so activity costs a field write and each tick
+ * only looks at the connections due in it. The clock is advanced once per tick, so reading it is cheap too.
+ * @author Alden Bansemer (kNoAPP)
+ */
+class IdleTimer {
+
+    private static final Logger CONNECTIONS = Log.getLogger("connections");
+
+    private static final int SLOTS = 512;
+    private static final long MIN_TICK_NANOS = 10_000_000L; // 10 ms
+
+    private final long timeoutNanos;
+    private final TimingWheel<MultiplayerConnection> wheel;
+    private final TimingWheel.Expiry<MultiplayerConnection> expiry;
+    private volatile long now = System.nanoTime();
+    private Thread thread;
+    private volatile boolean isRunning;
+
+    /**
+     * Create a timer. Ticks are a 256th of the timeout, so the wheel spans twice the timeout and a deadline never
+     * waits more than a turn. Call start() to begin closing idle connections.
+     * @param timeoutNanos How long a connection may go without sending anything.
+     */
+    IdleTimer(long timeoutNanos) {
+        this.timeoutNanos = timeoutNanos;
+        this.wheel = new TimingWheel<>(Math.max(MIN_TICK_NANOS, timeoutNanos / (SLOTS / 2)), SLOTS);
+        this.expiry = (connection, now) -> connection.checkIdle(now, timeoutNanos);
+    }
+
+    /**
+     * Start the timer's thread.
+     */
+    void start() {
+        if(isRunning)
+            return;
+
+        isRunning = true;
+        thread = new Thread(this::run, "Riggle Idle Timer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return The time as of the last tick. (in System.nanoTime()) Good enough to note activity with.
+     */
+    long now() {
+        return now;
+    }
+
+    /**
+     * Start watching a connection. Safe to call from any Thread. Closed connections are dropped when they come due.
+     * The first check comes halfway through the timeout, in case the client turns out to speak heartbeats.
+     * @param connection The connection to watch.
+     */
+    void register(@NotNull MultiplayerConnection connection) {
+        wheel.schedule(connection, now + timeoutNanos / 2);
+    }
+
+    private void run() {
+        long tickNanos = wheel.getTickNanos();
+        while(isRunning) {
+            LockSupport.parkNanos(this, tickNanos);
+            long now = System.nanoTime();
+            this.now = now;
+            try {
+                wheel.advance(now, expiry);
+            } catch(RuntimeException e) {
+                CONNECTIONS.error("Idle timer failed to check connections: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stop the timer's thread. Connections still being watched are left alone.
+     */
+    void close() {
+        isRunning = false;
+        if(thread == null)
+            return;
+
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch(InterruptedException e) {
+            CONNECTIONS.warn("Got interrupted while stopping the idle timer: {}", e.getMessage());
+        }
+        thread = null;
+    }
+}
@@ -0,0 +1,39 @@
+package com.knoban.multiplayer.server;
+
+import com.knoban.multiplayer.metrics.ServerMetrics;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes a blocking connection reads from its socket. CSInputStream reads in bulk, so this is hit once
+ * per chunk rather than per request.
+ * @author Alden Bansemer (kNoAPP)
+ */
+class MeteredInputStream extends FilterInputStream {
+
+    private final ServerMetrics metrics;
+
+    MeteredInputStream(@NotNull InputStream in, @NotNull ServerMetrics metrics) {
+        super(in);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int toRet = super.read();
+        if(toRet >= 0)
+            metrics.recordBytesIn(1);
+        return toRet;
+    }
+
+    @Override
+    public int read(@NotNull byte[] b, int off, int len) throws IOException {
+        int toRet = super.read(b, off, len);
+        if(toRet > 0)
+            metrics.recordBytesIn(toRet);
+        return toRet;
+    }
+}
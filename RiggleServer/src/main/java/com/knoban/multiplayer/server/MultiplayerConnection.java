@@ -1,10 +1,25 @@
 package com.knoban.multiplayer.server;
 
+import com.knoban.multiplayer.logging.Log;
+import com.knoban.multiplayer.logging.Logger;
+import com.knoban.multiplayer.metrics.ServerMetrics;
 import com.knoban.multiplayer.requests.GeneralRequestCode;
+import com.knoban.multiplayer.requests.ProtocolVersion;
 import com.knoban.multiplayer.requests.RequestFulfillment;
+import com.knoban.multiplayer.requests.RequestRegistry;
+import com.knoban.multiplayer.requests.impl.BatchRequest;
+import com.knoban.multiplayer.requests.impl.HeartbeatRequest;
+import com.knoban.multiplayer.requests.impl.ProtocolRequest;
+import com.knoban.multiplayer.streams.BufferPool;
 import com.knoban.multiplayer.streams.CSInputStream;
 import com.knoban.multiplayer.streams.CSOutputStream;
+import com.knoban.multiplayer.streams.FrameDeflater;
+import com.knoban.multiplayer.streams.FrameInflater;
+import com.knoban.multiplayer.streams.StreamStatistics;
+import com.knoban.multiplayer.streams.StringEncoding;
+import com.knoban.multiplayer.utils.MpscRingQueue;
 import com.knoban.multiplayer.utils.Pair;
+import com.knoban.multiplayer.utils.TimingWheel;
 import com.knoban.multiplayer.utils.Tools;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -13,25 +28,92 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.net.Socket;
 import java.net.SocketException;
-import java.util.LinkedList;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Queue;
 import java.util.UUID;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * @author Alden Bansemer (kNoAPP)
  */
 public class MultiplayerConnection {
 
+    private static final Logger CONNECTIONS = Log.getLogger("connections");
+    private static final Logger REQUESTS = Log.getLogger("requests");
+
+    private static final int MAX_INBOUND_BUFFER = 1 << 20;
+    private static final int MAX_FRAME_LENGTH = 1 << 16; // Larger v2 requests are skipped without decoding
+    private static final int REQUEST_QUEUE_CAPACITY = 1024;
+    private static final long FULL_QUEUE_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int BUDGET_CHECK_INTERVAL = 8; // Requests handled between looks at a tick's deadline
+    private static final int WRITES_PER_TURN = 16; // Slices written before a pooled writer moves on
+    private static final int WRITE_SLICE = 64 * 1024; // Most bytes a pooled write blocks on, so it has a deadline
+
     protected final Socket connection;
-    private Thread listener;
+    private volatile Thread listener;
+    private volatile Thread writer; // Drains the outbound queue in blocking mode on virtual threads
+    private WriterPool writerPool; // Drains it instead on platform threads
+    private final AtomicBoolean isWriteScheduled = new AtomicBoolean(); // Waiting in or being written by the pool
+    private WritableByteChannel blockingChannel; // Writer thread or pool only
+    private volatile long writeStarted; // When the pooled write under way began or 0 if none is
+    private NioEventLoop eventLoop;
+    private BufferPool bufferPool;
+    private ByteBuffer inbound; // Leased while a read is being decoded or a partial request is buffered
+    private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>(); // Leased, released once written
+    private final AtomicLong outboundBytes = new AtomicLong(); // Queued but not yet written
+    private final AtomicBoolean isSaturated = new AtomicBoolean(); // Went over the high-water mark, not yet back under the low
+    private final AtomicBoolean isCoalescing = new AtomicBoolean(); // Broadcasts were left out while saturated
+    private final AtomicBoolean isDrainPending = new AtomicBoolean();
+    private ByteBuffer writing; // Event loop or writer thread only
     protected CSInputStream in;
     protected CSOutputStream out;
     private volatile Boolean isClosed;
 
-    private final Queue<Pair<Short, RequestFulfillment>> queuedRequests = new LinkedList<>();
-    private final ReadWriteLock queuedRequestsLock = new ReentrantReadWriteLock();
+    // Only touched by the reader thread (or event loop).
+    private short inboundVersion = ProtocolVersion.V1;
+    private long inboundSkip; // Bytes left of an oversized request
+    private long desyncedBytes; // Bytes skipped looking for the next handshake
+    private RateLimiter rateLimiter; // Null if nothing is rate limited
+    private Pair<Short, RequestFulfillment> delayedRequest; // Held back by a rate limit while reads are paused
+    private long delayedSince;
+    private long delayedDecodeStart;
+    private IdleTimer idleTimer; // Null if idle connections are left open
+    private volatile long lastActive; // When something was last read, by the idle timer's clock
+    private volatile boolean isHeartbeating; // The client has sent a HEARTBEAT, so it answers them too
+    private long probedFor; // Idle timer only. The lastActive a HEARTBEAT was last sent for.
+    private ServerMetrics metrics; // Null if the connection isn't attached to a server
+    private RequestRegistry<MultiplayerConnection> requestRegistry; // Null if every request falls back
+
+    // Reader thread (or event loop) produces, the request processor consumes.
+    private final MpscRingQueue<Pair<Short, RequestFulfillment>> queuedRequests = new MpscRingQueue<>(REQUEST_QUEUE_CAPACITY);
+    private final AtomicBoolean isDisconnectPending = new AtomicBoolean();
+    private final AtomicBoolean isProbePending = new AtomicBoolean(); // The idle timer wants a HEARTBEAT sent
+    private volatile boolean isDisconnectHandled;
+    private volatile boolean isReadStalled; // Reads pause while the request queue is full or the connection is saturated
+    private volatile MultiplayerServer server;
+    private volatile ProcessingShard shard;
+    private final AtomicBoolean isScheduled = new AtomicBoolean(); // True while waiting on or being processed
+
+    // Only touched by the shard currently processing this connection.
+    private final ArrayDeque<Pair<Short, RequestFulfillment>> carriedRequests = new ArrayDeque<>();
+    private Pair<Short, RequestFulfillment> currentRequest;
+    private ProcessingShard handOff;
+    private boolean isResponseOpen;
+    private boolean isResponseFramed;
+    private boolean isBatching; // Responses are gathered into one BATCH response while a batch is handled
+    private boolean isBatchResponseOpen;
+    private final List<ByteBuffer> deferredShared = new ArrayList<>(); // Broadcasts waiting on the batch response
+    private short outboundVersion = ProtocolVersion.V1;
 
     protected UUID uuid;
 
@@ -44,9 +126,7 @@ public class MultiplayerConnection {
         this.uuid = UUID.randomUUID(); // Assign this connection a unique UUID.
 
         // Alert Connected
-        queuedRequestsLock.writeLock().lock();
-        queuedRequests.offer(new Pair<>(GeneralRequestCode.CONNECTED, null));
-        queuedRequestsLock.writeLock().unlock();
+        enqueue(new Pair<>(GeneralRequestCode.CONNECTED, null));
     }
 
     /**
@@ -57,6 +137,18 @@ public class MultiplayerConnection {
         return uuid;
     }
 
+    /**
+     * @return The server this connection belongs to.
+     * @throws IllegalStateException If the connection hasn't been attached to a server.
+     */
+    @NotNull
+    protected MultiplayerServer getServer() {
+        MultiplayerServer server = this.server;
+        if(server == null)
+            throw new IllegalStateException("Connection is not attached to a server!");
+        return server;
+    }
+
     /**
      * @return True, if connection is closed. False, if connection is open. Null, if the connection can be opened.
      */
@@ -67,80 +159,1236 @@ public class MultiplayerConnection {
 
     /**
      * Connections may only be opened ONCE! Once opened, they process requests from the Socket until the
-     * connection is closed by the client or server. This call runs on its own Thread.
+     * connection is closed by the client or server. This call runs on its own platform Thread.
      */
     public void open() {
+        open(ConnectionExecutors.platform());
+    }
+
+    /**
+     * Connections may only be opened ONCE! Once opened, they process requests from the Socket until the
+     * connection is closed by the client or server. Reading runs on a Thread supplied by the executor. Writing
+     * runs on one too if the executor is virtual, or else on the server's shared writer threads, so a client that
+     * stops reading never blocks request processing.
+     * @param executor The executor to supply the connection's reader, and for virtual threads writer, Threads.
+     */
+    public void open(@NotNull ConnectionExecutor executor) {
         if(isClosed != null)
             return;
 
         isClosed = false;
-        listener = new Thread(() -> {
+        MultiplayerServer server = this.server;
+        this.bufferPool = server == null ? new BufferPool() : server.getBufferPool();
+        this.rateLimiter = server == null ? null : server.newRateLimiter();
+        out = new CSOutputStream(new ChannelOutputStream(this, bufferPool), getStreamStatistics());
+        writerPool = server == null || executor.isVirtual() ? null : server.getWriterPool();
+        if(writerPool == null)
+            writer = executor.execute("Riggle Writer " + Tools.formatSocket(connection), this::writeBlocking);
+        watchIdle();
+        listener = executor.execute("Riggle Connection " + Tools.formatSocket(connection), () -> {
+            try {
+                // Created once. Negotiated encodings and buffered bytes must survive a bad read.
+                in = new CSInputStream(metrics == null ? connection.getInputStream()
+                        : new MeteredInputStream(connection.getInputStream(), metrics));
+                in.setStringCache(server == null ? null : server.getStringCache());
+            } catch(IOException e) {
+                CONNECTIONS.warn("Failed to open streams: {}", e.getMessage());
+                close();
+                return;
+            }
+
             while(!isClosed) {
                 try {
-                    in = new CSInputStream(connection.getInputStream());
-                    out = new CSOutputStream(connection.getOutputStream());
-
-                    top: while(!isClosed) {
-                        if(in.readS16() == GeneralRequestCode.HANDSHAKE) {
-                            short requestCode = in.readS16();
-                            /*
-                             * Enqueue requests here with close attention to race conditions. Use the header's
-                             * request code to determine the request type. If data must be passed, use the
-                             * RequestFulfillment interface to create a class that can carry specific types
-                             * of data to the processing queue.
-                             *
-                             * It is okay, safe, and encouraged to use null for the RequestFulfillment if no
-                             * extra data must be passed to the handler.
-                             */
-
-                            try {
-                                Pair<Short, RequestFulfillment> request = new Pair<>(requestCode, decodeRequest(requestCode));
-
-                                queuedRequestsLock.writeLock().lock();
-                                queuedRequests.offer(request);
-                                queuedRequestsLock.writeLock().unlock();
-                            } catch(IOException e) {
-                                System.out.println("Failed to decode request: " + e.getMessage());
-                            }
-                        }
+                    while(!isClosed) {
+                        awaitDrain();
+                        readRequest();
+                        touch();
                     }
                 } catch(SocketException | EOFException e) {
                     // Client issued disconnect.
-                    System.out.println("Disconnect [Client]: " + Tools.formatSocket(connection));
+                    CONNECTIONS.info("Disconnect [Client]: {}", connection);
                     close(); // Formally close this connection.
                 } catch(IOException e) {
-                    System.out.println("Failed to read header: " + e.getMessage());
+                    CONNECTIONS.warn("Failed to read header: {}", e.getMessage());
+                } catch(RuntimeException e) {
+                    CONNECTIONS.error("Closing connection {} after it failed: {}", connection, e);
+                    close(); // Don't leave it open with nobody reading.
                 }
             }
+            in.setInflater(null);
         });
-        listener.start();
+    }
+
+    /**
+     * Opens this connection in non-blocking mode. Instead of a dedicated Thread, the passed event loop reads from
+     * the connection and enqueues requests as they fully arrive. The Socket's channel must already be non-blocking.
+     * @param eventLoop The event loop that will service this connection.
+     */
+    void open(@NotNull NioEventLoop eventLoop) {
+        if(isClosed != null)
+            return;
+
+        isClosed = false;
+        MultiplayerServer server = this.server;
+        this.eventLoop = eventLoop;
+        this.bufferPool = server == null ? new BufferPool() : server.getBufferPool();
+        this.rateLimiter = server == null ? null : server.newRateLimiter();
+        in = new CSInputStream(ByteBuffer.allocate(0));
+        in.setStringCache(server == null ? null : server.getStringCache());
+        out = new CSOutputStream(new ChannelOutputStream(this, bufferPool), getStreamStatistics());
+        watchIdle();
+        eventLoop.register(this);
+    }
+
+    /**
+     * Have the server's idle timer close this connection if the client goes quiet for too long.
+     */
+    private void watchIdle() {
+        MultiplayerServer server = this.server;
+        IdleTimer idleTimer = server == null ? null : server.getIdleTimer();
+        if(idleTimer == null)
+            return;
+
+        this.idleTimer = idleTimer;
+        lastActive = idleTimer.now();
+        idleTimer.register(this);
+    }
+
+    /**
+     * Note that something was read. Only writes when the idle timer's clock has moved on since the last time.
+     */
+    private void touch() {
+        IdleTimer idleTimer = this.idleTimer;
+        if(idleTimer == null)
+            return;
+
+        long now = idleTimer.now();
+        if(lastActive != now)
+            lastActive = now;
+    }
+
+    /**
+     * Called by the idle timer once this connection's deadline passes. Clients that sent nothing for the whole
+     * timeout are closed. Clients that speak heartbeats are sent a HEARTBEAT halfway there, so one that is still
+     * around has a chance to answer.
+     * @param now The idle timer's clock.
+     * @param timeoutNanos How long a connection may go without sending anything.
+     * @return The connection's next deadline or TimingWheel.CANCEL once it is closed.
+     */
+    long checkIdle(long now, long timeoutNanos) {
+        if(isClosed)
+            return TimingWheel.CANCEL;
+
+        long lastActive = this.lastActive;
+        if(now - lastActive >= timeoutNanos) {
+            CONNECTIONS.info("Disconnect [Idle]: {}", connection);
+            close();
+            return TimingWheel.CANCEL;
+        }
+
+        if(isHeartbeating && probedFor != lastActive) {
+            long probeAt = lastActive + timeoutNanos / 2;
+            if(now - probeAt < 0)
+                return probeAt;
+
+            probedFor = lastActive;
+            isProbePending.set(true);
+            schedule();
+        }
+        return lastActive + timeoutNanos;
+    }
+
+    @Nullable
+    private StreamStatistics getStreamStatistics() {
+        MultiplayerServer server = this.server;
+        return server == null ? null : server.getStreamStatistics();
+    }
+
+    /**
+     * Reads a single request from the input stream and enqueues it. Bytes that are not part of a handshake are
+     * skipped one at a time until the stream is back in sync. On protocol v2, requests that fail to decode, are
+     * unknown, or are too large are skipped whole using their length, so the stream never falls out of sync.
+     * @throws EOFException If the stream runs out of data mid-request.
+     * @throws IOException If the header cannot be read.
+     */
+    private void readRequest() throws IOException {
+        if(inboundSkip > 0) {
+            inboundSkip -= in.skip(inboundSkip);
+            return;
+        }
+
+        if(in.peekS16() != GeneralRequestCode.HANDSHAKE) {
+            in.readS8();
+            ++desyncedBytes;
+            return;
+        }
+
+        if(desyncedBytes > 0) {
+            REQUESTS.warn("Skipped {} bytes to resync: {}", desyncedBytes, connection);
+            desyncedBytes = 0;
+        }
+
+        in.readS16();
+        short requestCode = in.readS16();
+        long decodeStart = metrics == null ? 0 : System.nanoTime();
+        if(inboundVersion >= ProtocolVersion.V2) {
+            readFrame(requestCode, decodeStart);
+            return;
+        }
+
+        /*
+         * Enqueue requests here with close attention to race conditions. Use the header's
+         * request code to determine the request type. If data must be passed, use the
+         * RequestFulfillment interface to create a class that can carry specific types
+         * of data to the processing queue.
+         *
+         * It is okay, safe, and encouraged to use null for the RequestFulfillment if no
+         * extra data must be passed to the handler.
+         */
+
+        try {
+            enqueue(requestCode, decode(requestCode), decodeStart);
+        } catch(EOFException e) {
+            throw e; // Out of data mid-request. Let the caller decide what that means.
+        } catch(IOException e) {
+            REQUESTS.warn("Failed to decode request: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the rest of a v2 request once the whole frame has arrived. Decoding can't read past the frame, and
+     * whatever the decoder leaves behind is skipped. A batch is decoded in one go and enqueued as a single request.
+     * @param requestCode The request code from the frame's header.
+     * @param decodeStart When decoding began. (in System.nanoTime())
+     * @throws EOFException If the stream runs out of data before the whole frame arrives.
+     * @throws IOException If the frame's length cannot be read.
+     */
+    private void readFrame(short requestCode, long decodeStart) throws IOException {
+        int length = in.readS32();
+        int frameLength = inboundVersion >= ProtocolVersion.V4 ? length & ~FrameDeflater.COMPRESSED : length;
+        if(frameLength < 0) {
+            REQUESTS.warn("Got bad frame length {}: {}", length, connection);
+            return; // Can't trust anything after this header. Resync on the next handshake.
+        }
+
+        if(frameLength > MAX_FRAME_LENGTH) {
+            REQUESTS.warn("Skipping oversized request {} ({} bytes): {}", requestCode, frameLength, connection);
+            inboundSkip = frameLength;
+            return;
+        }
+
+        try {
+            in.beginFrame(length); // Decompressed here if it has to be
+        } catch(EOFException e) {
+            throw e; // Wait for the rest of the frame.
+        } catch(IOException e) {
+            REQUESTS.warn("Failed to decompress request {}: {}", requestCode, e.getMessage());
+            return;
+        }
+
+        RequestFulfillment data;
+        try {
+            data = requestCode == GeneralRequestCode.BATCH ? decodeBatch() : decode(requestCode);
+        } catch(EOFException e) {
+            REQUESTS.warn("Failed to decode request: {} ran past the end of its frame", requestCode);
+            return;
+        } catch(IOException e) {
+            REQUESTS.warn("Failed to decode request: {}", e.getMessage());
+            return;
+        } finally {
+            in.endFrame();
+        }
+
+        if(data != null || requestCode != GeneralRequestCode.BATCH)
+            enqueue(requestCode, data, decodeStart);
+    }
+
+    /**
+     * Decodes every request in a batch frame. Each one is framed on its own, so one that fails to decode is
+     * skipped without losing the rest. Batches and protocol changes can't be batched.
+     * @return The batch or null if it held no requests.
+     * @throws IOException If a request's length runs past the end of the batch.
+     */
+    @Nullable
+    private BatchRequest decodeBatch() throws IOException {
+        List<Pair<Short, RequestFulfillment>> requests = new ArrayList<>();
+        while(in.available() > 0) {
+            short requestCode = in.readS16();
+            int length = in.readS32();
+            if(length < 0 || length > in.available())
+                throw new IOException("Bad length " + length + " for batched request " + requestCode);
+
+            if(requestCode == GeneralRequestCode.BATCH || requestCode == GeneralRequestCode.PROTOCOL) {
+                REQUESTS.warn("Skipping request {} that can't be batched: {}", requestCode, connection);
+                in.skip(length);
+                continue;
+            }
+
+            in.beginFrame(length);
+            try {
+                requests.add(new Pair<>(requestCode, decode(requestCode)));
+            } catch(EOFException e) {
+                REQUESTS.warn("Failed to decode request: {} ran past the end of its frame", requestCode);
+            } catch(IOException e) {
+                REQUESTS.warn("Failed to decode request: {}", e.getMessage());
+            } finally {
+                in.endFrame();
+            }
+        }
+        return requests.isEmpty() ? null : new BatchRequest(requests);
+    }
+
+    /**
+     * Decodes requests the connection handles itself and leaves the rest to the server's request registry, then
+     * decodeRequest.
+     * @param requestCode The requestCode received from the client.
+     * @return The decoded request or null if no data.
+     * @throws IOException If the request cannot be decoded.
+     */
+    @Nullable
+    private RequestFulfillment decode(short requestCode) throws IOException {
+        if(requestCode == GeneralRequestCode.HEARTBEAT) {
+            isHeartbeating = true;
+            return new HeartbeatRequest(in.readS8());
+        }
+
+        if(requestCode != GeneralRequestCode.PROTOCOL) {
+            RequestRegistry.Registration<MultiplayerConnection, ?> registration =
+                    requestRegistry == null ? null : requestRegistry.get(requestCode);
+            return registration != null ? registration.decode(in) : decodeRequest(requestCode);
+        }
+
+        short requested = in.readS16();
+        return new ProtocolRequest((short) Math.max(ProtocolVersion.V1, Math.min(requested, ProtocolVersion.LATEST)));
+    }
+
+    /**
+     * Enqueue a decoded request if the connection's rate limits allow it. A protocol change applies to everything
+     * read after it and is never rate limited.
+     * @param requestCode The request code.
+     * @param data The data that comes with it.
+     * @param decodeStart When decoding began. (in System.nanoTime())
+     */
+    private void enqueue(short requestCode, @Nullable RequestFulfillment data, long decodeStart) {
+        if(requestCode == GeneralRequestCode.PROTOCOL && data != null) {
+            inboundVersion = ((ProtocolRequest) data).getVersion();
+            in.setStringEncoding(getStringEncoding(inboundVersion));
+            in.setInflater(inboundVersion >= ProtocolVersion.V4 ? newInflater() : null);
+        } else if(rateLimiter != null && !admit(requestCode, data, decodeStart)) {
+            return;
+        }
+
+        ServerMetrics metrics = this.metrics;
+        if(metrics == null) {
+            enqueue(new Pair<>(requestCode, data));
+            return;
+        }
+
+        long now = System.nanoTime();
+        metrics.recordDecode(requestCode, now - decodeStart);
+        enqueue(new QueuedRequest(requestCode, data, now));
+        metrics.recordQueueDepth(queuedRequests.size());
+    }
+
+    /**
+     * Check a request against the connection's rate limits. Over a limit, the server's RateLimitPolicy decides
+     * what happens. Blocking readers wait out a delay right here. Non-blocking ones hold the request back and
+     * pause reading until the event loop resumes them.
+     * @param requestCode The request code.
+     * @param data The data that comes with it.
+     * @param decodeStart When decoding began. Kept with a request that's held back.
+     * @return True, if the request should be enqueued now.
+     */
+    private boolean admit(short requestCode, @Nullable RequestFulfillment data, long decodeStart) {
+        MultiplayerServer server = this.server;
+        RateLimitStatistics statistics = server.getRateLimitStatistics();
+        long now = System.nanoTime();
+        long wait = rateLimiter.tryAdmit(requestCode, data, now);
+        if(wait == 0) {
+            if(delayedSince != 0) { // A held back request finally made it
+                statistics.recordDelay(now - delayedSince);
+                delayedSince = 0;
+            }
+            return true;
+        }
+
+        MultiplayerServer.RateLimitPolicy policy = server.getRateLimitPolicy();
+        if(policy == MultiplayerServer.RateLimitPolicy.DELAY && wait != Long.MAX_VALUE) {
+            if(delayedSince == 0)
+                delayedSince = now;
+
+            if(eventLoop != null) {
+                delayedRequest = new Pair<>(requestCode, data);
+                delayedDecodeStart = decodeStart;
+                eventLoop.resumeReadsAfter(this, wait);
+                return false;
+            }
+
+            while(wait > 0) {
+                LockSupport.parkNanos(wait);
+                if(isClosed)
+                    return false;
+
+                now = System.nanoTime();
+                wait = rateLimiter.tryAdmit(requestCode, data, now);
+            }
+            statistics.recordDelay(now - delayedSince);
+            delayedSince = 0;
+            return true;
+        }
+
+        if(policy == MultiplayerServer.RateLimitPolicy.DISCONNECT) {
+            statistics.recordDisconnect();
+            CONNECTIONS.warn("Disconnect [Rate Limit]: {}", connection);
+            close();
+            return false;
+        }
+
+        statistics.recordDrop();
+        return false;
+    }
+
+    /**
+     * Called by the event loop when the channel has data to read. Enqueues every request that has fully arrived
+     * and keeps any partial request buffered until the rest of it shows up. The read buffer is leased from the
+     * pool and goes back as soon as nothing is left in it.
+     * @return False, if reading should pause until the request queue has room again.
+     */
+    boolean readNonBlocking() {
+        SocketChannel channel = connection.getChannel();
+        try {
+            if(inbound == null) {
+                inbound = bufferPool.lease(BufferPool.MIN_BUFFER_SIZE);
+            } else {
+                inbound.compact();
+                if(!inbound.hasRemaining()) {
+                    if(inbound.capacity() >= MAX_INBOUND_BUFFER)
+                        throw new IOException("Request exceeds " + MAX_INBOUND_BUFFER + " bytes");
+
+                    ByteBuffer grown = bufferPool.lease(inbound.capacity() << 1);
+                    inbound.flip();
+                    grown.put(inbound);
+                    bufferPool.release(inbound);
+                    inbound = grown;
+                }
+            }
+
+            int read = channel.read(inbound);
+            inbound.flip();
+            in.setBuffer(inbound);
+            if(read > 0) {
+                touch();
+                if(metrics != null)
+                    metrics.recordBytesIn(read);
+            }
+            if(read < 0) {
+                // Client issued disconnect.
+                CONNECTIONS.info("Disconnect [Client]: {}", connection);
+                close(); // Formally close this connection.
+                return true;
+            }
+        } catch(IOException e) {
+            CONNECTIONS.warn("Failed to read from connection: {}", e.getMessage());
+            close();
+            return true;
+        }
+
+        return decodeInbound();
+    }
+
+    /**
+     * Enqueue every request that has fully arrived in the inbound buffer. Event loop only. Once the buffer is
+     * empty, it goes back to the pool.
+     * @return False, if decoding stopped because the request queue is full.
+     */
+    boolean decodeInbound() {
+        if(inbound == null && delayedRequest == null)
+            return true;
+
+        boolean toRet = decodeBuffered();
+        if(inbound != null && !inbound.hasRemaining()) {
+            bufferPool.release(inbound);
+            inbound = null;
+        }
+        return toRet;
+    }
+
+    private boolean decodeBuffered() {
+        try {
+            while(!isClosed && (delayedRequest != null || inbound != null && inbound.hasRemaining())) {
+                if(queuedRequests.size() >= queuedRequests.capacity() || isSaturated.get()) {
+                    isReadStalled = true; // Resumed by processRequests() once there's room or drained() once caught up
+                    if(queuedRequests.size() >= queuedRequests.capacity() || isSaturated.get())
+                        return false;
+
+                    isReadStalled = false; // Room was made while stalling. Keep going.
+                }
+
+                if(delayedRequest != null) {
+                    Pair<Short, RequestFulfillment> delayed = delayedRequest;
+                    delayedRequest = null;
+                    // Held back again if the limit still says so
+                    enqueue(delayed.getKey(), delayed.getValue(), delayedDecodeStart);
+                } else {
+                    inbound.mark();
+                    try {
+                        readRequest();
+                    } catch(EOFException e) {
+                        inbound.reset(); // Wait for the rest of the request.
+                        return true;
+                    }
+                }
+
+                if(delayedRequest != null)
+                    return false; // Resumed by the event loop once the rate limit allows it
+            }
+        } catch(IOException e) {
+            CONNECTIONS.warn("Failed to read from connection: {}", e.getMessage());
+            close();
+        }
+        return true;
+    }
+
+    /**
+     * Queue bytes to be written by the event loop or writer thread. Never blocks. If this puts the connection over
+     * the server's high-water mark, it is saturated until enough has been written.
+     * @param data The bytes to write, leased from the connection's buffer pool.
+     */
+    void queueWrite(@NotNull ByteBuffer data) {
+        long queued = outboundBytes.addAndGet(data.remaining());
+        outbound.offer(data);
+        if(isClosed != null && isClosed) {
+            releaseOutbound(); // Nobody is going to write it.
+            return;
+        }
+
+        MultiplayerServer server = this.server;
+        if(server != null && queued > server.getHighWaterMark() && isSaturated.compareAndSet(false, true)) {
+            server.getBackpressureStatistics().recordSaturation();
+            if(outboundBytes.get() <= server.getLowWaterMark())
+                drained(); // Caught up while this was being marked
+        }
+
+        if(eventLoop != null)
+            eventLoop.requestWrite(this);
+        else if(writerPool != null)
+            scheduleWrite();
+        else
+            LockSupport.unpark(writer);
+    }
+
+    /**
+     * Hand this connection to the writer pool, unless it is already waiting there or being written.
+     */
+    private void scheduleWrite() {
+        if(isWriteScheduled.compareAndSet(false, true))
+            writerPool.schedule(this);
+    }
+
+    /**
+     * Runs on a thread of the writer pool. Writes a few slices of the queued buffers, then schedules the connection
+     * again if there's more. Once the connection is closed, returns whatever is left to the pool instead.
+     */
+    void writePooled() {
+        try {
+            if(blockingChannel == null && !isClosed)
+                blockingChannel = getBlockingChannel();
+
+            for(int i=0; i<WRITES_PER_TURN && !isClosed; i++) {
+                if(writing == null && (writing = outbound.poll()) == null)
+                    break;
+
+                int limit = writing.limit();
+                writing.limit(Math.min(limit, writing.position() + WRITE_SLICE));
+                writeStarted = System.nanoTime();
+                try {
+                    wrote(blockingChannel.write(writing));
+                } finally {
+                    writeStarted = 0;
+                    writing.limit(limit);
+                }
+
+                if(!writing.hasRemaining()) {
+                    release(writing);
+                    writing = null;
+                }
+            }
+        } catch(IOException e) {
+            if(!isClosed) {
+                CONNECTIONS.warn("Failed to write to connection: {}", e.getMessage());
+                close();
+            }
+        }
+
+        if(isClosed) {
+            if(writing != null) {
+                release(writing);
+                writing = null;
+            }
+            releaseOutbound();
+        }
+
+        isWriteScheduled.set(false);
+        if(writing != null || !outbound.isEmpty())
+            scheduleWrite(); // More to write, or queued or closed after the last look
+    }
+
+    /**
+     * Called by the writer pool's watchdog.
+     * @param now The time. (in System.nanoTime())
+     * @param timeoutNanos How long a write may block.
+     * @return True, if a pooled write has been blocked for longer than the timeout.
+     */
+    boolean isWriteStalled(long now, long timeoutNanos) {
+        long writeStarted = this.writeStarted;
+        return writeStarted != 0 && now - writeStarted > timeoutNanos;
+    }
+
+    @NotNull
+    private WritableByteChannel getBlockingChannel() throws IOException {
+        WritableByteChannel channel = connection.getChannel();
+        return channel != null ? channel : Channels.newChannel(connection.getOutputStream());
+    }
+
+    /**
+     * Called by the event loop when the channel can be written to.
+     * @return True, if all queued bytes were written. False, if the channel filled up first.
+     * @throws IOException If the channel cannot be written to.
+     */
+    boolean writeNonBlocking() throws IOException {
+        SocketChannel channel = connection.getChannel();
+        while(writing != null || (writing = outbound.poll()) != null) {
+            wrote(channel.write(writing));
+            if(writing.hasRemaining())
+                return false;
+
+            release(writing);
+            writing = null;
+        }
+        return true;
+    }
+
+    /**
+     * Runs on the writer thread of a blocking connection. Writes queued bytes as they come in until the connection
+     * closes, then returns whatever is left to the pool.
+     */
+    private void writeBlocking() {
+        try {
+            WritableByteChannel channel = getBlockingChannel();
+            while(!isClosed) {
+                if(writing == null && (writing = outbound.poll()) == null) {
+                    LockSupport.park(this); // Woken by queueWrite() or close()
+                    continue;
+                }
+
+                wrote(channel.write(writing));
+                if(!writing.hasRemaining()) {
+                    release(writing);
+                    writing = null;
+                }
+            }
+        } catch(IOException e) {
+            if(!isClosed) {
+                CONNECTIONS.warn("Failed to write to connection: {}", e.getMessage());
+                close();
+            }
+        } finally {
+            if(writing != null) {
+                release(writing);
+                writing = null;
+            }
+            releaseOutbound();
+        }
+    }
+
+    /**
+     * Count bytes as written. Once a saturated connection is back under the low-water mark, it recovers.
+     * @param bytes The number of bytes just written.
+     */
+    private void wrote(int bytes) {
+        if(bytes > 0 && metrics != null)
+            metrics.recordBytesOut(bytes);
+
+        long queued = outboundBytes.addAndGet(-bytes);
+        MultiplayerServer server = this.server;
+        if(server != null && queued <= server.getLowWaterMark() && isSaturated.get())
+            drained();
+    }
+
+    /**
+     * Recover from being saturated. Reads resume, and if broadcasts were left out, a GeneralRequestCode.DRAINED
+     * is handled so the connection can be caught up.
+     */
+    private void drained() {
+        if(!isSaturated.compareAndSet(true, false))
+            return;
+
+        if(isReadStalled) {
+            isReadStalled = false;
+            if(eventLoop != null)
+                eventLoop.resumeReads(this);
+            else
+                LockSupport.unpark(listener);
+        }
+
+        if(isCoalescing.getAndSet(false)) {
+            isDrainPending.set(true);
+            schedule();
+        }
+    }
+
+    /**
+     * Wait on the reader thread of a blocking connection until it is no longer saturated. The client's requests
+     * back up in TCP meanwhile.
+     */
+    private void awaitDrain() {
+        while(isSaturated.get() && !isClosed) {
+            isReadStalled = true;
+            if(isSaturated.get())
+                LockSupport.park(this); // Woken by drained() or close()
+            isReadStalled = false;
+        }
+    }
+
+    /**
+     * @return True, if more than the server's high-water mark was waiting to be written to this connection and it
+     * hasn't caught up yet.
+     */
+    public boolean isSaturated() {
+        return isSaturated.get();
+    }
+
+    /**
+     * @return The number of bytes waiting to be written to this connection.
+     */
+    public long getOutboundBytes() {
+        return outboundBytes.get();
+    }
+
+    /**
+     * @return The number of requests read from this connection and waiting to be processed.
+     */
+    public int getQueuedRequests() {
+        return queuedRequests.size();
+    }
+
+    /**
+     * Return an outbound buffer to the pool. Read-only buffers are shared by broadcasts and are left to the GC.
+     * @param data The buffer that is done being written.
+     */
+    private void release(@NotNull ByteBuffer data) {
+        if(!data.isReadOnly())
+            bufferPool.release(data);
+    }
+
+    private void releaseOutbound() {
+        ByteBuffer data;
+        while((data = outbound.poll()) != null)
+            release(data);
+    }
+
+    /**
+     * Send an already encoded response. Only called from the shard processing this connection. If the connection
+     * is saturated, the server's SlowConsumerPolicy decides what happens instead.
+     * @param message The whole response in a read-only buffer. Shared, so it is never modified.
+     * @throws IOException If the response could not be sent.
+     */
+    void sendShared(@NotNull ByteBuffer message) throws IOException {
+        if(isBatching) {
+            deferredShared.add(message); // Sent once the batch response is done
+            return;
+        }
+
+        MultiplayerServer server = this.server;
+        if(server != null && isSaturated.get()) {
+            MultiplayerServer.SlowConsumerPolicy policy = server.getSlowConsumerPolicy();
+            server.getBackpressureStatistics().recordBroadcast(policy);
+            switch(policy) {
+                case COALESCE:
+                    isCoalescing.set(true);
+                    if(!isSaturated.get() && isCoalescing.getAndSet(false)) {
+                        isDrainPending.set(true); // Caught up while this was being left out
+                        schedule();
+                    }
+                    return;
+                case DISCONNECT:
+                    CONNECTIONS.warn("Disconnect [Slow]: {}", connection);
+                    close();
+                    return;
+                default:
+                    return; // Dropped
+            }
+        }
+
+        if(isResponseOpen)
+            endResponse();
+
+        out.flush(); // Anything gathered before this goes first
+        queueWrite(message.duplicate());
+    }
+
+    /**
+     * @return The protocol version responses to this connection are written in. Processing shard only.
+     */
+    short getOutboundVersion() {
+        return outboundVersion;
+    }
+
+    /**
+     * Return every buffer this connection still holds to the pool. Called by the event loop once the connection
+     * has closed.
+     */
+    void releaseBuffers() {
+        if(inbound != null) {
+            bufferPool.release(inbound);
+            inbound = null;
+        }
+        in.setInflater(null);
+
+        if(writing != null) {
+            release(writing);
+            writing = null;
+        }
+        releaseOutbound();
+    }
+
+    /**
+     * Add a request to the queue and let the server know this connection has work. If the queue is full, the
+     * calling reader waits for the processor to make room, which pushes back on the client through TCP.
+     * @param request The request code and its decoded data.
+     */
+    private void enqueue(@NotNull Pair<Short, RequestFulfillment> request) {
+        while(!queuedRequests.offer(request)) {
+            if(isClosed != null && isClosed)
+                return; // Nobody is going to process it.
+
+            schedule();
+            LockSupport.parkNanos(FULL_QUEUE_BACKOFF_NANOS);
+        }
+        schedule();
+    }
+
+    /**
+     * @return True, if there are requests waiting to be processed.
+     */
+    boolean hasQueuedRequests() {
+        return !queuedRequests.isEmpty() || isDisconnectPending.get() || isDrainPending.get()
+                || isProbePending.get() || !carriedRequests.isEmpty();
+    }
+
+    /**
+     * Attach this connection to the server that processes its requests. Anything queued before now is scheduled.
+     * @param server The server processing this connection's requests.
+     */
+    @SuppressWarnings("unchecked") // open() checked the registry's handlers take this connection's driver
+    void setServer(@NotNull MultiplayerServer server) {
+        this.shard = server.getShard(getAffinity(GeneralRequestCode.CONNECTED, null));
+        this.metrics = server.getMetrics();
+        this.requestRegistry = (RequestRegistry<MultiplayerConnection>) server.getRequestRegistry();
+        this.server = server;
+        if(hasQueuedRequests())
+            schedule();
+    }
+
+    /**
+     * Hand this connection to its shard's ready queue, unless it is already waiting there or being processed.
+     */
+    private void schedule() {
+        if(server != null && isScheduled.compareAndSet(false, true))
+            shard.schedule(this);
+    }
+
+    /**
+     * Move this connection to another shard. Only called by the shard handing the connection off.
+     * @param shard The shard that now owns this connection.
+     */
+    void setShard(@NotNull ProcessingShard shard) {
+        this.shard = shard;
+    }
+
+    /**
+     * @return The shard this connection asked to be handed off to while processing or null if it stays put.
+     */
+    @Nullable
+    ProcessingShard takeHandOff() {
+        ProcessingShard toRet = handOff;
+        handOff = null;
+        return toRet;
+    }
+
+    /**
+     * Override this to group connections that share state onto the same processing shard. Requests are always
+     * handled on the shard that owns the affinity returned here, so anything only touched by requests with equal
+     * affinity is Thread-safe. Affinities are compared with hashCode(). Called before every request on the
+     * processing thread.
+     * @param requestCode The request about to be handled.
+     * @param data The data that comes with it.
+     * @return The object this request shares state with. (defaults to this connection)
+     */
+    @NotNull
+    protected Object getAffinity(short requestCode, @Nullable RequestFulfillment data) {
+        return this;
+    }
+
+    /**
+     * Call this from handleRequest when the request needs state owned by another shard. The request being
+     * handled, and every request after it, will be handled again on the shard owning the passed affinity. Return
+     * from handleRequest right away without touching the other shard's state if this returns true.
+     * @param affinity The affinity the request needs. (ex. the room being joined)
+     * @return True, if the request was handed off. False, if this shard already owns the affinity.
+     */
+    protected final boolean handOff(@NotNull Object affinity) {
+        MultiplayerServer server = this.server;
+        if(server == null || currentRequest == null)
+            return false;
+
+        ProcessingShard target = server.getShard(affinity);
+        if(target == shard)
+            return false;
+
+        handOff = target;
+        carriedRequests.addFirst(currentRequest);
+        return true;
+    }
+
+    /**
+     * Called by the server once it is done processing this connection. If requests arrived in the meantime,
+     * the connection is scheduled again.
+     */
+    void finishProcessing() {
+        isScheduled.set(false);
+        if(hasQueuedRequests())
+            schedule();
     }
 
     /**
      * Immediately process the request queue. If called from the server's request processing, this is thread safe.
-     * Can be called elsewhere with caution for race conditions.
+     * Can be called elsewhere with caution for race conditions. Requests are pulled off the queue in one batch of
+     * whatever was queued when processing began.
      */
     public void processRequests() {
-        while(!queuedRequests.isEmpty()) {
-            queuedRequestsLock.writeLock().lock();
-            Pair<Short, RequestFulfillment> request = queuedRequests.poll();
-            queuedRequestsLock.writeLock().unlock();
+        processRequests(0, false);
+    }
 
-            Short requestCode = request.getKey();
-            RequestFulfillment data = request.getValue();
+    /**
+     * Process the request queue until the deadline passes. Whatever is left stays queued, so the shard schedules
+     * the connection again once it's done with it. At least a few requests are always handled.
+     * @param deadline When to stop. (in System.nanoTime())
+     */
+    void processRequests(long deadline) {
+        processRequests(deadline, true);
+    }
+
+    private void processRequests(long deadline, boolean isBudgeted) {
+        int handled = 0;
+        Pair<Short, RequestFulfillment> carried;
+        while(handOff == null && (carried = carriedRequests.poll()) != null) {
+            process(carried); // Requests handed off from another shard go first
+            ++handled;
+        }
+
+        boolean isOverBudget = false;
+        if(handOff == null && !isBudgeted) {
+            handled += queuedRequests.drain(this::process, queuedRequests.capacity());
+        } else if(handOff == null) {
+            int limit = queuedRequests.capacity();
+            while(handOff == null && limit > 0) {
+                int drained = queuedRequests.drain(this::process, Math.min(limit, BUDGET_CHECK_INTERVAL));
+                handled += drained;
+                limit -= drained;
+                if(drained < BUDGET_CHECK_INTERVAL)
+                    break; // Emptied the queue
+                if(System.nanoTime() - deadline >= 0) {
+                    isOverBudget = true;
+                    break;
+                }
+            }
+        }
+
+        if(handOff == null && !isOverBudget && isDrainPending.compareAndSet(true, false)) {
+            process(new Pair<>(GeneralRequestCode.DRAINED, null));
+            ++handled;
+        }
+
+        if(handOff == null && !isOverBudget && isProbePending.compareAndSet(true, false)) {
+            process(new Pair<>(GeneralRequestCode.HEARTBEAT, null));
+            ++handled;
+        }
+
+        if(handOff == null && !isOverBudget && queuedRequests.isEmpty()
+                && isDisconnectPending.compareAndSet(true, false)) {
+            process(new Pair<>(GeneralRequestCode.DISCONNECT, null));
+            ++handled;
+        }
+
+        if(isReadStalled && eventLoop != null) {
+            isReadStalled = false;
+            eventLoop.resumeReads(this);
+        }
+
+        if(handled == 0)
+            return;
+
+        try {
+            if(out != null)
+                out.flush(); // Send every response gathered during this pass at once.
+        } catch(IOException e) {
+            REQUESTS.warn("Unable to flush responses: {}", e.getMessage());
+        }
+    }
 
+    private void process(@NotNull Pair<Short, RequestFulfillment> request) {
+        if(handOff != null) {
+            carriedRequests.offer(request); // Keep order. These get handled after the hand-off.
+            return;
+        }
+
+        if(isDisconnectHandled)
+            return; // Stragglers that arrived after disconnecting are dropped.
+
+        Short requestCode = request.getKey();
+        RequestFulfillment data = request.getValue();
+        if(requestCode == GeneralRequestCode.BATCH && data != null) {
+            processBatch((BatchRequest) data);
+            return;
+        }
+
+        currentRequest = request;
+        if(handOff(getAffinity(requestCode, data))) {
+            currentRequest = null;
+            return; // Owned by another shard.
+        }
+
+        long start = metrics == null ? 0 : System.nanoTime();
+        try {
+            if(requestCode == GeneralRequestCode.PROTOCOL && data != null)
+                acceptProtocol((ProtocolRequest) data);
+            else if(requestCode == GeneralRequestCode.HEARTBEAT)
+                heartbeat((HeartbeatRequest) data);
+            else
+                dispatch(requestCode, data);
+
+            if(isResponseOpen)
+                endResponse();
+            if(requestCode == GeneralRequestCode.DISCONNECT && handOff == null) {
+                isDisconnectHandled = true;
+                if(out != null)
+                    out.setDeflater(null); // Nothing more is written to this connection. Free the native memory.
+            }
+        } catch(IOException e) {
+            REQUESTS.warn("Unable to handle request IO: {}", e.getMessage());
+            closeResponse(); // Whatever was written of it is sent as is.
+        } finally {
+            currentRequest = null;
+        }
+
+        if(metrics != null && handOff == null) { // Handed off mid-way, it's measured where it finishes
+            long end = System.nanoTime();
+            if(request instanceof QueuedRequest)
+                metrics.recordQueueWait(requestCode, start - ((QueuedRequest) request).getQueuedAt());
+            metrics.recordHandle(requestCode, end - start);
+        }
+    }
+
+    /**
+     * Handle every request in a batch in order, gathering their responses into one BATCH response. If a request
+     * is handed off to another shard, the rest of the batch goes with it and is answered there in a batch of its
+     * own. Broadcasts to this connection during the batch are sent after its response.
+     * @param batch The batch to handle.
+     */
+    private void processBatch(@NotNull BatchRequest batch) {
+        List<Pair<Short, RequestFulfillment>> requests = batch.getRequests();
+        isBatching = outboundVersion >= ProtocolVersion.V2; // Can't be batched without frames. Answer one by one.
+        try {
+            for(int i=0; i<requests.size(); i++) {
+                process(requests.get(i));
+                if(handOff != null) {
+                    // The request that was handed off is first in line. Keep the rest batched behind it.
+                    carriedRequests.removeFirst();
+                    carriedRequests.addFirst(new Pair<>(GeneralRequestCode.BATCH,
+                            new BatchRequest(requests.subList(i, requests.size()))));
+                    break;
+                }
+            }
+        } finally {
             try {
-                handleRequest(requestCode, data);
+                endBatch();
             } catch(IOException e) {
-                System.out.println("Unable to handle request IO: " + e.getMessage());
+                REQUESTS.warn("Unable to handle request IO: {}", e.getMessage());
             }
         }
     }
 
+    /**
+     * End the batch response, if anything was written to it, and send the broadcasts held back until it was done.
+     * @throws IOException If the batch response or a broadcast could not be sent.
+     */
+    private void endBatch() throws IOException {
+        if(!isBatching)
+            return;
+
+        closeResponse();
+        isBatching = false;
+        if(isBatchResponseOpen) {
+            isBatchResponseOpen = false;
+            out.endFrame();
+        }
+
+        MultiplayerServer server = this.server;
+        if(server != null && server.getFlushPolicy() == MultiplayerServer.FlushPolicy.PER_RESPONSE)
+            out.flush();
+
+        if(deferredShared.isEmpty())
+            return;
+
+        try {
+            for(ByteBuffer message : deferredShared)
+                sendShared(message);
+        } finally {
+            deferredShared.clear();
+        }
+    }
+
+    /**
+     * Let the client know which protocol version was agreed on. The answer goes out in the old framing and
+     * everything after it in the new one. From v4 on, large responses are compressed.
+     * @param request The negotiated protocol.
+     * @throws IOException If the answer could not be written.
+     */
+    private void acceptProtocol(@NotNull ProtocolRequest request) throws IOException {
+        beginResponse(GeneralRequestCode.PROTOCOL);
+        out.writeS16(request.getVersion());
+        endResponse();
+        outboundVersion = request.getVersion();
+        out.setStringEncoding(getStringEncoding(outboundVersion));
+        out.setDeflater(outboundVersion >= ProtocolVersion.V4 ? newDeflater() : null);
+    }
+
+    /**
+     * Answer a ping from the client or, when the idle timer asks for one, ping the client. Pongs need nothing
+     * more, since reading them already kept the connection open.
+     * @param request The heartbeat from the client or null to ping it.
+     * @throws IOException If the heartbeat could not be written.
+     */
+    private void heartbeat(@Nullable HeartbeatRequest request) throws IOException {
+        if(request != null && !request.isPing())
+            return;
+
+        beginResponse(GeneralRequestCode.HEARTBEAT);
+        out.writeS8(request == null ? HeartbeatRequest.PING : HeartbeatRequest.PONG);
+    }
+
+    @NotNull
+    private FrameInflater newInflater() {
+        MultiplayerServer server = this.server;
+        if(server == null)
+            return new FrameInflater(null, MAX_FRAME_LENGTH, null);
+
+        return new FrameInflater(server.getCompressionDictionary(), MAX_FRAME_LENGTH, server.getCompressionStatistics());
+    }
+
+    @Nullable
+    private FrameDeflater newDeflater() {
+        MultiplayerServer server = this.server;
+        if(server == null)
+            return null; // Nobody configured compression. Send frames raw.
+
+        return new FrameDeflater(server.getCompressionLevel(), server.getCompressionDictionary(),
+                server.getCompressionThreshold(), server.getCompressionStatistics());
+    }
+
+    @NotNull
+    static StringEncoding getStringEncoding(short protocolVersion) {
+        return protocolVersion >= ProtocolVersion.V3 ? StringEncoding.UTF8_PREFIXED : StringEncoding.NUL_TERMINATED;
+    }
+
+    /**
+     * Start writing a response to the client. Writes the header. Follow up by writing the response's data to the
+     * out variable. The response ends when the next one begins or the request is done being handled, whichever
+     * comes first. Responses are sent according to the server's FlushPolicy. While a batch is handled, responses
+     * are written into the batch response instead and sent with it.
+     * @param requestCode The request code of the response.
+     * @throws IOException If the response could not be written.
+     */
+    protected void beginResponse(short requestCode) throws IOException {
+        if(isResponseOpen)
+            endResponse();
+
+        if(isBatching) {
+            if(!isBatchResponseOpen) {
+                writeHeader(out, GeneralRequestCode.BATCH, outboundVersion);
+                isBatchResponseOpen = true;
+            }
+
+            isResponseOpen = true;
+            out.writeS16(requestCode);
+            out.beginFrame();
+            isResponseFramed = true;
+            return;
+        }
+
+        isResponseOpen = true;
+        writeHeader(out, requestCode, outboundVersion);
+        isResponseFramed = outboundVersion >= ProtocolVersion.V2;
+    }
+
+    /**
+     * Write the header of a response and, on protocol v2 and up, open its frame. Also sets the stream's String
+     * encoding to match the version.
+     * @param out The stream to write to.
+     * @param requestCode The request code of the response.
+     * @param protocolVersion The protocol version the response is written in.
+     * @throws IOException If the header could not be written.
+     */
+    static void writeHeader(@NotNull CSOutputStream out, short requestCode, short protocolVersion) throws IOException {
+        out.setStringEncoding(getStringEncoding(protocolVersion));
+        out.writeS16(GeneralRequestCode.HANDSHAKE);
+        out.writeS16(requestCode);
+        if(protocolVersion >= ProtocolVersion.V2)
+            out.beginFrame();
+    }
+
+    /**
+     * End the current response. It is sent now if the server flushes every response. Otherwise, it goes out with
+     * the rest of the responses written while processing this connection.
+     * @throws IOException If the response could not be sent.
+     */
+    protected void endResponse() throws IOException {
+        closeResponse();
+
+        MultiplayerServer server = this.server;
+        if(!isBatching && server != null && server.getFlushPolicy() == MultiplayerServer.FlushPolicy.PER_RESPONSE)
+            out.flush();
+    }
+
+    private void closeResponse() {
+        isResponseOpen = false;
+        if(isResponseFramed) {
+            isResponseFramed = false;
+            out.endFrame();
+        }
+    }
+
+    /**
+     * Handle a request with its registered handler or handleRequest if it has none.
+     * @param requestCode The request code.
+     * @param data The data that comes with it.
+     * @throws IOException If at any point the server/client have trouble communicating.
+     */
+    private void dispatch(short requestCode, @Nullable RequestFulfillment data) throws IOException {
+        RequestRegistry.Registration<MultiplayerConnection, ?> registration =
+                requestRegistry == null ? null : requestRegistry.get(requestCode);
+        if(registration != null)
+            registration.handle(this, data);
+        else
+            handleRequest(requestCode, data);
+    }
+
     /**
      * Decode requests here using the in variable to get more data from client. This runs on its own thread
      * so be careful of race conditions. After decoding, encode a RequestFulfillment object and return it. This
-     * object will be passed to your thread-safe handleRequest method.
+     * object will be passed to your thread-safe handleRequest method. Only called for requests missing from the
+     * server's RequestRegistry.
      * @param requestCode The requestCode received from the client.
      * @throws IOException If at any point the server/client have trouble communicating. Handled automatically.
      * @return The decoded request or null if no data.
@@ -157,7 +1405,8 @@ public class MultiplayerConnection {
     }
 
     /**
-     * Override this method to supply your own request handling.
+     * Override this method to supply your own request handling. Only called for requests missing from the
+     * server's RequestRegistry.
      * @param requestCode The short requestCode
      * @param data The data that comes with it. (You may want to cast this to your own classes)
      * @throws IOException If at any point the server/client have trouble communicating. Handled automatically.
@@ -168,8 +1417,10 @@ public class MultiplayerConnection {
                 break;
             case GeneralRequestCode.DISCONNECT:
                 break;
+            case GeneralRequestCode.DRAINED:
+                break;
             default:
-                System.out.println("Got unknown request: " + requestCode);
+                REQUESTS.warn("Got unknown request: {}", requestCode);
                 break;
         }
     }
@@ -182,19 +1433,27 @@ public class MultiplayerConnection {
         if(isClosed == null || isClosed)
             return;
 
-        // Alert Disconnect
-        queuedRequestsLock.writeLock().lock();
-        queuedRequests.offer(new Pair<>(GeneralRequestCode.DISCONNECT, null));
-        queuedRequestsLock.writeLock().unlock();
-
+        // Closed first, so the shard handling the disconnect sees it and drops the connection from the server.
         isClosed = true;
-        System.out.println("Disconnect [Server]: " + Tools.formatSocket(connection));
+
+        // Alert Disconnect. Flagged rather than queued so it can't be lost to a full queue.
+        isDisconnectPending.set(true);
+        schedule();
+
+        CONNECTIONS.info("Disconnect [Server]: {}", connection);
 
         try {
             connection.close();
-            listener.join();
+            if(eventLoop != null)
+                eventLoop.release(this);
+            if(writerPool != null)
+                scheduleWrite(); // Returns the buffers still waiting to be written
+            LockSupport.unpark(writer);
+            LockSupport.unpark(listener);
+            if(listener != null && listener != Thread.currentThread())
+                listener.join();
         } catch(IOException | InterruptedException e) {
-            System.out.println("Error closing connection: " + e.getMessage());
+            CONNECTIONS.warn("Error closing connection: {}", e.getMessage());
         }
     }
 
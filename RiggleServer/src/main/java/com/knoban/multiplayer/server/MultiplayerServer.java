@@ -1,36 +1,100 @@
 package com.knoban.multiplayer.server;
 
-import com.knoban.multiplayer.utils.Tools;
+import com.knoban.multiplayer.logging.Log;
+import com.knoban.multiplayer.logging.Logger;
+import com.knoban.multiplayer.metrics.MetricsEndpoint;
+import com.knoban.multiplayer.metrics.ServerMetrics;
+import com.knoban.multiplayer.requests.GeneralRequestCode;
+import com.knoban.multiplayer.requests.RequestRegistry;
+import com.knoban.multiplayer.streams.BufferPool;
+import com.knoban.multiplayer.streams.CompressionStatistics;
+import com.knoban.multiplayer.streams.StreamStatistics;
+import com.knoban.multiplayer.streams.StringCache;
+import com.knoban.multiplayer.utils.RoomRegistry;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.ToLongFunction;
+import java.util.zip.Deflater;
 
 /**
  * @author Alden Bansemer (kNoAPP)
  */
 public class MultiplayerServer {
 
+    private static final Logger CONNECTIONS = Log.getLogger("connections");
+    private static final Logger SERVER = Log.getLogger("server");
+
     private Class<? extends MultiplayerConnection> connectionDriver;
     private HashSet<MultiplayerConnection> connections = new HashSet<>();
     private final ReadWriteLock rwLockConnections = new ReentrantReadWriteLock();
 
-    private final ServerSocket serverSocket;
+    private final ServerSocketChannel serverSocket;
     private final int port;
     private Thread connectionListener;
     private volatile boolean isListening;
 
-    private Thread requestProcessor;
+    private TransportMode transportMode = TransportMode.BLOCKING;
+    private ConnectionExecutor connectionExecutor = ConnectionExecutors.platform();
+    private int ioThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private int writerThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private long writeTimeoutNanos = TimeUnit.SECONDS.toNanos(10);
+    private WriterPool writerPool; // Only while open in BLOCKING mode with platform threads
+    private NioEventLoop[] eventLoops;
+    private int nextEventLoop;
+
+    private FlushPolicy flushPolicy = FlushPolicy.PER_PASS;
+    private boolean tcpNoDelay = true;
+    private int lowWaterMark = 128 << 10;
+    private int highWaterMark = 512 << 10;
+    private SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.COALESCE;
+    private final BackpressureStatistics backpressureStatistics = new BackpressureStatistics();
+    private RateLimit connectionRateLimit;
+    private final Map<Short, RateLimit> requestRateLimits = new ConcurrentHashMap<>();
+    private RateLimitPolicy rateLimitPolicy = RateLimitPolicy.DELAY;
+    private final RateLimitStatistics rateLimitStatistics = new RateLimitStatistics();
+    private long idleTimeoutNanos;
+    private IdleTimer idleTimer;
+    private final StreamStatistics streamStatistics = new StreamStatistics();
+    private BufferPool bufferPool = new BufferPool();
+    private final StringCache stringCache = new StringCache(256);
+    private int compressionThreshold = 512;
+    private int compressionLevel = Deflater.BEST_SPEED;
+    private byte[] compressionDictionary;
+    private final CompressionStatistics compressionStatistics = new CompressionStatistics();
+    private RoomRegistry<?> roomRegistry = new RoomRegistry<>();
+    private RequestRegistry<?> requestRegistry; // Null if connections only use decodeRequest and handleRequest
+
+    private ProcessingShard[] shards;
     private volatile ProcessingStatus processingStatus;
 
+    private int tickRate; // 0 when processing is event-driven
+    private long tickBudgetNanos;
+    private final TickStatistics tickStatistics = new TickStatistics();
+
+    private final ServerMetrics metrics = new ServerMetrics();
+    private int metricsPort;
+    private MetricsEndpoint metricsEndpoint;
+    private ObjectName metricsName; // Registered with the platform MBean server while listening
+
     /**
      * Create a new MultiplayerServer instance running on a specified port.
      * @param port The port to run on.
@@ -39,7 +103,16 @@ public class MultiplayerServer {
     public MultiplayerServer(int port) throws IOException {
         this.connectionDriver = MultiplayerConnection.class;
         this.port = port;
-        this.serverSocket = new ServerSocket(port);
+        this.serverSocket = ServerSocketChannel.open();
+        serverSocket.socket().bind(new InetSocketAddress(port));
+        this.shards = new ProcessingShard[] {new ProcessingShard(this, 0)};
+
+        metrics.addGauge("connections", "Open connections.", () -> sumConnections(connection -> 1));
+        metrics.addGauge("rooms", "Rooms in the room registry.", () -> roomRegistry.size());
+        metrics.addGauge("outbound_bytes", "Bytes queued to be written to connections.",
+                () -> sumConnections(MultiplayerConnection::getOutboundBytes));
+        metrics.addGauge("queued_requests", "Requests queued on connections.",
+                () -> sumConnections(MultiplayerConnection::getQueuedRequests));
     }
 
     /**
@@ -65,20 +138,561 @@ public class MultiplayerServer {
         return connectionDriver;
     }
 
+    public enum TransportMode {
+        BLOCKING, // Each connection is given its own threads (see ConnectionExecutor) to block on for reads and writes
+        NIO // Connections are non-blocking and share a small pool of selector threads
+    }
+
+    /**
+     * Set how connections read and write their data. Takes effect the next time the server is opened.
+     * @param transportMode The transport mode to use. (defaults to BLOCKING)
+     */
+    public void setTransportMode(@NotNull TransportMode transportMode) {
+        this.transportMode = transportMode;
+    }
+
+    /**
+     * @return How connections read and write their data.
+     */
+    @NotNull
+    public TransportMode getTransportMode() {
+        return transportMode;
+    }
+
+    /**
+     * Set what supplies the reader threads of connections in BLOCKING mode. Opt in to virtual threads with
+     * ConnectionExecutors.virtual() or ConnectionExecutors.preferVirtual().
+     * @param connectionExecutor The executor to use. (defaults to platform threads)
+     */
+    public void setConnectionExecutor(@NotNull ConnectionExecutor connectionExecutor) {
+        this.connectionExecutor = connectionExecutor;
+    }
+
+    /**
+     * @return What supplies the reader threads of connections in BLOCKING mode.
+     */
+    @NotNull
+    public ConnectionExecutor getConnectionExecutor() {
+        return connectionExecutor;
+    }
+
+    /**
+     * Set the number of selector threads shared by all connections in NIO mode. Takes effect the next time the
+     * server is opened.
+     * @param ioThreads The number of I/O threads. Must be at least 1. (defaults to half the available processors)
+     */
+    public void setIoThreads(int ioThreads) {
+        if(ioThreads < 1)
+            throw new IllegalArgumentException("At least one I/O thread is required!");
+
+        this.ioThreads = ioThreads;
+    }
+
+    /**
+     * @return The number of selector threads shared by all connections in NIO mode.
+     */
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    /**
+     * Set the number of threads shared by all connections in BLOCKING mode to write with, when the connection
+     * executor isn't virtual. Takes effect the next time the server is opened.
+     * @param writerThreads The number of writer threads. Must be at least 1. (defaults to the available processors,
+     *                      but at least 2)
+     */
+    public void setWriterThreads(int writerThreads) {
+        if(writerThreads < 1)
+            throw new IllegalArgumentException("At least one writer thread is required!");
+
+        this.writerThreads = writerThreads;
+    }
+
+    /**
+     * @return The number of threads shared by all connections in BLOCKING mode to write with.
+     */
+    public int getWriterThreads() {
+        return writerThreads;
+    }
+
     /**
-     * Begin listening for new connections to the server. Each connection is
-     * given its own thread to run on for incoming data.
+     * Set how long a write by the shared writer threads may make no progress before its connection is closed.
+     * Keeps clients that stop reading from holding the threads up for everyone else. Takes effect the next time the
+     * server is opened.
+     * @param writeTimeout The timeout. Must be positive. (defaults to 10 seconds)
+     * @param unit The unit of the timeout.
+     */
+    public void setWriteTimeout(long writeTimeout, @NotNull TimeUnit unit) {
+        if(writeTimeout <= 0)
+            throw new IllegalArgumentException("Write timeout must be positive!");
+
+        this.writeTimeoutNanos = unit.toNanos(writeTimeout);
+    }
+
+    /**
+     * @param unit The unit to return the timeout in.
+     * @return How long a write by the shared writer threads may make no progress before its connection is closed.
+     */
+    public long getWriteTimeout(@NotNull TimeUnit unit) {
+        return unit.convert(writeTimeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return The writer threads shared by blocking connections or null if they each get their own.
+     */
+    @Nullable
+    WriterPool getWriterPool() {
+        return writerPool;
+    }
+
+    public enum FlushPolicy {
+        PER_RESPONSE, // Each response is sent as soon as it's written
+        PER_PASS // All responses written while processing a connection are sent together
+    }
+
+    /**
+     * Set when responses written by connections are sent. Either way, each send is a single write to the socket.
+     * @param flushPolicy The flush policy to use. (defaults to PER_PASS)
+     */
+    public void setFlushPolicy(@NotNull FlushPolicy flushPolicy) {
+        this.flushPolicy = flushPolicy;
+    }
+
+    /**
+     * @return When responses written by connections are sent.
+     */
+    @NotNull
+    public FlushPolicy getFlushPolicy() {
+        return flushPolicy;
+    }
+
+    /**
+     * Set TCP_NODELAY on new connections. Responses are already gathered into one write per flush, so Nagle's
+     * algorithm would only add latency. Takes effect for connections accepted after this call.
+     * @param tcpNoDelay True, to disable Nagle's algorithm. (defaults to true)
+     */
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    /**
+     * @return True, if new connections disable Nagle's algorithm.
+     */
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    /**
+     * Set how many bytes may wait to be written to a connection. Once more than the high-water mark is waiting,
+     * the connection is saturated: reading from it pauses and broadcasts to it are handled by the
+     * SlowConsumerPolicy. It stays saturated until no more than the low-water mark is waiting.
+     * @param lowWaterMark The bytes waiting at which a saturated connection recovers. (defaults to 128 KB)
+     * @param highWaterMark The bytes waiting past which a connection is saturated. (defaults to 512 KB)
+     */
+    public void setOutboundWaterMarks(int lowWaterMark, int highWaterMark) {
+        if(lowWaterMark < 0 || highWaterMark < lowWaterMark)
+            throw new IllegalArgumentException("Water marks must satisfy 0 <= low <= high!");
+
+        this.lowWaterMark = lowWaterMark;
+        this.highWaterMark = highWaterMark;
+    }
+
+    /**
+     * @return The bytes waiting at which a saturated connection recovers.
+     */
+    public int getLowWaterMark() {
+        return lowWaterMark;
+    }
+
+    /**
+     * @return The bytes waiting past which a connection is saturated.
+     */
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    public enum SlowConsumerPolicy {
+        DROP, // Broadcasts to saturated connections are dropped
+        COALESCE, // Dropped too, but the connection gets a GeneralRequestCode.DRAINED to catch up once it recovers
+        DISCONNECT // Saturated connections are closed as soon as a broadcast is sent to them
+    }
+
+    /**
+     * Set what happens to broadcasts sent to a saturated connection. Responses to a connection's own requests are
+     * always sent, since reading its requests pauses while it is saturated.
+     * @param slowConsumerPolicy The policy to use. (defaults to COALESCE)
+     */
+    public void setSlowConsumerPolicy(@NotNull SlowConsumerPolicy slowConsumerPolicy) {
+        this.slowConsumerPolicy = slowConsumerPolicy;
+    }
+
+    /**
+     * @return What happens to broadcasts sent to a saturated connection.
+     */
+    @NotNull
+    public SlowConsumerPolicy getSlowConsumerPolicy() {
+        return slowConsumerPolicy;
+    }
+
+    /**
+     * @return Counts of connections falling behind and broadcasts dropped because of it.
+     */
+    @NotNull
+    public BackpressureStatistics getBackpressureStatistics() {
+        return backpressureStatistics;
+    }
+
+    /**
+     * Limit how fast each connection may send requests of any kind. Requests in a batch count one by one. Takes
+     * effect for connections accepted after this call.
+     * @param connectionRateLimit The limit or null for none. (defaults to none)
+     */
+    public void setConnectionRateLimit(@Nullable RateLimit connectionRateLimit) {
+        this.connectionRateLimit = connectionRateLimit;
+    }
+
+    /**
+     * @return The limit on how fast each connection may send requests or null if there is none.
+     */
+    @Nullable
+    public RateLimit getConnectionRateLimit() {
+        return connectionRateLimit;
+    }
+
+    /**
+     * Limit how fast each connection may send requests with the given code, on top of the connection's limit.
+     * Useful for requests that are expensive or could be used to guess at things. (ex. room codes) Takes effect
+     * for connections accepted after this call.
+     * @param requestCode The request code to limit.
+     * @param rateLimit The limit or null to remove it.
+     */
+    public void setRequestRateLimit(short requestCode, @Nullable RateLimit rateLimit) {
+        if(requestCode == GeneralRequestCode.PROTOCOL)
+            throw new IllegalArgumentException("Protocol changes can't be rate limited!");
+
+        if(rateLimit == null)
+            requestRateLimits.remove(requestCode);
+        else
+            requestRateLimits.put(requestCode, rateLimit);
+    }
+
+    /**
+     * @param requestCode The request code.
+     * @return The limit on how fast each connection may send requests with the code or null if there is none.
+     */
+    @Nullable
+    public RateLimit getRequestRateLimit(short requestCode) {
+        return requestRateLimits.get(requestCode);
+    }
+
+    public enum RateLimitPolicy {
+        DROP, // Requests over the limit are dropped without being handled
+        DELAY, // Reading from the connection waits until the limit allows the request, pushing back through TCP
+        DISCONNECT // Connections that go over the limit are closed
+    }
+
+    /**
+     * Set what happens to requests over a rate limit. Requests that could never fit the limit, like a batch larger
+     * than the burst, are dropped when delaying.
+     * @param rateLimitPolicy The policy to use. (defaults to DELAY)
+     */
+    public void setRateLimitPolicy(@NotNull RateLimitPolicy rateLimitPolicy) {
+        this.rateLimitPolicy = rateLimitPolicy;
+    }
+
+    /**
+     * @return What happens to requests over a rate limit.
+     */
+    @NotNull
+    public RateLimitPolicy getRateLimitPolicy() {
+        return rateLimitPolicy;
+    }
+
+    /**
+     * @return Counts of requests that went over a rate limit and how they were handled.
+     */
+    @NotNull
+    public RateLimitStatistics getRateLimitStatistics() {
+        return rateLimitStatistics;
+    }
+
+    /**
+     * @return The token buckets for a new connection or null if nothing is rate limited.
+     */
+    @Nullable
+    RateLimiter newRateLimiter() {
+        if(connectionRateLimit == null && requestRateLimits.isEmpty())
+            return null;
+
+        return new RateLimiter(connectionRateLimit, new HashMap<>(requestRateLimits));
+    }
+
+    /**
+     * Close connections that send nothing for too long, so clients that vanished without closing their end (ex.
+     * phones losing signal) don't hold on to their threads and rooms forever. Clients that send a
+     * GeneralRequestCode.HEARTBEAT are sent one back halfway through, and stay connected by answering it. Takes
+     * effect the next time the server is opened.
+     * @param idleTimeout The timeout or 0 to leave idle connections open. (defaults to 0)
+     * @param unit The unit of the timeout.
+     */
+    public void setIdleTimeout(long idleTimeout, @NotNull TimeUnit unit) {
+        if(idleTimeout < 0)
+            throw new IllegalArgumentException("Idle timeout can't be negative!");
+
+        this.idleTimeoutNanos = unit.toNanos(idleTimeout);
+    }
+
+    /**
+     * @param unit The unit to return the timeout in.
+     * @return How long connections may send nothing before they are closed or 0 if they are left open.
+     */
+    public long getIdleTimeout(@NotNull TimeUnit unit) {
+        return unit.convert(idleTimeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return The timer closing idle connections or null if they are left open.
+     */
+    @Nullable
+    IdleTimer getIdleTimer() {
+        return idleTimer;
+    }
+
+    /**
+     * @return Counts of bytes written by all connections and how many socket writes gathering them saved.
+     */
+    @NotNull
+    public StreamStatistics getStreamStatistics() {
+        return streamStatistics;
+    }
+
+    /**
+     * @return Request latencies, traffic and load of this server. Also shown in JMX while the server is open.
+     */
+    @NotNull
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Serve metrics as plain text for Prometheus to scrape at http://127.0.0.1:[port]/metrics. Only the loopback
+     * address is listened on. Takes effect the next time the server is opened.
+     * @param metricsPort The port or 0 to not serve metrics. (defaults to 0)
+     */
+    public void setMetricsPort(int metricsPort) {
+        if(metricsPort < 0 || metricsPort > 0xFFFF)
+            throw new IllegalArgumentException("Metrics port out of range: " + metricsPort);
+
+        this.metricsPort = metricsPort;
+    }
+
+    /**
+     * @return The port metrics are served on or 0 if they aren't.
+     */
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    /**
+     * Add up a value over every open connection.
+     * @param value The value of one connection.
+     * @return The total.
+     */
+    private long sumConnections(@NotNull ToLongFunction<MultiplayerConnection> value) {
+        rwLockConnections.readLock().lock();
+        try {
+            long toRet = 0;
+            for(MultiplayerConnection connection : connections)
+                toRet += value.applyAsLong(connection);
+            return toRet;
+        } finally {
+            rwLockConnections.readLock().unlock();
+        }
+    }
+
+    /**
+     * Set the smallest response frame compressed for connections on protocol v4. Takes effect for connections
+     * that negotiate v4 after this call.
+     * @param compressionThreshold The threshold in bytes or Integer.MAX_VALUE to never compress. (defaults to 512)
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * @return The smallest response frame compressed for connections on protocol v4.
+     */
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Set how hard responses are compressed. Takes effect for connections that negotiate v4 after this call.
+     * @param compressionLevel A Deflater level from 0 to 9. (defaults to Deflater.BEST_SPEED)
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        if(compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION)
+            throw new IllegalArgumentException("Compression level must be from 0 to 9!");
+
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * @return How hard responses are compressed.
+     */
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * Set a preset dictionary both sides prime Deflate with. Bytes that show up in many frames (request payloads,
+     * common names, ...) compress well even in small frames. Clients must use the exact same bytes. Must be set
+     * before the server is opened.
+     * @param compressionDictionary The dictionary or null for none. (defaults to none)
+     */
+    public void setCompressionDictionary(@Nullable byte[] compressionDictionary) {
+        if(isListening)
+            throw new IllegalStateException("The compression dictionary can't change once the server is listening!");
+
+        this.compressionDictionary = compressionDictionary == null ? null : compressionDictionary.clone();
+    }
+
+    /**
+     * @return The preset dictionary both sides prime Deflate with or null if there isn't one.
+     */
+    @Nullable
+    byte[] getCompressionDictionary() {
+        return compressionDictionary;
+    }
+
+    /**
+     * @return How much compressing frames saved and what it cost across all connections.
+     */
+    @NotNull
+    public CompressionStatistics getCompressionStatistics() {
+        return compressionStatistics;
+    }
+
+    /**
+     * Set the registry rooms on this server are kept in. Servers in the same JVM each get their own by default.
+     * Must be set before the server is opened.
+     * @param roomRegistry The registry to keep rooms in.
+     */
+    public void setRoomRegistry(@NotNull RoomRegistry<?> roomRegistry) {
+        if(isListening)
+            throw new IllegalStateException("The room registry can't change once the server is listening!");
+
+        this.roomRegistry = roomRegistry;
+    }
+
+    /**
+     * @return The registry rooms on this server are kept in. Safe to look rooms up in from any thread.
+     */
+    @NotNull
+    @SuppressWarnings("unchecked")
+    public <R> RoomRegistry<R> getRoomRegistry() {
+        return (RoomRegistry<R>) roomRegistry;
+    }
+
+    /**
+     * Set how connections decode and handle requests. Requests it doesn't have fall back to the connection
+     * driver's decodeRequest and handleRequest. Registered requests are measured under their own names. Must be set
+     * before the server is opened, which fails if the registry's handlers don't take the connection driver.
+     * @param requestRegistry The registry or null to only use decodeRequest and handleRequest. (defaults to null)
+     */
+    public void setRequestRegistry(@Nullable RequestRegistry<? extends MultiplayerConnection> requestRegistry) {
+        if(isListening)
+            throw new IllegalStateException("The request registry can't change once the server is listening!");
+
+        this.requestRegistry = requestRegistry;
+        if(requestRegistry != null)
+            requestRegistry.nameRequests(metrics);
+    }
+
+    /**
+     * @return How connections decode and handle requests or null if they only use decodeRequest and handleRequest.
+     */
+    @Nullable
+    public RequestRegistry<?> getRequestRegistry() {
+        return requestRegistry;
+    }
+
+    /**
+     * @return The cache connections decode short, repeated Strings (room codes, UUIDs, ...) from.
+     */
+    @NotNull
+    public StringCache getStringCache() {
+        return stringCache;
+    }
+
+    /**
+     * Set the pool connections lease their outbound buffers, and in NIO mode their read buffers, from. Pass a pool with leak
+     * detection on to find buffers that are never returned. Must be set before the server is opened.
+     * @param bufferPool The pool to lease buffers from.
+     */
+    public void setBufferPool(@NotNull BufferPool bufferPool) {
+        if(isListening)
+            throw new IllegalStateException("The buffer pool can't change once the server is listening!");
+
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * @return The pool connections lease their outbound buffers, and in NIO mode their read buffers, from.
+     */
+    @NotNull
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Begin listening for new connections to the server. In BLOCKING mode, each connection is
+     * given its own thread to run on for incoming data. In NIO mode, connections are spread
+     * across the I/O threads.
      */
     public void open() {
         if(isListening)
             return;
 
+        if(requestRegistry != null && !requestRegistry.getConnectionDriver().isAssignableFrom(connectionDriver))
+            throw new IllegalStateException("The request registry handles " + requestRegistry.getConnectionDriver()
+                    .getSimpleName() + ", not the connection driver " + connectionDriver.getSimpleName() + "!");
+
+        if(transportMode == TransportMode.NIO) {
+            eventLoops = new NioEventLoop[ioThreads];
+            nextEventLoop = 0;
+            try {
+                for(int i=0; i<ioThreads; i++) {
+                    eventLoops[i] = new NioEventLoop("Riggle I/O #" + i);
+                    eventLoops[i].start();
+                }
+            } catch(IOException e) {
+                SERVER.error("Failed to create I/O threads: {}", e.getMessage());
+                closeEventLoops();
+                return;
+            }
+        } else if(!connectionExecutor.isVirtual()) {
+            writerPool = new WriterPool(writerThreads, writeTimeoutNanos);
+            writerPool.start();
+        }
+
+        if(idleTimeoutNanos > 0) {
+            idleTimer = new IdleTimer(idleTimeoutNanos);
+            idleTimer.start();
+        }
+        exposeMetrics();
+
         isListening = true;
         connectionListener = new Thread(() -> {
             while(isListening) {
                 try {
-                    Socket connection = serverSocket.accept();
-                    System.out.println("Connected [CLIENT/SERVER]: " + Tools.formatSocket(connection));
+                    SocketChannel channel = serverSocket.accept();
+                    if(eventLoops != null)
+                        channel.configureBlocking(false);
+
+                    Socket connection = channel.socket();
+                    connection.setTcpNoDelay(tcpNoDelay);
+                    CONNECTIONS.info("Connected [CLIENT/SERVER]: {}", connection);
                     Constructor<? extends MultiplayerConnection> constructor = connectionDriver.getDeclaredConstructor(Socket.class);
                     constructor.setAccessible(true);
                     MultiplayerConnection conn = constructor.newInstance(connection);
@@ -87,11 +701,17 @@ public class MultiplayerServer {
                     rwLockConnections.writeLock().lock();
                     connections.add(conn);
                     rwLockConnections.writeLock().unlock();
-                    conn.open();
+                    conn.setServer(this);
+
+                    if(eventLoops != null) {
+                        conn.open(eventLoops[nextEventLoop]);
+                        nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+                    } else
+                        conn.open(connectionExecutor);
                 } catch(IOException e) {
-                    System.out.println("Failed to accept connection: " + e.getMessage());
+                    CONNECTIONS.warn("Failed to accept connection: {}", e.getMessage());
                 } catch(NoSuchMethodException | IllegalAccessException | InstantiationException | InvocationTargetException e) {
-                    System.out.println("Failed to create connection from driver: " + e.getMessage());
+                    CONNECTIONS.error("Failed to create connection from driver: {}", e.getMessage());
                     e.printStackTrace();
                 }
             }
@@ -105,36 +725,157 @@ public class MultiplayerServer {
         STOPPED // Not taking any further requests
     }
 
+    /**
+     * Set the number of threads requests are processed on. Each connection is pinned to one shard by its affinity
+     * (see MultiplayerConnection#getAffinity()), so requests for unrelated rooms run in parallel while state
+     * inside one room stays single-threaded. Must be set before the server is opened.
+     * @param processingShards The number of processing threads. Must be at least 1. (defaults to 1)
+     */
+    public void setProcessingShards(int processingShards) {
+        if(processingShards < 1)
+            throw new IllegalArgumentException("At least one processing shard is required!");
+        if(isListening || processingStatus != null)
+            throw new IllegalStateException("Processing shards can't change once the server is running!");
+
+        ProcessingShard[] shards = new ProcessingShard[processingShards];
+        for(int i=0; i<processingShards; i++)
+            shards[i] = new ProcessingShard(this, i);
+        this.shards = shards;
+    }
+
+    /**
+     * @return The number of threads requests are processed on.
+     */
+    public int getProcessingShards() {
+        return shards.length;
+    }
+
     /**
      * Begin processing requests from all connections. All pending requests are processed on each connection
-     * before moving on to the next. Thus, data handled from processed requests is Thread-safe between connections.
+     * before moving on to the next. Thus, data handled from processed requests is Thread-safe between connections
+     * on the same processing shard. Only connections with queued requests are visited. Shards sleep while there
+     * is nothing to do.
      */
     public void startProcessingRequests() {
+        startProcessing(0);
+    }
+
+    /**
+     * Begin processing requests from all connections at a fixed rate. Each tick, tick listeners run first and then
+     * ready connections are processed until none are left or the tick budget runs out. Connections that did not
+     * fit in the budget are processed first next tick. Processing is Thread-safe between connections on the same
+     * processing shard, just like startProcessingRequests(). Every shard ticks independently.
+     * @param tickRate The number of ticks per second. (ex. 20, 30, 60)
+     */
+    public void startProcessingRequests(int tickRate) {
+        if(tickRate < 1)
+            throw new IllegalArgumentException("Tick rate must be at least 1!");
+
+        startProcessing(tickRate);
+    }
+
+    private void startProcessing(int tickRate) {
+        long period = tickRate == 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / tickRate;
+        long budget = tickBudgetNanos > 0 ? Math.min(tickBudgetNanos, period) : period * 3 / 4;
+
+        this.tickRate = tickRate;
         processingStatus = ProcessingStatus.RUNNING;
-        requestProcessor = new Thread(() -> {
-            while(processingStatus != ProcessingStatus.STOPPED) {
-                rwLockConnections.readLock().lock();
-                List<MultiplayerConnection> connections = new ArrayList<>(this.connections); // Avoids concurrent modification
-                rwLockConnections.readLock().unlock();
-
-                if(connections.isEmpty() && processingStatus == ProcessingStatus.STOPPING) {
-                    processingStatus = ProcessingStatus.STOPPED;
-                    return;
-                }
+        for(ProcessingShard shard : shards)
+            shard.start(tickRate, budget);
+    }
 
-                connections.forEach((connection) -> {
-                    connection.processRequests();
+    /**
+     * Find the shard that owns everything with the passed affinity.
+     * @param affinity The affinity. (ex. a room or a connection)
+     * @return The owning shard.
+     */
+    @NotNull
+    ProcessingShard getShard(@NotNull Object affinity) {
+        ProcessingShard[] shards = this.shards;
+        if(shards.length == 1)
+            return shards[0];
 
-                    Boolean status = connection.isClosed();
-                    if(status != null && status) {
-                        rwLockConnections.writeLock().lock();
-                        this.connections.remove(connection);
-                        rwLockConnections.writeLock().unlock();
-                    }
-                });
-            }
-        });
-        requestProcessor.start();
+        int hash = affinity.hashCode();
+        hash ^= hash >>> 16; // Spread higher bits down before picking a shard
+        return shards[Math.floorMod(hash, shards.length)];
+    }
+
+    boolean isProcessingStopped() {
+        return processingStatus == ProcessingStatus.STOPPED;
+    }
+
+    boolean isProcessingStopping() {
+        return processingStatus == ProcessingStatus.STOPPING;
+    }
+
+    void removeConnection(@NotNull MultiplayerConnection connection) {
+        rwLockConnections.writeLock().lock();
+        connections.remove(connection);
+        boolean isEmpty = connections.isEmpty();
+        rwLockConnections.writeLock().unlock();
+
+        if(isEmpty && processingStatus == ProcessingStatus.STOPPING) {
+            for(ProcessingShard shard : shards)
+                shard.wake(); // Shards waiting on the last connection to close can stop now
+        }
+    }
+
+    /**
+     * Set how much of each tick may be spent processing requests when processing at a fixed rate. Takes effect the
+     * next time processing is started.
+     * @param budget The budget. Values of 0 or less (the default) use 75% of the tick period.
+     * @param unit The unit of the budget.
+     */
+    public void setTickBudget(long budget, @NotNull TimeUnit unit) {
+        this.tickBudgetNanos = unit.toNanos(budget);
+    }
+
+    /**
+     * @return The number of ticks per second requests are processed at or 0 if processing is event-driven.
+     */
+    public int getTickRate() {
+        return tickRate;
+    }
+
+    /**
+     * @return Timing information about fixed-rate processing. Useful to tell if the server is falling behind.
+     */
+    @NotNull
+    public TickStatistics getTickStatistics() {
+        return tickStatistics;
+    }
+
+    /**
+     * Run a listener at the start of every tick on the first processing shard when processing at a fixed rate.
+     * @param listener The listener to add.
+     */
+    public void addTickListener(@NotNull TickListener listener) {
+        shards[0].addTickListener(listener);
+    }
+
+    /**
+     * Run a listener at the start of every tick when processing at a fixed rate. The listener runs on the shard
+     * that owns the affinity, so it is Thread-safe with requests from connections sharing that affinity.
+     * @param affinity The affinity to tick with. (ex. an in-game room)
+     * @param listener The listener to add.
+     */
+    public void addTickListener(@NotNull Object affinity, @NotNull TickListener listener) {
+        getShard(affinity).addTickListener(listener);
+    }
+
+    /**
+     * @param listener The listener to stop running every tick.
+     */
+    public void removeTickListener(@NotNull TickListener listener) {
+        for(ProcessingShard shard : shards)
+            shard.removeTickListener(listener);
+    }
+
+    boolean hasNoConnections() {
+        rwLockConnections.readLock().lock();
+        boolean toRet = connections.isEmpty();
+        rwLockConnections.readLock().unlock();
+        return toRet;
     }
 
     /**
@@ -149,10 +890,13 @@ public class MultiplayerServer {
     private void stopProcessingRequests(ProcessingStatus status) {
         processingStatus = status;
         try {
-            requestProcessor.join();
-            requestProcessor = null;
+            for(ProcessingShard shard : shards) {
+                shard.wake();
+                shard.join();
+            }
+            processingStatus = ProcessingStatus.STOPPED;
         } catch(InterruptedException e) {
-            System.out.println("Got interrupted while stopping request processing: " + e.getMessage());
+            SERVER.warn("Got interrupted while stopping request processing: {}", e.getMessage());
         }
     }
 
@@ -167,10 +911,78 @@ public class MultiplayerServer {
             connectionListener.join();
             connectionListener = null;
         } catch(InterruptedException | IOException e) {
-            System.out.println("Got interrupted while stopping incoming connections: " + e.getMessage());
+            SERVER.warn("Got interrupted while stopping incoming connections: {}", e.getMessage());
         }
 
         new ArrayList<>(connections).forEach(MultiplayerConnection::close); // Avoids concurrent modification
+        closeEventLoops();
+        if(writerPool != null) {
+            writerPool.close();
+            writerPool = null;
+        }
+        if(idleTimer != null) {
+            idleTimer.close();
+            idleTimer = null;
+        }
+        hideMetrics();
         stopProcessingRequests(ProcessingStatus.STOPPING);
+
+        if(bufferPool.isDetectingLeaks() && processingStatus == ProcessingStatus.STOPPED) {
+            int leaks = bufferPool.reportLeaks();
+            if(leaks > 0)
+                SERVER.warn("Found {} leaked buffers after closing", leaks);
+        }
+        Log.flush(); // Disconnects and leaks logged above are written before close() returns
+    }
+
+    /**
+     * Register metrics with JMX and, if a metrics port is set, start serving them as plain text. A failure to do
+     * either is reported and the server opens anyway.
+     */
+    private void exposeMetrics() {
+        try {
+            metricsName = new ObjectName("com.knoban.multiplayer:type=MultiplayerServer,port=" + port);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, metricsName);
+        } catch(JMException e) {
+            SERVER.warn("Failed to register metrics with JMX: {}", e.getMessage());
+            metricsName = null;
+        }
+
+        if(metricsPort == 0)
+            return;
+
+        try {
+            metricsEndpoint = new MetricsEndpoint(metrics, metricsPort);
+            metricsEndpoint.start();
+        } catch(IOException e) {
+            SERVER.warn("Failed to serve metrics on port {}: {}", metricsPort, e.getMessage());
+        }
+    }
+
+    private void hideMetrics() {
+        if(metricsEndpoint != null) {
+            metricsEndpoint.close();
+            metricsEndpoint = null;
+        }
+
+        if(metricsName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+            } catch(JMException e) {
+                SERVER.warn("Failed to unregister metrics from JMX: {}", e.getMessage());
+            }
+            metricsName = null;
+        }
+    }
+
+    private void closeEventLoops() {
+        if(eventLoops == null)
+            return;
+
+        for(NioEventLoop eventLoop : eventLoops) {
+            if(eventLoop != null)
+                eventLoop.close();
+        }
+        eventLoops = null;
     }
 }
@@ -0,0 +1,256 @@
+package com.knoban.multiplayer.server;
+
+import com.knoban.multiplayer.logging.Log;
+import com.knoban.multiplayer.logging.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single selector thread that services reads and writes for many non-blocking MultiplayerConnections. Decoded
+ * requests are handed to the connection's request queue exactly like the blocking reader thread does.
+ * @author Alden Bansemer (kNoAPP)
+ */
+class NioEventLoop {
+
+    private static final Logger CONNECTIONS = Log.getLogger("connections");
+
+    private final String name;
+    private final Selector selector;
+    private Thread thread;
+    private volatile boolean isRunning;
+
+    private final Queue<MultiplayerConnection> pendingRegistrations = new ConcurrentLinkedQueue<>();
+    private final Queue<MultiplayerConnection> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final Queue<MultiplayerConnection> pendingResumes = new ConcurrentLinkedQueue<>();
+    private final Queue<MultiplayerConnection> pendingReleases = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<DelayedResume> delayedResumes = new PriorityQueue<>(); // Loop thread only
+
+    /**
+     * Create a new event loop. Call start() to begin servicing connections.
+     * @param name The name of the loop's thread.
+     * @throws IOException If the selector cannot be opened.
+     */
+    NioEventLoop(@NotNull String name) throws IOException {
+        this.name = name;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Start the loop's thread.
+     */
+    void start() {
+        if(isRunning)
+            return;
+
+        isRunning = true;
+        thread = new Thread(this::run, name);
+        thread.start();
+    }
+
+    /**
+     * Hand a connection to this loop. The connection's channel must already be in non-blocking mode. Registration
+     * happens on the loop's thread on its next wakeup.
+     * @param connection The connection to register.
+     */
+    void register(@NotNull MultiplayerConnection connection) {
+        pendingRegistrations.offer(connection);
+        selector.wakeup();
+    }
+
+    /**
+     * Let the loop know the connection has queued outbound data. Safe to call from any thread.
+     * @param connection The connection with data to write.
+     */
+    void requestWrite(@NotNull MultiplayerConnection connection) {
+        pendingWrites.offer(connection);
+        selector.wakeup();
+    }
+
+    /**
+     * Resume reading from a connection that paused because its request queue was full. Safe to call from any
+     * thread.
+     * @param connection The connection to resume.
+     */
+    void resumeReads(@NotNull MultiplayerConnection connection) {
+        pendingResumes.offer(connection);
+        selector.wakeup();
+    }
+
+    /**
+     * Resume reading from a connection after a delay, like when a rate limit holds back its next request. Only
+     * called from the loop's thread.
+     * @param connection The connection to resume.
+     * @param delayNanos How long to wait before resuming.
+     */
+    void resumeReadsAfter(@NotNull MultiplayerConnection connection, long delayNanos) {
+        delayedResumes.offer(new DelayedResume(System.nanoTime() + delayNanos, connection));
+    }
+
+    /**
+     * Return a closed connection's buffers to the pool once the loop is done with them. Safe to call from any
+     * thread.
+     * @param connection The closed connection.
+     */
+    void release(@NotNull MultiplayerConnection connection) {
+        pendingReleases.offer(connection);
+        selector.wakeup();
+    }
+
+    private void run() {
+        while(isRunning) {
+            try {
+                DelayedResume next = delayedResumes.peek();
+                if(next == null)
+                    selector.select();
+                else
+                    selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(next.deadline - System.nanoTime() + 999999)));
+            } catch(IOException e) {
+                CONNECTIONS.error("Event loop failed to select: {}", e.getMessage());
+                continue;
+            }
+
+            MultiplayerConnection connection;
+            while((connection = pendingRegistrations.poll()) != null) {
+                SocketChannel channel = connection.connection.getChannel();
+                try {
+                    channel.register(selector, SelectionKey.OP_READ, connection);
+                } catch(IOException e) {
+                    CONNECTIONS.warn("Failed to register connection: {}", e.getMessage());
+                    connection.close();
+                }
+            }
+
+            while((connection = pendingWrites.poll()) != null) {
+                SelectionKey key = connection.connection.getChannel().keyFor(selector);
+                if(key == null || !key.isValid())
+                    continue;
+
+                writeReady(key, connection);
+            }
+
+            while((connection = pendingResumes.poll()) != null)
+                resume(connection);
+
+            long now = System.nanoTime();
+            while(!delayedResumes.isEmpty() && delayedResumes.peek().deadline - now <= 0)
+                resume(delayedResumes.poll().connection);
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while(keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+
+                connection = (MultiplayerConnection) key.attachment();
+                try {
+                    if(key.isReadable() && !connection.readNonBlocking())
+                        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+
+                    if(key.isValid() && key.isWritable())
+                        writeReady(key, connection);
+                } catch(CancelledKeyException e) {
+                    // Connection was closed by another thread while being serviced.
+                } catch(RuntimeException e) {
+                    fail(connection, e);
+                }
+            }
+
+            releaseClosed();
+        }
+
+        releaseClosed();
+        try {
+            selector.close();
+        } catch(IOException e) {
+            CONNECTIONS.warn("Failed to close event loop: {}", e.getMessage());
+        }
+    }
+
+    private void resume(@NotNull MultiplayerConnection connection) {
+        SelectionKey key = connection.connection.getChannel().keyFor(selector);
+        if(key == null || !key.isValid())
+            return;
+
+        try {
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            if(!connection.decodeInbound()) // Decode what was already buffered while paused
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        } catch(CancelledKeyException e) {
+            // Connection was closed by another thread while being serviced.
+        } catch(RuntimeException e) {
+            fail(connection, e);
+        }
+    }
+
+    /**
+     * Close a connection that failed in a way it didn't handle itself, so it can't take the loop down with it.
+     * @param connection The connection that failed.
+     * @param e What went wrong.
+     */
+    private void fail(@NotNull MultiplayerConnection connection, @NotNull RuntimeException e) {
+        CONNECTIONS.error("Closing connection {} after it failed: {}", connection.connection, e);
+        connection.close();
+    }
+
+    private void releaseClosed() {
+        MultiplayerConnection connection;
+        while((connection = pendingReleases.poll()) != null)
+            connection.releaseBuffers();
+    }
+
+    private void writeReady(@NotNull SelectionKey key, @NotNull MultiplayerConnection connection) {
+        try {
+            if(connection.writeNonBlocking())
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            else
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        } catch(IOException e) {
+            CONNECTIONS.warn("Failed to write to connection: {}", e.getMessage());
+            connection.close();
+        } catch(CancelledKeyException e) {
+            // Connection was closed by another thread while being serviced.
+        } catch(RuntimeException e) {
+            fail(connection, e);
+        }
+    }
+
+    /**
+     * Stop the loop. Connections registered with it are not closed by this call.
+     */
+    void close() {
+        isRunning = false;
+        selector.wakeup();
+        try {
+            if(thread != null && thread != Thread.currentThread())
+                thread.join();
+            thread = null;
+        } catch(InterruptedException e) {
+            CONNECTIONS.warn("Got interrupted while stopping event loop: {}", e.getMessage());
+        }
+    }
+
+    private static final class DelayedResume implements Comparable<DelayedResume> {
+
+        private final long deadline;
+        private final MultiplayerConnection connection;
+
+        private DelayedResume(long deadline, @NotNull MultiplayerConnection connection) {
+            this.deadline = deadline;
+            this.connection = connection;
+        }
+
+        @Override
+        public int compareTo(@NotNull DelayedResume o) {
+            return Long.compare(deadline - o.deadline, 0);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.knoban.multiplayer.server;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One request processing thread of a MultiplayerServer. Every connection belongs to exactly one shard at a time,
+ * chosen by the connection's affinity. Anything that only ever gets touched by connections with the same affinity
+ * is Thread-safe without locking.
+ * @author Alden Bansemer (kNoAPP)
+ */
+class ProcessingShard {
+
+    private final MultiplayerServer server;
+    private final int index;
+
+    private volatile Thread thread;
+    private volatile int tickRate; // 0 when processing is event-driven
+    private final Queue<MultiplayerConnection> readyConnections = new ConcurrentLinkedQueue<>();
+    private final List<TickListener> tickListeners = new CopyOnWriteArrayList<>();
+
+    ProcessingShard(@NotNull MultiplayerServer server, int index) {
+        this.server = server;
+        this.index = index;
+    }
+
+    /**
+     * @return The position of this shard in the server.
+     */
+    int getIndex() {
+        return index;
+    }
+
+    /**
+     * Start processing requests on this shard's own thread.
+     * @param tickRate The number of ticks per second or 0 to process requests as soon as they arrive.
+     * @param tickBudgetNanos How much of each tick may be spent processing requests.
+     */
+    void start(int tickRate, long tickBudgetNanos) {
+        this.tickRate = tickRate;
+        String name = "Riggle Request Processor #" + index;
+        if(tickRate == 0)
+            thread = new Thread(this::runEventDriven, name);
+        else
+            thread = new Thread(() -> runFixedRate(TimeUnit.SECONDS.toNanos(1) / tickRate, tickBudgetNanos), name);
+        thread.start();
+    }
+
+    /**
+     * Wake the shard so it notices a change in the server's processing status.
+     */
+    void wake() {
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Wait for the shard's thread to finish.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    void join() throws InterruptedException {
+        Thread thread = this.thread;
+        if(thread != null)
+            thread.join();
+        this.thread = null;
+    }
+
+    private void runEventDriven() {
+        while(!server.isProcessingStopped()) {
+            MultiplayerConnection connection = readyConnections.poll();
+            if(connection == null) {
+                if(server.isProcessingStopping() && server.hasNoConnections())
+                    return;
+
+                LockSupport.park(this); // Woken by schedule() or a status change
+                continue;
+            }
+
+            process(connection, 0);
+        }
+    }
+
+    private void runFixedRate(long period, long budget) {
+        TickStatistics tickStatistics = server.getTickStatistics();
+        long tick = 0;
+        long nextTick = System.nanoTime();
+        while(!server.isProcessingStopped()) {
+            long start = System.nanoTime();
+            ++tick;
+            for(TickListener listener : tickListeners)
+                listener.onTick(tick);
+
+            long deadline = start + budget;
+            boolean isDeferred = false; // The budget ran out with connections still waiting
+            MultiplayerConnection connection;
+            while((connection = readyConnections.poll()) != null) {
+                process(connection, deadline);
+                if(System.nanoTime() - deadline >= 0) {
+                    isDeferred = !readyConnections.isEmpty();
+                    break;
+                }
+            }
+
+            if(server.isProcessingStopping() && readyConnections.isEmpty() && server.hasNoConnections())
+                return;
+
+            long end = System.nanoTime();
+            tickStatistics.record(end - start, end - start > period, isDeferred);
+
+            nextTick += period;
+            long behind = end - nextTick;
+            if(behind >= period) {
+                // More than a full tick behind. Drop the missed ticks rather than running them back to back.
+                tickStatistics.recordSkipped(behind / period);
+                nextTick += behind / period * period;
+            }
+
+            long remaining;
+            while((remaining = nextTick - System.nanoTime()) > 0 && !server.isProcessingStopped())
+                LockSupport.parkNanos(this, remaining);
+        }
+    }
+
+    /**
+     * Process a connection's queued requests. If the connection handed itself off to another shard along the way,
+     * it is passed along still scheduled. Otherwise, it is dropped from the server if it has closed, or scheduled
+     * again if it has requests left.
+     * @param connection The connection to process.
+     * @param deadline When the tick's budget runs out (in System.nanoTime()) or 0 when processing is event-driven.
+     */
+    private void process(@NotNull MultiplayerConnection connection, long deadline) {
+        long start = System.nanoTime();
+        if(tickRate == 0)
+            connection.processRequests();
+        else
+            connection.processRequests(deadline);
+        server.getMetrics().recordProcessingPass(System.nanoTime() - start);
+
+        ProcessingShard handOff = connection.takeHandOff();
+        if(handOff != null) {
+            connection.setShard(handOff);
+            handOff.schedule(connection);
+            return;
+        }
+
+        connection.finishProcessing();
+        Boolean status = connection.isClosed();
+        if(status != null && status && !connection.hasQueuedRequests())
+            server.removeConnection(connection);
+    }
+
+    /**
+     * Add a connection with queued requests to the ready queue. When processing is event-driven, this also wakes
+     * the shard. Fixed-rate processing picks the connection up on the next tick.
+     * @param connection The connection with work to do.
+     */
+    void schedule(@NotNull MultiplayerConnection connection) {
+        readyConnections.offer(connection);
+        if(tickRate == 0)
+            LockSupport.unpark(thread);
+    }
+
+    /**
+     * @param listener The listener to run at the start of every tick on this shard.
+     */
+    void addTickListener(@NotNull TickListener listener) {
+        tickListeners.add(listener);
+    }
+
+    /**
+     * @param listener The listener to stop running every tick.
+     */
+    void removeTickListener(@NotNull TickListener listener) {
+        tickListeners.remove(listener);
+    }
+}
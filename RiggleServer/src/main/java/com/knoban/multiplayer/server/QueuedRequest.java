@@ -0,0 +1,27 @@
+package com.knoban.multiplayer.server;
+
+import com.knoban.multiplayer.requests.RequestFulfillment;
+import com.knoban.multiplayer.utils.Pair;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A request read from the client, stamped with when it was queued so its wait for a processing shard can be
+ * measured. Requests the connection makes up itself (ex. DISCONNECT) are queued as plain pairs.
+ * @author Alden Bansemer (kNoAPP)
+ */
+class QueuedRequest extends Pair<Short, RequestFulfillment> {
+
+    private final long queuedAt;
+
+    QueuedRequest(short requestCode, @Nullable RequestFulfillment data, long queuedAt) {
+        super(requestCode, data);
+        this.queuedAt = queuedAt;
+    }
+
+    /**
+     * @return When the request was queued. (in System.nanoTime())
+     */
+    long getQueuedAt() {
+        return queuedAt;
+    }
+}
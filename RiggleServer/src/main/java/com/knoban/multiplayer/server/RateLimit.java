@@ -0,0 +1,51 @@
+package com.knoban.multiplayer.server;
+
+import com.knoban.multiplayer.utils.TokenBucket;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * How many requests a connection may send. Requests beyond the burst are held to the steady rate. Each connection
+ * gets its own token bucket from this.
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class RateLimit {
+
+    private final double requestsPerSecond;
+    private final int burst;
+
+    /**
+     * @param requestsPerSecond The steady rate requests are allowed at.
+     * @param burst How many requests may arrive at once after being idle.
+     */
+    public RateLimit(double requestsPerSecond, int burst) {
+        if(requestsPerSecond <= 0 || burst < 1)
+            throw new IllegalArgumentException("Rate limits need a positive rate and burst!");
+
+        this.requestsPerSecond = requestsPerSecond;
+        this.burst = burst;
+    }
+
+    /**
+     * @return The steady rate requests are allowed at.
+     */
+    public double getRequestsPerSecond() {
+        return requestsPerSecond;
+    }
+
+    /**
+     * @return How many requests may arrive at once after being idle.
+     */
+    public int getBurst() {
+        return burst;
+    }
+
+    @NotNull
+    TokenBucket newBucket() {
+        return new TokenBucket(requestsPerSecond, burst);
+    }
+
+    @Override
+    public String toString() {
+        return requestsPerSecond + "/s, burst " + burst;
+    }
+}
@@ -0,0 +1,71 @@
+package com.knoban.multiplayer.server;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts requests held back by rate limits and what was done about them. Safe to use from any thread.
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class RateLimitStatistics {
+
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder delayed = new LongAdder();
+    private final LongAdder delayNanos = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+
+    RateLimitStatistics() {}
+
+    void recordDrop() {
+        dropped.increment();
+    }
+
+    void recordDelay(long nanos) {
+        delayed.increment();
+        delayNanos.add(nanos);
+    }
+
+    void recordDisconnect() {
+        disconnects.increment();
+    }
+
+    /**
+     * @return The number of requests dropped for going over a limit.
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return The number of requests held back until their limit allowed them.
+     */
+    public long getDelayed() {
+        return delayed.sum();
+    }
+
+    /**
+     * @return The total time requests were held back for, in nanoseconds.
+     */
+    public long getDelayNanos() {
+        return delayNanos.sum();
+    }
+
+    /**
+     * @return The number of connections closed for going over a limit.
+     */
+    public long getDisconnects() {
+        return disconnects.sum();
+    }
+
+    /**
+     * @return The number of requests that went over a limit, however they were handled.
+     */
+    public long getRejected() {
+        return getDropped() + getDelayed() + getDisconnects();
+    }
+
+    @Override
+    public String toString() {
+        return "dropped=" + getDropped() + ", delayed=" + getDelayed() + ", delayMs=" + getDelayNanos() / 1000000
+                + ", disconnects=" + getDisconnects();
+    }
+}
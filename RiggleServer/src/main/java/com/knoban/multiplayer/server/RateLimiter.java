@@ -0,0 +1,107 @@
+package com.knoban.multiplayer.server;
+
+import com.knoban.multiplayer.requests.GeneralRequestCode;
+import com.knoban.multiplayer.requests.RequestFulfillment;
+import com.knoban.multiplayer.requests.impl.BatchRequest;
+import com.knoban.multiplayer.utils.Pair;
+import com.knoban.multiplayer.utils.TokenBucket;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The token buckets of one connection: one for all of its requests and one per limited request code. Only touched
+ * by the connection's reader thread (or event loop).
+ * @author Alden Bansemer (kNoAPP)
+ */
+class RateLimiter {
+
+    private final Map<Short, RateLimit> requestLimits;
+    private final TokenBucket connectionBucket; // Null if only some request codes are limited
+    private final Map<Short, TokenBucket> requestBuckets = new HashMap<>();
+    private final List<TokenBucket> taken = new ArrayList<>(); // Scratch for rolling back a batch
+
+    /**
+     * @param connectionLimit The limit on all requests or null for none.
+     * @param requestLimits The limits on individual request codes.
+     */
+    RateLimiter(@Nullable RateLimit connectionLimit, @NotNull Map<Short, RateLimit> requestLimits) {
+        this.connectionBucket = connectionLimit == null ? null : connectionLimit.newBucket();
+        this.requestLimits = requestLimits;
+    }
+
+    /**
+     * Take the tokens a request needs if they are all available. A batch needs a token for every request in it.
+     * @param requestCode The request's code.
+     * @param data The request's data.
+     * @param now The current System.nanoTime().
+     * @return 0 if the request was admitted, otherwise how many nanoseconds until it might be. Long.MAX_VALUE if
+     * it never will be.
+     */
+    long tryAdmit(short requestCode, @Nullable RequestFulfillment data, long now) {
+        List<Pair<Short, RequestFulfillment>> batched = requestCode == GeneralRequestCode.BATCH && data != null
+                ? ((BatchRequest) data).getRequests() : null;
+
+        int cost = batched == null ? 1 : batched.size();
+        if(connectionBucket != null && !connectionBucket.tryTake(cost, now))
+            return connectionBucket.nanosUntil(cost, now);
+
+        long wait = 0;
+        if(batched == null) {
+            TokenBucket bucket = getBucket(requestCode);
+            if(bucket != null && !bucket.tryTake(1, now))
+                wait = bucket.nanosUntil(1, now);
+        } else {
+            for(Pair<Short, RequestFulfillment> request : batched) {
+                TokenBucket bucket = getBucket(request.getKey());
+                if(bucket == null)
+                    continue;
+
+                if(!bucket.tryTake(1, now)) {
+                    wait = bucket.nanosUntil(1, now);
+                    if(wait != Long.MAX_VALUE && bucket.getCapacity() < countOf(batched, request.getKey()))
+                        wait = Long.MAX_VALUE; // More of this code than the bucket can ever hold
+                    break;
+                }
+                taken.add(bucket);
+            }
+
+            if(wait != 0) {
+                for(TokenBucket bucket : taken)
+                    bucket.giveBack(1);
+            }
+            taken.clear();
+        }
+
+        if(wait != 0 && connectionBucket != null)
+            connectionBucket.giveBack(cost);
+        return wait;
+    }
+
+    @Nullable
+    private TokenBucket getBucket(short requestCode) {
+        TokenBucket toRet = requestBuckets.get(requestCode);
+        if(toRet == null) {
+            RateLimit limit = requestLimits.get(requestCode);
+            if(limit == null)
+                return null;
+
+            toRet = limit.newBucket();
+            requestBuckets.put(requestCode, toRet);
+        }
+        return toRet;
+    }
+
+    private static int countOf(@NotNull List<Pair<Short, RequestFulfillment>> requests, short requestCode) {
+        int toRet = 0;
+        for(Pair<Short, RequestFulfillment> request : requests) {
+            if(request.getKey() == requestCode)
+                ++toRet;
+        }
+        return toRet;
+    }
+}
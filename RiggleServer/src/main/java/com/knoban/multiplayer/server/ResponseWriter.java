@@ -0,0 +1,21 @@
+package com.knoban.multiplayer.server;
+
+import com.knoban.multiplayer.streams.CSOutputStream;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * Implement this interface to write the data of a response that goes to more than one connection. (see Broadcast)
+ * @author Alden Bansemer (kNoAPP)
+ */
+public interface ResponseWriter {
+
+    /**
+     * Write the response's data, not its header. May be called more than once, once for every protocol version
+     * the recipients speak, so write the same data every time.
+     * @param out The stream to write to.
+     * @throws IOException If the data could not be written.
+     */
+    void write(@NotNull CSOutputStream out) throws IOException;
+}
@@ -0,0 +1,15 @@
+package com.knoban.multiplayer.server;
+
+/**
+ * Implement this interface to run logic at the start of every server tick. Ticks run on the request processing
+ * thread, so listeners are Thread-safe with request handling.
+ * @author Alden Bansemer (kNoAPP)
+ */
+public interface TickListener {
+
+    /**
+     * Called at the start of every tick, before any requests are processed.
+     * @param tick The number of the tick, starting at 1.
+     */
+    void onTick(long tick);
+}
@@ -0,0 +1,103 @@
+package com.knoban.multiplayer.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timing information about a MultiplayerServer's fixed-rate request processing. Every processing shard records
+ * into the same statistics, so values cover the whole server. May be read from anywhere.
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class TickStatistics {
+
+    private final AtomicLong ticks = new AtomicLong();
+    private volatile long lastTickNanos;
+    private final AtomicLong maxTickNanos = new AtomicLong();
+    private final AtomicLong totalTickNanos = new AtomicLong();
+    private final AtomicLong overruns = new AtomicLong();
+    private final AtomicLong skippedTicks = new AtomicLong();
+    private final AtomicLong deferredTicks = new AtomicLong();
+
+    TickStatistics() {}
+
+    /**
+     * Record a finished tick.
+     * @param duration How long the tick took in nanoseconds.
+     * @param overrun True, if the tick took longer than the tick period.
+     * @param deferred True, if requests were left for the next tick because the budget ran out.
+     */
+    void record(long duration, boolean overrun, boolean deferred) {
+        ticks.incrementAndGet();
+        lastTickNanos = duration;
+        totalTickNanos.addAndGet(duration);
+        maxTickNanos.accumulateAndGet(duration, Math::max);
+        if(overrun)
+            overruns.incrementAndGet();
+        if(deferred)
+            deferredTicks.incrementAndGet();
+    }
+
+    /**
+     * Record ticks that were dropped to catch back up to the schedule.
+     * @param skipped The number of ticks dropped.
+     */
+    void recordSkipped(long skipped) {
+        skippedTicks.addAndGet(skipped);
+    }
+
+    /**
+     * @return The number of ticks run across all shards.
+     */
+    public long getTicks() {
+        return ticks.get();
+    }
+
+    /**
+     * @return How long the last tick took in nanoseconds.
+     */
+    public long getLastTickNanos() {
+        return lastTickNanos;
+    }
+
+    /**
+     * @return How long the longest tick took in nanoseconds.
+     */
+    public long getMaxTickNanos() {
+        return maxTickNanos.get();
+    }
+
+    /**
+     * @return The average time a tick took in nanoseconds.
+     */
+    public long getAverageTickNanos() {
+        long ticks = this.ticks.get();
+        return ticks == 0 ? 0 : totalTickNanos.get() / ticks;
+    }
+
+    /**
+     * @return The number of ticks that took longer than the tick period.
+     */
+    public long getOverruns() {
+        return overruns.get();
+    }
+
+    /**
+     * @return The number of ticks dropped because the server fell more than a full tick behind.
+     */
+    public long getSkippedTicks() {
+        return skippedTicks.get();
+    }
+
+    /**
+     * @return The number of ticks that ran out of budget and deferred requests to the next tick.
+     */
+    public long getDeferredTicks() {
+        return deferredTicks.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ticks=" + getTicks() + ", last=" + lastTickNanos + "ns, avg=" + getAverageTickNanos() + "ns, max="
+                + getMaxTickNanos() + "ns, overruns=" + getOverruns() + ", skipped=" + getSkippedTicks()
+                + ", deferred=" + getDeferredTicks();
+    }
+}
@@ -0,0 +1,31 @@
+package com.knoban.multiplayer.server;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Virtual thread support for runtimes older than Java 21. Java 21+ loads the version of this class found under
+ * META-INF/versions/21 instead.
+ * @author Alden Bansemer (kNoAPP)
+ */
+class VirtualThreads {
+
+    private VirtualThreads() {}
+
+    /**
+     * @return True, if this runtime supports virtual threads.
+     */
+    static boolean isSupported() {
+        return false;
+    }
+
+    /**
+     * Start running a task on a new virtual thread.
+     * @param name The name to give the thread.
+     * @param task The task to run.
+     * @return The started thread.
+     */
+    @NotNull
+    static Thread start(@NotNull String name, @NotNull Runnable task) {
+        throw new UnsupportedOperationException("Virtual threads require Java 21 or newer!");
+    }
+}
@@ -0,0 +1,141 @@
+package com.knoban.multiplayer.server;
+
+import com.knoban.multiplayer.logging.Log;
+import com.knoban.multiplayer.logging.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A few platform threads that write for every blocking connection, instead of a writer thread per connection.
+ * Connections with queued bytes wait in one ready queue. Each turn writes a few slices and then goes to the back of
+ * the line, so one big response can't starve the rest.
+ * <br><br>
+ * Blocking writes can't be abandoned, so every slice has a deadline. A watchdog closes connections whose write
+ * makes no progress for the write timeout, which fails the write and frees its thread. Clients that stop reading
+ * can hold up a writer for at most that long, whatever the SlowConsumerPolicy.
+ * <br><br>
+ * Connections on virtual threads keep a writer of their own. It costs next to nothing there.
+ * @author Alden Bansemer (kNoAPP)
+ */
+class WriterPool {
+
+    private static final Logger CONNECTIONS = Log.getLogger("connections");
+
+    private static final long POLL_MILLIS = 100; // How long a closing pool takes to notice
+
+    private final Thread[] threads;
+    private final AtomicReferenceArray<MultiplayerConnection> writingTo; // Per thread, for the watchdog
+    private final long writeTimeoutNanos;
+    private final BlockingQueue<MultiplayerConnection> readyConnections = new LinkedBlockingQueue<>();
+    private Thread watchdog;
+    private volatile boolean isRunning;
+
+    /**
+     * Create a pool. Call start() to begin writing.
+     * @param threads The number of writer threads.
+     * @param writeTimeoutNanos How long a write may make no progress before its connection is closed.
+     */
+    WriterPool(int threads, long writeTimeoutNanos) {
+        if(threads < 1)
+            throw new IllegalArgumentException("At least one writer thread is required!");
+
+        if(writeTimeoutNanos <= 0)
+            throw new IllegalArgumentException("Write timeout must be positive!");
+
+        this.threads = new Thread[threads];
+        this.writingTo = new AtomicReferenceArray<>(threads);
+        this.writeTimeoutNanos = writeTimeoutNanos;
+    }
+
+    /**
+     * Start the pool's threads and the watchdog.
+     */
+    void start() {
+        if(isRunning)
+            return;
+
+        isRunning = true;
+        for(int i=0; i<threads.length; i++) {
+            int slot = i;
+            threads[i] = new Thread(() -> run(slot), "Riggle Writer #" + i);
+            threads[i].start();
+        }
+
+        watchdog = new Thread(this::watch, "Riggle Write Watchdog");
+        watchdog.setDaemon(true);
+        watchdog.start();
+    }
+
+    /**
+     * Let the pool know the connection has queued bytes, or closed and has buffers to return. Safe to call from
+     * any thread. The connection makes sure it's only waiting here once.
+     * @param connection The connection to write for.
+     */
+    void schedule(@NotNull MultiplayerConnection connection) {
+        readyConnections.offer(connection);
+    }
+
+    private void run(int slot) {
+        try {
+            while(isRunning) {
+                MultiplayerConnection connection = readyConnections.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if(connection == null)
+                    continue;
+
+                writingTo.set(slot, connection);
+                connection.writePooled();
+                writingTo.set(slot, null);
+            }
+        } catch(InterruptedException e) {
+            CONNECTIONS.warn("Writer thread got interrupted: {}", e.getMessage());
+        }
+
+        MultiplayerConnection connection;
+        while((connection = readyConnections.poll()) != null)
+            connection.writePooled(); // Closed connections still hand back their buffers
+    }
+
+    /**
+     * Runs on the watchdog. Checks a few times per timeout, so a stalled write is closed within a quarter timeout
+     * of its deadline.
+     */
+    private void watch() {
+        while(isRunning) {
+            LockSupport.parkNanos(this, writeTimeoutNanos / 4);
+            long now = System.nanoTime();
+            for(int i=0; i<writingTo.length(); i++) {
+                MultiplayerConnection connection = writingTo.get(i);
+                if(connection != null && connection.isWriteStalled(now, writeTimeoutNanos)) {
+                    CONNECTIONS.warn("Disconnect [Stalled]: {}", connection.connection);
+                    connection.close(); // Fails the blocked write
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop the pool once the connections already waiting are done. Close connections first, so writes that are
+     * stuck on clients that stopped reading fail instead of holding this up.
+     */
+    void close() {
+        isRunning = false;
+        LockSupport.unpark(watchdog);
+        try {
+            for(int i=0; i<threads.length; i++) {
+                if(threads[i] != null)
+                    threads[i].join();
+                threads[i] = null;
+            }
+            if(watchdog != null)
+                watchdog.join();
+            watchdog = null;
+        } catch(InterruptedException e) {
+            CONNECTIONS.warn("Got interrupted while stopping the writer threads: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.knoban.multiplayer.streams;
+
+import com.knoban.multiplayer.logging.Log;
+import com.knoban.multiplayer.logging.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of direct ByteBuffers for network I/O, grouped into power of two size classes. Buffers are leased for a
+ * read or an outbound frame and released once it's done, so thousands of connections reuse the same handful of
+ * buffers rather than allocating per message. Safe to use from any thread.
+ * <br><br>
+ * With leak detection on, every lease remembers where it was taken. Releasing a buffer twice, or one that was
+ * never leased, throws. reportLeaks() logs every buffer that is still out.
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class BufferPool {
+
+    private static final Logger BUFFERS = Log.getLogger("buffers");
+
+    public static final int MIN_BUFFER_SIZE = 1 << 10;
+    public static final int MAX_BUFFER_SIZE = 1 << 20; // Larger leases are allocated and dropped, not pooled
+    private static final int DEFAULT_RETAINED_BYTES = 8 << 20;
+
+    private final ArrayBlockingQueue<ByteBuffer>[] classes;
+    private final Map<ByteBuffer, Throwable> leases; // Only when detecting leaks
+
+    private final LongAdder leased = new LongAdder();
+    private final LongAdder released = new LongAdder();
+    private final LongAdder allocated = new LongAdder();
+
+    /**
+     * Create a pool that keeps up to 8 MB of idle buffers per size class, without leak detection.
+     */
+    public BufferPool() {
+        this(DEFAULT_RETAINED_BYTES, false);
+    }
+
+    /**
+     * @param retainedBytes How many bytes of idle buffers to keep per size class. Every class keeps at least two.
+     * @param leakDetection True, to track every lease. Costs a stack trace per lease, so only use it to debug.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public BufferPool(int retainedBytes, boolean leakDetection) {
+        int count = Integer.numberOfTrailingZeros(MAX_BUFFER_SIZE) - Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE) + 1;
+        classes = new ArrayBlockingQueue[count];
+        for(int i=0; i<count; i++)
+            classes[i] = new ArrayBlockingQueue<>(Math.max(2, retainedBytes / (MIN_BUFFER_SIZE << i)));
+
+        leases = leakDetection ? Collections.synchronizedMap(new IdentityHashMap<>()) : null;
+    }
+
+    /**
+     * @param capacity The capacity needed.
+     * @return The size class index for the capacity or -1 if it is too large to pool.
+     */
+    private static int classOf(int capacity) {
+        if(capacity > MAX_BUFFER_SIZE)
+            return -1;
+        if(capacity <= MIN_BUFFER_SIZE)
+            return 0;
+
+        return 32 - Integer.numberOfLeadingZeros(capacity - 1) - Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+    }
+
+    /**
+     * Lease a cleared buffer. Its capacity is the size class the requested capacity falls into, so it may be
+     * larger than asked for. Byte order is not reset; set it after leasing if it matters.
+     * @param capacity The minimum capacity needed.
+     * @return A direct buffer with at least the requested capacity. Release it when done.
+     */
+    @NotNull
+    public ByteBuffer lease(int capacity) {
+        int index = classOf(capacity);
+        ByteBuffer buffer = index < 0 ? null : classes[index].poll();
+        if(buffer == null) {
+            buffer = ByteBuffer.allocateDirect(index < 0 ? capacity : MIN_BUFFER_SIZE << index);
+            allocated.increment();
+        } else {
+            buffer.clear();
+        }
+
+        leased.increment();
+        if(leases != null)
+            leases.put(buffer, new Throwable("Leased by " + Thread.currentThread().getName()));
+        return buffer;
+    }
+
+    /**
+     * Return a leased buffer to the pool. The buffer must not be touched after this.
+     * @param buffer The buffer to return.
+     */
+    public void release(@NotNull ByteBuffer buffer) {
+        if(leases != null && leases.remove(buffer) == null)
+            throw new IllegalStateException("Buffer was released twice or never leased from this pool!");
+
+        released.increment();
+        int index = classOf(buffer.capacity());
+        if(index >= 0 && buffer.capacity() == MIN_BUFFER_SIZE << index)
+            classes[index].offer(buffer); // Dropped for the GC if this class is already full
+    }
+
+    /**
+     * Log where every buffer still leased was taken. Only works with leak detection on.
+     * @return The number of buffers still leased or -1 if leaks aren't being tracked.
+     */
+    public int reportLeaks() {
+        if(leases == null)
+            return -1;
+
+        List<Throwable> sites;
+        synchronized(leases) {
+            sites = new ArrayList<>(leases.values());
+        }
+
+        for(Throwable site : sites) {
+            StringBuilder trace = new StringBuilder();
+            for(StackTraceElement element : site.getStackTrace())
+                trace.append("\n\tat ").append(element);
+            BUFFERS.warn("Leaked buffer: {}{}", site.getMessage(), trace);
+        }
+        return sites.size();
+    }
+
+    /**
+     * @return True, if every lease is tracked to find leaks.
+     */
+    public boolean isDetectingLeaks() {
+        return leases != null;
+    }
+
+    /**
+     * @return The number of buffers leased so far.
+     */
+    public long getLeased() {
+        return leased.sum();
+    }
+
+    /**
+     * @return The number of buffers leased but not yet released.
+     */
+    public long getOutstanding() {
+        return leased.sum() - released.sum();
+    }
+
+    /**
+     * @return The number of leases that had to allocate a new buffer.
+     */
+    public long getAllocated() {
+        return allocated.sum();
+    }
+
+    /**
+     * @return The number of bytes in idle buffers waiting to be leased.
+     */
+    public long getRetainedBytes() {
+        long bytes = 0;
+        for(int i=0; i<classes.length; i++)
+            bytes += (long) classes[i].size() * (MIN_BUFFER_SIZE << i);
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "leased=" + getLeased() + ", outstanding=" + getOutstanding() + ", allocated=" + getAllocated()
+                + ", retained=" + getRetainedBytes();
+    }
+}
@@ -1,79 +1,358 @@
 package com.knoban.multiplayer.streams;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.io.DataInput;
-import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /**
  * This class was pulled from:
  * https://github.com/Chukobyte/Java_GML_Server/blob/master/GML_Java_Server/src/com/chukobyte/gmljavaserver/main/GMLInputStream.java
  * <br><br>
- * It has been modified slightly to improve readString performance by Alden Bansemer (kNoAPP).
+ * It has been modified to read the source in bulk chunks into a reusable little-endian buffer and decode
+ * straight from it by Alden Bansemer (kNoAPP).
  */
 public class CSInputStream {
 
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private final InputStream source;
     private ByteBuffer byteBuffer;
-    private DataInput byteReader;
+    private byte[] scratch; // Only used to decode Strings from buffers without a backing array
+    private int[] frameLimits = new int[2]; // The limit each open frame replaced, innermost last
+    private int frameDepth;
+    private FrameInflater inflater;
+    private ByteBuffer inflatedFrom; // The buffer to go back to once the open compressed frame ends
+    private StringEncoding stringEncoding = StringEncoding.NUL_TERMINATED;
+    private StringCache stringCache;
 
+    /**
+     * Create a stream that reads from the source in bulk as data is needed.
+     * @param in The source to read from.
+     */
     public CSInputStream(@NotNull InputStream in) {
-        byteBuffer = ByteBuffer.allocate(8);
+        this.source = in;
+        this.byteBuffer = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
         byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
-        byteReader = new DataInputStream(in);
+        byteBuffer.flip(); // Start out with nothing to read
+    }
+
+    /**
+     * Create a stream that decodes straight from a buffer. Reading past the buffer's limit throws an EOFException
+     * rather than blocking, so callers can mark the buffer, try to decode, and reset if not enough data arrived.
+     * The buffer's byte order is set to little-endian.
+     * @param buffer The buffer to read from, ready for reading.
+     */
+    public CSInputStream(@NotNull ByteBuffer buffer) {
+        this.source = null;
+        setBuffer(buffer);
+    }
+
+    /**
+     * Swap the buffer a buffer-backed stream decodes from. Useful when the backing buffer has to grow.
+     * @param buffer The new buffer to read from, ready for reading.
+     */
+    public void setBuffer(@NotNull ByteBuffer buffer) {
+        if(frameDepth > 0)
+            throw new IllegalStateException("Cannot swap buffers in the middle of a frame!");
+
+        if(source != null)
+            throw new IllegalStateException("Streams reading from an InputStream manage their own buffer!");
+
+        this.byteBuffer = buffer;
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
     }
 
-    private void prepare(int bytes) throws IOException {
-        byteBuffer.clear();
-        for(int i=0; i<bytes; i++)
-            byteBuffer.put(byteReader.readByte());
-        byteBuffer.rewind();
+    /**
+     * @param stringEncoding How Strings read after this are encoded. (defaults to NUL_TERMINATED)
+     */
+    public void setStringEncoding(@NotNull StringEncoding stringEncoding) {
+        this.stringEncoding = stringEncoding;
+    }
+
+    /**
+     * @return How Strings are encoded.
+     */
+    @NotNull
+    public StringEncoding getStringEncoding() {
+        return stringEncoding;
+    }
+
+    /**
+     * @param stringCache The cache to look up short, repeated Strings in or null to always decode them.
+     */
+    public void setStringCache(@Nullable StringCache stringCache) {
+        this.stringCache = stringCache;
+    }
+
+    /**
+     * @param inflater Decompresses frames with the FrameDeflater.COMPRESSED bit in their length or null to treat
+     * that bit as part of the length. The old one is ended.
+     */
+    public void setInflater(@Nullable FrameInflater inflater) {
+        if(this.inflater != null && this.inflater != inflater)
+            this.inflater.end();
+        this.inflater = inflater;
+    }
+
+    /**
+     * Make sure at least the given number of bytes are buffered, reading from the source if needed.
+     * @param bytes The number of bytes needed.
+     * @throws EOFException If the source ends, the buffer runs out, or the open frame ends before enough bytes are
+     * available.
+     */
+    private void require(int bytes) throws IOException {
+        if(byteBuffer.remaining() >= bytes)
+            return;
+
+        if(source == null || frameDepth > 0)
+            throw new EOFException();
+
+        if(bytes > byteBuffer.capacity()) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(bytes, byteBuffer.capacity() << 1));
+            grown.order(ByteOrder.LITTLE_ENDIAN);
+            grown.put(byteBuffer);
+            grown.flip();
+            byteBuffer = grown;
+        }
+
+        byteBuffer.compact();
+        try {
+            while(byteBuffer.position() < bytes) {
+                int read = source.read(byteBuffer.array(), byteBuffer.arrayOffset() + byteBuffer.position(),
+                        byteBuffer.remaining());
+                if(read < 0)
+                    throw new EOFException();
+
+                byteBuffer.position(byteBuffer.position() + read);
+            }
+        } finally {
+            byteBuffer.flip();
+        }
+    }
+
+    /**
+     * Start reading a frame of the given length. The whole frame is buffered first, so decoding it never waits on
+     * the source. Until endFrame() is called, reading past the end of the frame throws an EOFException. Frames may
+     * be nested, as long as the inner frame fits in what is left of the outer one. With an inflater set, a
+     * compressed frame is decompressed up front and read from as if it had arrived that way.
+     * @param length The number of bytes in the frame, as sent.
+     * @throws EOFException If the source ends, the buffer runs out, or the outer frame ends before the whole frame
+     * is available.
+     * @throws IOException If a compressed frame can't be decompressed. The frame is skipped.
+     */
+    public void beginFrame(int length) throws IOException {
+        boolean compressed = inflater != null && (length & FrameDeflater.COMPRESSED) != 0;
+        if(compressed)
+            length &= ~FrameDeflater.COMPRESSED;
+
+        require(length);
+        if(compressed && inflatedFrom != null) {
+            byteBuffer.position(byteBuffer.position() + length);
+            throw new IOException("Compressed frames can't be nested");
+        }
+
+        int limit = byteBuffer.limit();
+        if(compressed) {
+            ByteBuffer inflated = inflater.inflate(byteBuffer, length);
+            inflatedFrom = byteBuffer;
+            byteBuffer = inflated;
+            limit = -1; // Marks the frame that goes back to inflatedFrom
+        } else {
+            byteBuffer.limit(byteBuffer.position() + length);
+        }
+
+        if(frameDepth == frameLimits.length)
+            frameLimits = Arrays.copyOf(frameLimits, frameDepth << 1);
+        frameLimits[frameDepth++] = limit;
+    }
+
+    /**
+     * Stop reading the innermost open frame. Whatever was left of it is skipped.
+     */
+    public void endFrame() {
+        if(frameDepth == 0)
+            return;
+
+        int limit = frameLimits[--frameDepth];
+        if(limit < 0) {
+            byteBuffer = inflatedFrom; // Already past the compressed bytes
+            inflatedFrom = null;
+            return;
+        }
+
+        byteBuffer.position(byteBuffer.limit());
+        byteBuffer.limit(limit);
+    }
+
+    /**
+     * Discard bytes without decoding them. Streams reading from an InputStream read through the source until all
+     * of them are gone. Buffer-backed streams stop at the end of the buffer.
+     * @param bytes The number of bytes to discard.
+     * @return The number of bytes discarded.
+     * @throws EOFException If the source ends first.
+     */
+    public long skip(long bytes) throws IOException {
+        long skipped = Math.min(bytes, byteBuffer.remaining());
+        byteBuffer.position(byteBuffer.position() + (int) skipped);
+        if(source == null)
+            return skipped;
+
+        while(skipped < bytes) {
+            require(1);
+            int chunk = (int) Math.min(bytes - skipped, byteBuffer.remaining());
+            byteBuffer.position(byteBuffer.position() + chunk);
+            skipped += chunk;
+        }
+        return skipped;
+    }
+
+    /**
+     * @return The next S16 without consuming it.
+     */
+    public short peekS16() throws IOException {
+        require(2);
+        return byteBuffer.getShort(byteBuffer.position());
     }
 
     public byte readS8() throws IOException {
-        prepare(1);
+        require(1);
         return byteBuffer.get();
     }
 
     public short readS16() throws IOException {
-        prepare(2);
+        require(2);
         return byteBuffer.getShort();
     }
 
     public int readS32() throws IOException {
-        prepare(4);
+        require(4);
         return byteBuffer.getInt();
     }
 
     public long readS64() throws IOException {
-        prepare(8);
+        require(8);
         return byteBuffer.getLong();
     }
 
     public float readF32() throws IOException {
-        prepare(4);
+        require(4);
         return byteBuffer.getFloat();
     }
 
     public double readF64() throws IOException {
-        prepare(8);
+        require(8);
         return byteBuffer.getDouble();
     }
 
+    /**
+     * Reads an unsigned LEB128 varint: 7 bits per byte, least significant first, high bit set on all but the last.
+     * @return The decoded value.
+     * @throws IOException If the varint is longer than 5 bytes or doesn't fit in an int.
+     */
+    public int readVarInt() throws IOException {
+        int value = 0;
+        for(int shift=0; shift<35; shift+=7) {
+            byte b = readS8();
+            if(shift == 28 && (b & 0x70) != 0) // Bits 32-34 would be shifted out of the int
+                throw new IOException("Varint does not fit in an int");
+            value |= (b & 0x7F) << shift;
+            if(b >= 0) {
+                if(value < 0)
+                    throw new IOException("Varint does not fit in an int");
+                return value;
+            }
+        }
+        throw new IOException("Varint is longer than 5 bytes");
+    }
+
     @NotNull
     public String readString() throws IOException {
-        byte b = byteReader.readByte();
-        if(b == 0)
+        if(stringEncoding == StringEncoding.UTF8_PREFIXED) {
+            int length = readVarInt();
+            require(length);
+            return decodeString(length, StandardCharsets.UTF_8);
+        }
+
+        int length = scanString();
+        String toRet = decodeString(length, StandardCharsets.ISO_8859_1);
+        byteBuffer.get(); // NUL terminator
+        return toRet;
+    }
+
+    /**
+     * Skip over a String without decoding it. Length-prefixed Strings are skipped without looking at their bytes.
+     */
+    public void skipString() throws IOException {
+        if(stringEncoding == StringEncoding.UTF8_PREFIXED) {
+            int length = readVarInt();
+            require(length);
+            byteBuffer.position(byteBuffer.position() + length);
+            return;
+        }
+
+        int length = scanString(); // May refill the buffer, which moves its position
+        byteBuffer.position(byteBuffer.position() + length + 1);
+    }
+
+    /**
+     * Find the NUL terminating the String at the buffer's position, reading more from the source as needed.
+     * @return The number of bytes before the NUL.
+     */
+    private int scanString() throws IOException {
+        int length = 0;
+        while(true) {
+            int start = byteBuffer.position();
+            int limit = byteBuffer.limit();
+            for(int i=start+length; i<limit; i++) {
+                if(byteBuffer.get(i) == 0)
+                    return i - start;
+            }
+
+            length = limit - start;
+            require(length + 1); // Pull in more data and keep scanning after what was already checked
+        }
+    }
+
+    /**
+     * Decode a String of the given length at the buffer's position, which must already be buffered.
+     * @param length The number of bytes in the String.
+     * @param charset The encoding of the bytes.
+     * @return The decoded String.
+     */
+    @NotNull
+    private String decodeString(int length, @NotNull Charset charset) {
+        if(length == 0)
             return "";
 
-        StringBuilder result = new StringBuilder();
-        do {
-            result.append((char)b);
-            b = byteReader.readByte();
-        } while(b != 0);
-        return result.toString();
+        int position = byteBuffer.position();
+        String toRet = stringCache == null ? null : stringCache.lookup(byteBuffer, position, length);
+        if(toRet != null) {
+            byteBuffer.position(position + length);
+        } else if(byteBuffer.hasArray()) {
+            toRet = new String(byteBuffer.array(), byteBuffer.arrayOffset() + position, length, charset);
+            byteBuffer.position(position + length);
+        } else {
+            if(scratch == null || scratch.length < length)
+                scratch = new byte[Math.max(length, 64)];
+
+            byteBuffer.get(scratch, 0, length);
+            toRet = new String(scratch, 0, length, charset);
+        }
+        return toRet;
+    }
+
+    /**
+     * @return The number of bytes buffered and ready to decode without touching the source.
+     */
+    public int available() {
+        return byteBuffer.remaining();
     }
 }
@@ -1,83 +1,302 @@
 package com.knoban.multiplayer.streams;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.io.DataOutput;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Arrays;
 
 /**
  * This class was pulled from:
  * https://github.com/Chukobyte/Java_GML_Server/blob/master/GML_Java_Server/src/com/chukobyte/gmljavaserver/main/GMLOutputStream.java
  * <br><br>
- * It has been modified slightly to improve writeString performance by Alden Bansemer (kNoAPP).
+ * It has been modified to gather writes in a little-endian buffer and hand them to the underlying stream in one
+ * write on flush by Alden Bansemer (kNoAPP). Nothing is sent until flush() is called or the buffer fills up.
  */
 public class CSOutputStream {
 
-    private OutputStream out;
+    private static final int DEFAULT_BUFFER_SIZE = 1024;
+    private static final int MAX_BUFFER_SIZE = 1 << 16; // Past this, flush early instead of growing
 
+    private OutputStream out;
     private ByteBuffer byteBuffer;
-    private DataOutput byteWriter;
+
+    private final StreamStatistics statistics;
+    private int pendingWrites;
+    private int[] frameStarts = new int[2]; // Position right after each open frame's length, innermost last
+    private int frameDepth;
+    private StringEncoding stringEncoding = StringEncoding.NUL_TERMINATED;
+    private FrameDeflater deflater;
 
     public CSOutputStream(@NotNull OutputStream out) {
+        this(out, null);
+    }
+
+    /**
+     * @param out The stream to hand gathered writes to.
+     * @param statistics Where to count bytes and gathered writes or null to not count them.
+     */
+    public CSOutputStream(@NotNull OutputStream out, @Nullable StreamStatistics statistics) {
         this.out = out;
-        this.byteBuffer = ByteBuffer.allocate(8);
+        this.byteBuffer = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
         byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
-        byteWriter = new DataOutputStream(out);
+        this.statistics = statistics;
+    }
+
+    /**
+     * @param stringEncoding How Strings written after this are encoded. (defaults to NUL_TERMINATED)
+     */
+    public void setStringEncoding(@NotNull StringEncoding stringEncoding) {
+        this.stringEncoding = stringEncoding;
     }
 
-    private void write(int bytes) throws IOException {
-        byteBuffer.rewind();
-        for(int i=0; i<bytes; i++) {
-            byte out = byteBuffer.get();
-            byteWriter.writeByte(out);
+    /**
+     * @return How Strings are encoded.
+     */
+    @NotNull
+    public StringEncoding getStringEncoding() {
+        return stringEncoding;
+    }
+
+    /**
+     * @param deflater Compresses outermost frames as they end or null to leave them raw. The old one is ended.
+     */
+    public void setDeflater(@Nullable FrameDeflater deflater) {
+        if(this.deflater != null && this.deflater != deflater)
+            this.deflater.end();
+        this.deflater = deflater;
+    }
+
+    /**
+     * Make room for the given number of bytes. Grows the buffer up to a limit, then flushes instead.
+     * @param bytes The number of bytes about to be written.
+     */
+    private void ensureCapacity(int bytes) throws IOException {
+        ++pendingWrites;
+        if(byteBuffer.remaining() >= bytes)
+            return;
+
+        if(frameDepth == 0 && byteBuffer.position() + bytes > MAX_BUFFER_SIZE && byteBuffer.position() > 0) {
+            writeBuffer();
+            if(byteBuffer.remaining() >= bytes)
+                return;
         }
-        byteBuffer.clear();
+
+        int size = byteBuffer.capacity();
+        while(size - byteBuffer.position() < bytes)
+            size <<= 1;
+
+        ByteBuffer grown = ByteBuffer.allocate(size);
+        grown.order(ByteOrder.LITTLE_ENDIAN);
+        byteBuffer.flip();
+        grown.put(byteBuffer);
+        byteBuffer = grown;
     }
 
     public void writeS8(byte S8) throws IOException {
-        byteWriter.writeByte(S8);
+        ensureCapacity(1);
+        byteBuffer.put(S8);
     }
 
     public void writeS16(short S16) throws IOException {
+        ensureCapacity(2);
         byteBuffer.putShort(S16);
-        write(2);
     }
 
     public void writeS32(int S32) throws IOException {
+        ensureCapacity(4);
         byteBuffer.putInt(S32);
-        write(4);
     }
 
     public void writeS64(long S64) throws IOException {
+        ensureCapacity(8);
         byteBuffer.putLong(S64);
-        write(8);
     }
 
     public void writeF32(float F32) throws IOException {
+        ensureCapacity(4);
         byteBuffer.putFloat(F32);
-        write(4);
     }
+
     public void writeF64(double F64) throws IOException {
+        ensureCapacity(8);
         byteBuffer.putDouble(F64);
-        write(8);
     }
+
+    /**
+     * Writes the remaining bytes of the buffer as they are. The buffer's position is moved past them.
+     * @param data The bytes to write.
+     */
+    public void write(@NotNull ByteBuffer data) throws IOException {
+        ensureCapacity(data.remaining());
+        byteBuffer.put(data);
+    }
+
+    /**
+     * Writes an unsigned LEB128 varint: 7 bits per byte, least significant first, high bit set on all but the last.
+     * @param value The value to write. Negative values take 5 bytes.
+     */
+    public void writeVarInt(int value) throws IOException {
+        ensureCapacity(5);
+        while((value & ~0x7F) != 0) {
+            byteBuffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        byteBuffer.put((byte) value);
+    }
+
     public void writeString(String string) throws IOException {
-        for(int i=0; i<string.length(); i++){
+        int length = string.length();
+        if(stringEncoding == StringEncoding.UTF8_PREFIXED) {
+            int bytes = utf8Length(string);
+            writeVarInt(bytes);
+            ensureCapacity(bytes);
+            if(bytes == length) {
+                for(int i=0; i<length; i++) {
+                    char c = string.charAt(i);
+                    byteBuffer.put(c < 0x80 ? (byte) c : (byte) '?'); // Only unpaired surrogates aren't ASCII here
+                }
+            } else {
+                putUtf8(string);
+            }
+            return;
+        }
+
+        ensureCapacity(length + 1);
+        for(int i=0; i<length; i++) {
             char c = string.charAt(i);
-            byteWriter.writeByte((byte) c);
+            byteBuffer.put(c > 0xFF ? (byte) '?' : (byte) c);
         }
-        byteWriter.writeByte((byte) 0);
+        byteBuffer.put((byte) 0);
     }
 
+    /**
+     * @param string The String to measure.
+     * @return The number of bytes the String takes in UTF-8. Unpaired surrogates count as one byte for a '?'.
+     */
+    private static int utf8Length(@NotNull String string) {
+        int length = string.length();
+        int bytes = length;
+        for(int i=0; i<length; i++) {
+            char c = string.charAt(i);
+            if(c < 0x80)
+                continue;
+
+            if(c < 0x800) {
+                ++bytes;
+            } else if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(string.charAt(i + 1))) {
+                bytes += 2; // Two chars, four bytes
+                ++i;
+            } else if(!Character.isSurrogate(c)) {
+                bytes += 2;
+            }
+        }
+        return bytes;
+    }
+
+    private void putUtf8(@NotNull String string) {
+        int length = string.length();
+        for(int i=0; i<length; i++) {
+            char c = string.charAt(i);
+            if(c < 0x80) {
+                byteBuffer.put((byte) c);
+            } else if(c < 0x800) {
+                byteBuffer.put((byte) (0xC0 | c >> 6));
+                byteBuffer.put((byte) (0x80 | c & 0x3F));
+            } else if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(string.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, string.charAt(++i));
+                byteBuffer.put((byte) (0xF0 | codePoint >> 18));
+                byteBuffer.put((byte) (0x80 | codePoint >> 12 & 0x3F));
+                byteBuffer.put((byte) (0x80 | codePoint >> 6 & 0x3F));
+                byteBuffer.put((byte) (0x80 | codePoint & 0x3F));
+            } else if(Character.isSurrogate(c)) {
+                byteBuffer.put((byte) '?');
+            } else {
+                byteBuffer.put((byte) (0xE0 | c >> 12));
+                byteBuffer.put((byte) (0x80 | c >> 6 & 0x3F));
+                byteBuffer.put((byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+
+    /**
+     * Start a length-prefixed frame. An S32 is reserved for the length and filled in by endFrame(). Frames may be
+     * nested, in which case the inner frame is part of the outer one. The buffer grows rather than flushing early
+     * while a frame is open.
+     */
+    public void beginFrame() throws IOException {
+        writeS32(0);
+        if(frameDepth == frameStarts.length)
+            frameStarts = Arrays.copyOf(frameStarts, frameDepth << 1);
+        frameStarts[frameDepth++] = byteBuffer.position();
+    }
+
+    /**
+     * End the innermost open frame by writing its length in front of it. With a deflater set, outermost frames
+     * large enough to be worth it are compressed.
+     */
+    public void endFrame() {
+        if(frameDepth == 0)
+            throw new IllegalStateException("No frame is open!");
+
+        int frameStart = frameStarts[--frameDepth];
+        int length = byteBuffer.position() - frameStart;
+        if(frameDepth == 0 && deflater != null && deflater.deflate(byteBuffer, frameStart, length))
+            return;
+
+        byteBuffer.putInt(frameStart - 4, length);
+    }
+
+    /**
+     * @return True, if a frame was begun and not yet ended.
+     */
+    public boolean isFrameOpen() {
+        return frameDepth > 0;
+    }
+
+    /**
+     * @return The number of frames begun and not yet ended.
+     */
+    public int getFrameDepth() {
+        return frameDepth;
+    }
+
+    /**
+     * Hand everything gathered so far to the underlying stream in one write.
+     */
+    private void writeBuffer() throws IOException {
+        int bytes = byteBuffer.position();
+        if(bytes == 0)
+            return;
+
+        out.write(byteBuffer.array(), byteBuffer.arrayOffset(), bytes);
+        byteBuffer.clear();
+        if(statistics != null)
+            statistics.record(bytes, pendingWrites);
+        pendingWrites = 0;
+    }
+
+    /**
+     * Send everything written so far with a single write and flush of the underlying stream.
+     */
     public void flush() throws IOException {
-        ((DataOutputStream) byteWriter).flush();
+        if(frameDepth > 0)
+            throw new IllegalStateException("Cannot flush in the middle of a frame!");
+
+        if(byteBuffer.position() == 0)
+            return;
+
+        writeBuffer();
+        out.flush();
     }
 
-    public void setByteWriter(@NotNull DataOutput byteWriter) {
-        this.byteWriter = byteWriter;
+    /**
+     * @return The number of bytes written but not yet flushed.
+     */
+    public int size() {
+        return byteBuffer.position();
     }
-}
\ No newline at end of file
+}
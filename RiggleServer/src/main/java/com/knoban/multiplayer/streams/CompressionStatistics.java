@@ -0,0 +1,117 @@
+package com.knoban.multiplayer.streams;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how much compressed frames save and how much CPU time compressing them costs. Many streams may share one
+ * instance. Safe to use from any thread.
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class CompressionStatistics {
+
+    private final LongAdder framesDeflated = new LongAdder();
+    private final LongAdder framesLeftRaw = new LongAdder();
+    private final LongAdder rawBytesOut = new LongAdder();
+    private final LongAdder deflatedBytesOut = new LongAdder();
+    private final LongAdder deflateNanos = new LongAdder();
+
+    private final LongAdder framesInflated = new LongAdder();
+    private final LongAdder deflatedBytesIn = new LongAdder();
+    private final LongAdder rawBytesIn = new LongAdder();
+    private final LongAdder inflateNanos = new LongAdder();
+
+    /**
+     * Record an attempt to compress an outbound frame.
+     * @param rawBytes The size of the frame before compressing.
+     * @param sentBytes The size of the frame as sent. Same as rawBytes if compressing didn't shrink it.
+     * @param nanos The time spent compressing.
+     */
+    void recordDeflate(int rawBytes, int sentBytes, long nanos) {
+        if(sentBytes < rawBytes)
+            framesDeflated.increment();
+        else
+            framesLeftRaw.increment();
+
+        rawBytesOut.add(rawBytes);
+        deflatedBytesOut.add(sentBytes);
+        deflateNanos.add(nanos);
+    }
+
+    /**
+     * Record an inbound frame that was decompressed.
+     * @param deflatedBytes The size of the frame as received.
+     * @param rawBytes The size of the frame after decompressing.
+     * @param nanos The time spent decompressing.
+     */
+    void recordInflate(int deflatedBytes, int rawBytes, long nanos) {
+        framesInflated.increment();
+        deflatedBytesIn.add(deflatedBytes);
+        rawBytesIn.add(rawBytes);
+        inflateNanos.add(nanos);
+    }
+
+    /**
+     * @return The number of outbound frames sent compressed.
+     */
+    public long getFramesDeflated() {
+        return framesDeflated.sum();
+    }
+
+    /**
+     * @return The number of outbound frames over the threshold that were sent raw since compressing didn't help.
+     */
+    public long getFramesLeftRaw() {
+        return framesLeftRaw.sum();
+    }
+
+    /**
+     * @return The number of inbound frames that were decompressed.
+     */
+    public long getFramesInflated() {
+        return framesInflated.sum();
+    }
+
+    /**
+     * @return Bytes sent per byte of outbound frames over the threshold. Lower is better. 1 if nothing was compressed.
+     */
+    public double getDeflateRatio() {
+        long raw = rawBytesOut.sum();
+        return raw == 0 ? 1 : (double) deflatedBytesOut.sum() / raw;
+    }
+
+    /**
+     * @return Bytes received per byte of inbound frames after decompressing. 1 if nothing was decompressed.
+     */
+    public double getInflateRatio() {
+        long raw = rawBytesIn.sum();
+        return raw == 0 ? 1 : (double) deflatedBytesIn.sum() / raw;
+    }
+
+    /**
+     * @return The number of outbound bytes compressing saved.
+     */
+    public long getBytesSaved() {
+        return rawBytesOut.sum() - deflatedBytesOut.sum();
+    }
+
+    /**
+     * @return Total CPU time spent compressing outbound frames, including frames that ended up sent raw.
+     */
+    public long getDeflateNanos() {
+        return deflateNanos.sum();
+    }
+
+    /**
+     * @return Total CPU time spent decompressing inbound frames.
+     */
+    public long getInflateNanos() {
+        return inflateNanos.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("deflated=%d, raw=%d, ratio=%.3f, saved=%d, deflateMs=%.3f, inflated=%d, inflateRatio=%.3f, inflateMs=%.3f",
+                getFramesDeflated(), getFramesLeftRaw(), getDeflateRatio(), getBytesSaved(), getDeflateNanos() / 1e6,
+                getFramesInflated(), getInflateRatio(), getInflateNanos() / 1e6);
+    }
+}
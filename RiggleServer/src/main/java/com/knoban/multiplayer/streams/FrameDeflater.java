@@ -0,0 +1,102 @@
+package com.knoban.multiplayer.streams;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses outbound frames of one stream with Deflate. A compressed frame has the top bit of its S32 length set
+ * and holds an S32 with its uncompressed length followed by the deflated bytes. Frames under the threshold, or
+ * that don't shrink, are left as they are.
+ * <br><br>
+ * The Deflater is created on the first frame worth compressing and reset for every frame after that, so its native
+ * memory is allocated once per stream. Each frame is compressed on its own, primed with the preset dictionary if
+ * there is one, so frames never depend on each other. Call end() once the stream is done to free it.
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class FrameDeflater {
+
+    public static final int COMPRESSED = 1 << 31; // Set in a frame's length if the frame is compressed
+
+    private final int level;
+    private final byte[] dictionary;
+    private final int threshold;
+    private final CompressionStatistics statistics;
+
+    private Deflater deflater;
+    private byte[] scratch = new byte[0];
+
+    /**
+     * @param level The Deflate compression level. (ex. Deflater.BEST_SPEED)
+     * @param dictionary Bytes common to many frames that both sides prime Deflate with or null for none.
+     * @param threshold The smallest frame, in bytes, worth compressing.
+     * @param statistics Where to count compressed bytes and time spent or null to not count them.
+     */
+    public FrameDeflater(int level, @Nullable byte[] dictionary, int threshold, @Nullable CompressionStatistics statistics) {
+        this.level = level;
+        this.dictionary = dictionary;
+        this.threshold = threshold;
+        this.statistics = statistics;
+    }
+
+    /**
+     * @return The smallest frame, in bytes, worth compressing.
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Compress a frame in place if that makes it smaller. On success, the frame's length is rewritten with the
+     * COMPRESSED bit and the buffer's position is moved to the new end of the frame.
+     * @param buffer A heap buffer holding the frame, which ends at the buffer's position.
+     * @param start Where the frame's data starts, right after its S32 length.
+     * @param length The number of bytes of data in the frame.
+     * @return True, if the frame was compressed. False, if it was left as is.
+     */
+    boolean deflate(@NotNull ByteBuffer buffer, int start, int length) {
+        if(length < threshold || length < 8)
+            return false;
+
+        long began = System.nanoTime();
+        if(deflater == null)
+            deflater = new Deflater(level);
+        if(scratch.length < length)
+            scratch = new byte[length];
+
+        deflater.reset();
+        if(dictionary != null)
+            deflater.setDictionary(dictionary);
+        deflater.setInput(buffer.array(), buffer.arrayOffset() + start, length);
+        deflater.finish();
+
+        int limit = length - 5; // Has to save more than the S32 that holds the uncompressed length
+        int deflated = 0;
+        while(!deflater.finished() && deflated < limit)
+            deflated += deflater.deflate(scratch, deflated, limit - deflated);
+
+        boolean shrunk = deflater.finished();
+        if(shrunk) {
+            buffer.putInt(start - 4, (4 + deflated) | COMPRESSED);
+            buffer.putInt(start, length);
+            System.arraycopy(scratch, 0, buffer.array(), buffer.arrayOffset() + start + 4, deflated);
+            buffer.position(start + 4 + deflated);
+        }
+
+        if(statistics != null)
+            statistics.recordDeflate(length, shrunk ? 4 + deflated : length, System.nanoTime() - began);
+        return shrunk;
+    }
+
+    /**
+     * Free the Deflater's native memory. Frames are left raw after this.
+     */
+    public void end() {
+        if(deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+    }
+}
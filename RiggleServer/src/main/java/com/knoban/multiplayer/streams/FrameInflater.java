@@ -0,0 +1,118 @@
+package com.knoban.multiplayer.streams;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses inbound frames of one stream compressed by a FrameDeflater, or anything else following the same
+ * format. The Inflater is created on the first compressed frame and reset for every frame after that. Call end()
+ * once the stream is done to free it.
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class FrameInflater {
+
+    private final byte[] dictionary;
+    private final int maxLength;
+    private final CompressionStatistics statistics;
+
+    private Inflater inflater;
+    private byte[] input = new byte[0]; // Only used to inflate from buffers without a backing array
+    private ByteBuffer output = ByteBuffer.allocate(0);
+
+    /**
+     * @param dictionary The preset dictionary frames were compressed with or null for none.
+     * @param maxLength The largest frame, in bytes, to decompress. Keeps small frames from inflating without bound.
+     * @param statistics Where to count decompressed bytes and time spent or null to not count them.
+     */
+    public FrameInflater(@Nullable byte[] dictionary, int maxLength, @Nullable CompressionStatistics statistics) {
+        this.dictionary = dictionary;
+        this.maxLength = maxLength;
+        this.statistics = statistics;
+    }
+
+    /**
+     * Decompress a frame. The frame's bytes are consumed from the buffer.
+     * @param buffer The buffer holding the frame's data, starting with its S32 uncompressed length.
+     * @param length The number of bytes of data in the frame.
+     * @return A little-endian buffer holding the decompressed frame, ready for reading. Reused by the next call.
+     * @throws IOException If the frame is too large, needs a different dictionary, or doesn't decompress to the
+     * length it claims.
+     */
+    @NotNull
+    ByteBuffer inflate(@NotNull ByteBuffer buffer, int length) throws IOException {
+        long began = System.nanoTime();
+        int start = buffer.position();
+        buffer.position(start + length);
+        if(length < 4)
+            throw new IOException("Compressed frame is too short");
+
+        int rawLength = buffer.getInt(start);
+        if(rawLength < 0 || rawLength > maxLength)
+            throw new IOException("Compressed frame inflates to " + rawLength + " bytes");
+
+        if(inflater == null)
+            inflater = new Inflater();
+        inflater.reset();
+        if(buffer.hasArray()) {
+            inflater.setInput(buffer.array(), buffer.arrayOffset() + start + 4, length - 4);
+        } else {
+            if(input.length < length - 4)
+                input = new byte[length - 4];
+
+            ByteBuffer view = buffer.duplicate();
+            view.position(start + 4);
+            view.get(input, 0, length - 4);
+            inflater.setInput(input, 0, length - 4);
+        }
+
+        if(output.capacity() <= rawLength) {
+            output = ByteBuffer.allocate(rawLength + 1); // One spare byte to notice frames that inflate too far
+            output.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        byte[] out = output.array();
+        int inflated = 0;
+        try {
+            while(!inflater.finished() && inflated <= rawLength) {
+                int read = inflater.inflate(out, inflated, rawLength + 1 - inflated);
+                inflated += read;
+                if(read > 0)
+                    continue;
+
+                if(inflater.needsDictionary() && dictionary != null)
+                    inflater.setDictionary(dictionary);
+                else if(inflater.needsDictionary() || inflater.needsInput())
+                    break;
+            }
+        } catch(DataFormatException e) {
+            throw new IOException("Compressed frame is corrupt: " + e.getMessage());
+        } catch(IllegalArgumentException e) {
+            throw new IOException("Compressed frame is corrupt: it needs a different dictionary");
+        }
+
+        if(!inflater.finished() || inflated != rawLength)
+            throw new IOException("Compressed frame does not inflate to " + rawLength + " bytes");
+
+        output.clear();
+        output.limit(rawLength);
+        if(statistics != null)
+            statistics.recordInflate(length, rawLength, System.nanoTime() - began);
+        return output;
+    }
+
+    /**
+     * Free the Inflater's native memory. It is created again if another compressed frame arrives.
+     */
+    public void end() {
+        if(inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+    }
+}
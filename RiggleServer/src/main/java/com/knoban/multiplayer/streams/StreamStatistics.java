@@ -0,0 +1,60 @@
+package com.knoban.multiplayer.streams;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how much work CSOutputStreams save by gathering writes into one buffer. Many streams may share one
+ * instance. Safe to use from any thread.
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class StreamStatistics {
+
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder writeCalls = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+
+    /**
+     * Record a flush of gathered writes to the underlying stream.
+     * @param bytes The number of bytes flushed.
+     * @param writes The number of write calls gathered into the flush.
+     */
+    void record(int bytes, int writes) {
+        bytesWritten.add(bytes);
+        writeCalls.add(writes);
+        flushes.increment();
+    }
+
+    /**
+     * @return The number of bytes handed to underlying streams.
+     */
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    /**
+     * @return The number of individual writes (writeS16, writeString, ...) made.
+     */
+    public long getWriteCalls() {
+        return writeCalls.sum();
+    }
+
+    /**
+     * @return The number of writes actually made to underlying streams.
+     */
+    public long getFlushes() {
+        return flushes.sum();
+    }
+
+    /**
+     * @return The number of underlying writes avoided by gathering. Unbuffered, every write call was at least one.
+     */
+    public long getSyscallsSaved() {
+        return Math.max(0, getWriteCalls() - getFlushes());
+    }
+
+    @Override
+    public String toString() {
+        return "bytes=" + getBytesWritten() + ", writes=" + getWriteCalls() + ", flushes=" + getFlushes()
+                + ", saved=" + getSyscallsSaved();
+    }
+}
@@ -0,0 +1,119 @@
+package com.knoban.multiplayer.streams;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A small, bounded cache of Strings that show up on the wire over and over, like room codes and UUIDs. Decoding
+ * a cached String only hashes and compares its bytes, nothing is allocated. Only short ASCII Strings are cached,
+ * since they decode the same under every StringEncoding. Each slot holds one String and the newest one wins.
+ * Many streams may share one instance. Safe to use from any thread.
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class StringCache {
+
+    public static final int MAX_LENGTH = 64; // Longer Strings are rarely repeated and always decoded
+
+    private final Entry[] entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param slots The number of Strings to remember. Rounded up to a power of two.
+     */
+    public StringCache(int slots) {
+        if(slots < 1)
+            throw new IllegalArgumentException("A cache needs at least one slot!");
+
+        int size = 1;
+        while(size < slots)
+            size <<= 1;
+        entries = new Entry[size];
+    }
+
+    /**
+     * Look up the String in the buffer at the given position, caching it if it isn't already. The buffer's
+     * position is not changed.
+     * @param buffer The buffer holding the String's bytes.
+     * @param offset The index of the String's first byte.
+     * @param length The number of bytes in the String.
+     * @return The String or null if it can't be cached. (too long or not ASCII)
+     */
+    @Nullable
+    String lookup(@NotNull ByteBuffer buffer, int offset, int length) {
+        if(length > MAX_LENGTH)
+            return null;
+
+        int hash = 0;
+        for(int i=0; i<length; i++) {
+            byte b = buffer.get(offset + i);
+            if(b < 0)
+                return null;
+
+            hash = 31 * hash + b;
+        }
+
+        int index = (hash ^ (hash >>> 16)) & (entries.length - 1);
+        Entry entry = entries[index];
+        if(entry != null && entry.hash == hash && entry.matches(buffer, offset, length)) {
+            hits.increment();
+            return entry.value;
+        }
+
+        byte[] bytes = new byte[length];
+        for(int i=0; i<length; i++)
+            bytes[i] = buffer.get(offset + i);
+
+        String value = new String(bytes, StandardCharsets.US_ASCII);
+        entries[index] = new Entry(hash, bytes, value);
+        misses.increment();
+        return value;
+    }
+
+    /**
+     * @return The number of lookups answered from the cache.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return The number of lookups that had to decode and cache the String.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "slots=" + entries.length + ", hits=" + getHits() + ", misses=" + getMisses();
+    }
+
+    private static final class Entry {
+
+        private final int hash;
+        private final byte[] bytes;
+        private final String value;
+
+        private Entry(int hash, @NotNull byte[] bytes, @NotNull String value) {
+            this.hash = hash;
+            this.bytes = bytes;
+            this.value = value;
+        }
+
+        private boolean matches(@NotNull ByteBuffer buffer, int offset, int length) {
+            if(bytes.length != length)
+                return false;
+
+            for(int i=0; i<length; i++) {
+                if(bytes[i] != buffer.get(offset + i))
+                    return false;
+            }
+            return true;
+        }
+    }
+}
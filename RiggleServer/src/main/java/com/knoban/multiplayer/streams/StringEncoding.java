@@ -0,0 +1,12 @@
+package com.knoban.multiplayer.streams;
+
+/**
+ * How CSInputStreams and CSOutputStreams put Strings on the wire.
+ * @author Alden Bansemer (kNoAPP)
+ */
+public enum StringEncoding {
+
+    NUL_TERMINATED, // One byte per char (ISO-8859-1), then a NUL. Must be scanned to find the end.
+    UTF8_PREFIXED // Varint byte length, then that many bytes of UTF-8. Can be skipped without scanning.
+
+}
@@ -0,0 +1,172 @@
+package com.knoban.multiplayer.utils;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * A bounded, lock-free queue for many producer threads and exactly one consumer thread.
+ * <br><br>
+ * Memory ordering: producers claim a slot by CAS on the producer index and then publish the element with a
+ * release store into the slot. The consumer reads slots with acquire loads, so everything a producer wrote before
+ * offer() is visible to the consumer once it receives the element. The consumer clears a slot before it
+ * advances the consumer index (both release stores), and producers read the consumer index with an acquire load
+ * before reusing a slot, so a slot is never overwritten while the consumer still owns it.
+ * <br><br>
+ * Only offer(), isEmpty() and size() may be called from any thread. poll(), peek() and drain() must only ever be
+ * called from one thread at a time.
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class MpscRingQueue<E> {
+
+    private final AtomicReferenceArray<E> buffer;
+    private final int mask;
+    private final int capacity;
+
+    private final AtomicLong producerIndex = new AtomicLong();
+    private final AtomicLong consumerIndex = new AtomicLong();
+    private volatile long producerLimit; // Cached consumerIndex + capacity to avoid reading consumerIndex every offer
+
+    /**
+     * Create a new queue.
+     * @param capacity The maximum number of elements. Rounded up to the next power of two.
+     */
+    public MpscRingQueue(int capacity) {
+        if(capacity < 1 || capacity > (1 << 30))
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30!");
+
+        int size = Integer.highestOneBit(capacity);
+        if(size < capacity)
+            size <<= 1;
+
+        this.buffer = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.capacity = size;
+        this.producerLimit = size;
+    }
+
+    /**
+     * @return The maximum number of elements this queue can hold.
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Add an element to the queue. Safe to call from any thread.
+     * @param e The element to add.
+     * @return True, if added. False, if the queue is full.
+     */
+    public boolean offer(@NotNull E e) {
+        long index;
+        do {
+            index = producerIndex.get();
+            if(index >= producerLimit) {
+                long limit = consumerIndex.get() + capacity;
+                if(index >= limit)
+                    return false;
+
+                producerLimit = limit;
+            }
+        } while(!producerIndex.compareAndSet(index, index + 1));
+
+        buffer.lazySet((int) index & mask, e);
+        return true;
+    }
+
+    /**
+     * Remove the next element. Consumer thread only.
+     * @return The next element or null if the queue is empty.
+     */
+    @Nullable
+    public E poll() {
+        long index = consumerIndex.get();
+        int offset = (int) index & mask;
+        E e = buffer.get(offset);
+        if(e == null) {
+            if(index == producerIndex.get())
+                return null;
+
+            // A producer claimed this slot but has not published to it yet. It will shortly.
+            do {
+                e = buffer.get(offset);
+            } while(e == null);
+        }
+
+        buffer.lazySet(offset, null);
+        consumerIndex.lazySet(index + 1);
+        return e;
+    }
+
+    /**
+     * Look at the next element without removing it. Consumer thread only.
+     * @return The next element or null if the queue is empty.
+     */
+    @Nullable
+    public E peek() {
+        long index = consumerIndex.get();
+        int offset = (int) index & mask;
+        E e = buffer.get(offset);
+        if(e == null && index != producerIndex.get()) {
+            do {
+                e = buffer.get(offset);
+            } while(e == null);
+        }
+        return e;
+    }
+
+    /**
+     * Remove up to limit elements and hand each to the consumer in order. Consumer thread only. The consumer
+     * index is only published once for the whole batch, with a volatile store.
+     * @param consumer What to do with each element.
+     * @param limit The maximum number of elements to remove.
+     * @return The number of elements removed.
+     */
+    public int drain(@NotNull Consumer<E> consumer, int limit) {
+        long start = consumerIndex.get();
+        long index = start;
+        long end = start + limit;
+        try {
+            while(index < end) {
+                int offset = (int) index & mask;
+                E e = buffer.get(offset);
+                if(e == null) {
+                    if(index == producerIndex.get())
+                        break;
+
+                    do {
+                        e = buffer.get(offset);
+                    } while(e == null);
+                }
+
+                buffer.lazySet(offset, null);
+                index++;
+                consumer.accept(e);
+            }
+        } finally {
+            // A full volatile store, unlike poll(). Once per batch is cheap, and it lets producers that check for
+            // room after flagging themselves as waiting reliably see the room a drain made.
+            if(index != start)
+                consumerIndex.set(index);
+        }
+        return (int) (index - start);
+    }
+
+    /**
+     * @return True, if there are no elements in the queue. Exact on the consumer thread, a snapshot elsewhere.
+     */
+    public boolean isEmpty() {
+        return consumerIndex.get() == producerIndex.get();
+    }
+
+    /**
+     * @return The number of elements in the queue. Exact on the consumer thread, a snapshot elsewhere.
+     */
+    public int size() {
+        long size = producerIndex.get() - consumerIndex.get();
+        return (int) Math.max(0, Math.min(size, capacity));
+    }
+}
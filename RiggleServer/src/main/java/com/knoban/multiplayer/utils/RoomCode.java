@@ -1,33 +1,37 @@
 package com.knoban.multiplayer.utils;
 
+import org.jetbrains.annotations.NotNull;
+
 import java.util.Arrays;
-import java.util.Random;
 
 /**
  * @author Alden Bansemer (kNoAPP)
  */
 public class RoomCode {
 
+    public static final int CODES = 26 * 26 * 26 * 26; // 456,976
+
     private char[] code;
 
     /**
-     * Generates a random 4-letter room code. This code is letters only and has 456,976 different possibilities.
-     * Warning! Room code does not check for vulgarities. It is entirely possible to get a room code like FUCK,
-     * ASSS, BTCH, or NIGG.
+     * Create the room code with the given number. Codes are numbered in base 26, AAAA being 0 and ZZZZ being
+     * CODES - 1. Warning! Room code does not check for vulgarities. Use a RoomCodeAllocator with a blocklist to
+     * keep codes like those from being handed out.
+     * @param index The number of the code.
      */
-    public RoomCode() {
-        code = new char[4];
+    public RoomCode(int index) {
+        if(index < 0 || index >= CODES)
+            throw new IllegalArgumentException("Room code number out of range: " + index);
 
-        Random rand = new Random();
-        rand.setSeed(System.currentTimeMillis());
-        for(int i=0; i<4; i++) {
-            code[i] = (char) (rand.nextInt(26) + 65);
+        code = new char[4];
+        for(int i=3; i>=0; i--) {
+            code[i] = (char) (index % 26 + 'A');
+            index /= 26;
         }
     }
 
     /**
-     * Create a room code from a String. The String must be 4 characters in length. No checks are made on if the
-     * passed String is letters-only.
+     * Create a room code from a String. The String must be 4 letters in length.
      * @param s The String to build a RoomCode from.
      */
     public RoomCode(String s) {
@@ -38,9 +42,70 @@ public class RoomCode {
         code = new char[4];
         for(int i=0; i<4; i++) {
             code[i] = s.charAt(i);
+            if(code[i] < 'A' || code[i] > 'Z')
+                throw new IllegalArgumentException("Constructed room code must be letters only!");
         }
     }
 
+    /**
+     * @param s The String to check.
+     * @return True, if the String is 4 letters and can be made into a RoomCode. Not case-sensitive.
+     */
+    public static boolean isValid(@NotNull CharSequence s) {
+        if(s.length() != 4)
+            return false;
+
+        for(int i=0; i<4; i++) {
+            char c = Character.toUpperCase(s.charAt(i));
+            if(c < 'A' || c > 'Z')
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Pack a code into 20 bits, 5 per letter, without creating a RoomCode. Packed codes are cheap to compare and
+     * hash, which makes them good keys. (see RoomRegistry)
+     * @param s A 4-letter code. Not case-sensitive.
+     * @return The packed code or -1 if the String is not a valid code.
+     */
+    public static int pack(@NotNull CharSequence s) {
+        if(s.length() != 4)
+            return -1;
+
+        int packed = 0;
+        for(int i=0; i<4; i++) {
+            char c = s.charAt(i);
+            if(c >= 'a' && c <= 'z')
+                c -= 'a' - 'A';
+            if(c < 'A' || c > 'Z')
+                return -1;
+
+            packed = packed << 5 | (c - 'A');
+        }
+        return packed;
+    }
+
+    /**
+     * @return This code packed into 20 bits, 5 per letter.
+     */
+    public int pack() {
+        int packed = 0;
+        for(int i=0; i<4; i++)
+            packed = packed << 5 | (code[i] - 'A');
+        return packed;
+    }
+
+    /**
+     * @return The number of this code, from 0 (AAAA) to CODES - 1 (ZZZZ).
+     */
+    public int getIndex() {
+        int index = 0;
+        for(int i=0; i<4; i++)
+            index = index * 26 + (code[i] - 'A');
+        return index;
+    }
+
     /**
      * House keeping for value comparisons.
      */
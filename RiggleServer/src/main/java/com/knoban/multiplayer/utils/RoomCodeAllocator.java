@@ -0,0 +1,118 @@
+package com.knoban.multiplayer.utils;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.security.SecureRandom;
+import java.util.Collection;
+import java.util.Random;
+
+/**
+ * Hands out unique room codes in random order. Every code is numbered 0 to 456,975. The free ones are kept packed
+ * at the front of an array and a second array tracks where each code sits. Allocating picks a random free slot
+ * and swaps the last free code into it, releasing appends the code back to the end, so both are O(1) no matter
+ * how full the code space is. Codes are picked with a SecureRandom so they can't be guessed from earlier ones.
+ * Safe to use from any thread.
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class RoomCodeAllocator {
+
+    private final int[] codes; // Free codes in [0, free), allocated and blocked codes after
+    private final int[] positions; // Where each code sits in codes
+    private final boolean[] blocked;
+    private int free;
+
+    private final Random random = new SecureRandom();
+
+    /**
+     * Create an allocator with every code free.
+     */
+    public RoomCodeAllocator() {
+        codes = new int[RoomCode.CODES];
+        positions = new int[RoomCode.CODES];
+        blocked = new boolean[RoomCode.CODES];
+        for(int i=0; i<RoomCode.CODES; i++) {
+            codes[i] = i;
+            positions[i] = i;
+        }
+        free = RoomCode.CODES;
+    }
+
+    /**
+     * Create an allocator that never hands out the passed codes.
+     * @param blocklist The codes to never hand out. (ex. offensive words)
+     */
+    public RoomCodeAllocator(@NotNull Collection<String> blocklist) {
+        this();
+        for(String code : blocklist)
+            block(code);
+    }
+
+    /**
+     * Never hand out the passed code. If it is in use right now, it is blocked once released.
+     * @param code A 4-letter code. Not case-sensitive.
+     * @return True, if the code wasn't already blocked.
+     */
+    public synchronized boolean block(@NotNull String code) {
+        int index = new RoomCode(code).getIndex();
+        if(blocked[index])
+            return false;
+
+        blocked[index] = true;
+        if(positions[index] < free)
+            take(index);
+        return true;
+    }
+
+    /**
+     * @return A random free code, which is in use until released.
+     * @throws RoomCodesExhaustedException If every code is in use or blocked.
+     */
+    @NotNull
+    public synchronized RoomCode allocate() {
+        if(free == 0)
+            throw new RoomCodesExhaustedException(RoomCode.CODES);
+
+        int index = codes[random.nextInt(free)];
+        take(index);
+        return new RoomCode(index);
+    }
+
+    /**
+     * Return a code so it may be handed out again.
+     * @param code A code handed out by this allocator.
+     */
+    public synchronized void release(@NotNull RoomCode code) {
+        int index = code.getIndex();
+        if(positions[index] < free)
+            throw new IllegalStateException("Room code " + code + " was not in use!");
+
+        if(blocked[index])
+            return; // Stays out of the free set for good.
+
+        swap(positions[index], free++);
+    }
+
+    /**
+     * @return The number of codes that can still be handed out.
+     */
+    public synchronized int getFree() {
+        return free;
+    }
+
+    /**
+     * Move a free code to the end of the free set and shrink the set past it.
+     * @param index The free code to take.
+     */
+    private void take(int index) {
+        swap(positions[index], --free);
+    }
+
+    private void swap(int a, int b) {
+        int codeA = codes[a];
+        int codeB = codes[b];
+        codes[a] = codeB;
+        codes[b] = codeA;
+        positions[codeB] = a;
+        positions[codeA] = b;
+    }
+}
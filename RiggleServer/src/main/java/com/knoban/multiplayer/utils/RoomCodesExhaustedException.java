@@ -0,0 +1,14 @@
+package com.knoban.multiplayer.utils;
+
+/**
+ * Thrown when a room code is needed but every code is already in use or blocked.
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class RoomCodesExhaustedException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    public RoomCodesExhaustedException(int codes) {
+        super("All " + codes + " room codes are in use!");
+    }
+}
@@ -0,0 +1,215 @@
+package com.knoban.multiplayer.utils;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Maps room codes to rooms. Keys are packed room codes (see RoomCode#pack()) in an open-addressing table with
+ * linear probing. Lookups are lock-free and allocate nothing, so any shard or I/O thread may call get() at any
+ * time. Registering and unregistering lock, since rooms come and go far less often than they're looked up.
+ * Codes are handed out by the registry's RoomCodeAllocator, so a code is never reused while its room is still
+ * registered.
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class RoomRegistry<R> {
+
+    private static final int INITIAL_CAPACITY = 1 << 10;
+    private static final Entry<?> TOMBSTONE = new Entry<>(-1, null); // Keeps probe chains intact after removal
+
+    private final RoomCodeAllocator allocator;
+    private volatile AtomicReferenceArray<Entry<R>> table = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+    private int size; // Only touched while locked
+    private int tombstones;
+
+    /**
+     * Create an empty registry that can hand out every room code.
+     */
+    public RoomRegistry() {
+        this(new RoomCodeAllocator());
+    }
+
+    /**
+     * @param allocator The allocator room codes are handed out from. (ex. one with a blocklist)
+     */
+    public RoomRegistry(@NotNull RoomCodeAllocator allocator) {
+        this.allocator = allocator;
+    }
+
+    /**
+     * Reserve a new, unique code for a room. Register the room under it once the room is ready to be looked up.
+     * @return The reserved code.
+     * @throws RoomCodesExhaustedException If every room code is in use.
+     */
+    @NotNull
+    public RoomCode allocate() {
+        return allocator.allocate();
+    }
+
+    /**
+     * List a room under a code reserved with allocate(). Other threads may find the room as soon as this is
+     * called, so call it once the room is fully built.
+     * @param code The code reserved for the room.
+     * @param room The room to register.
+     */
+    public synchronized void register(@NotNull RoomCode code, @NotNull R room) {
+        if((size + tombstones + 1) << 1 > table.length())
+            resize();
+
+        AtomicReferenceArray<Entry<R>> table = this.table;
+        int mask = table.length() - 1;
+        int packed = code.pack();
+        int i = indexOf(packed, mask);
+        int reuse = -1; // The first tombstone, taken once the whole chain is known not to hold the code
+        Entry<R> entry;
+        while((entry = table.get(i)) != null) {
+            if(entry.key == packed)
+                throw new IllegalStateException("Room code " + code + " is already registered!");
+            if(entry == TOMBSTONE && reuse < 0)
+                reuse = i;
+            i = (i + 1) & mask;
+        }
+
+        if(reuse >= 0) {
+            i = reuse;
+            --tombstones;
+        }
+        table.set(i, new Entry<>(packed, room));
+        ++size;
+    }
+
+    /**
+     * Remove a room and free its code.
+     * @param code The room's code.
+     * @param room The room. Nothing happens if the code belongs to another room.
+     * @return True, if the room was registered under the code and now isn't.
+     */
+    public boolean unregister(@NotNull RoomCode code, @NotNull R room) {
+        synchronized(this) {
+            AtomicReferenceArray<Entry<R>> table = this.table;
+            int mask = table.length() - 1;
+            int packed = code.pack();
+            for(int i = indexOf(packed, mask);; i = (i + 1) & mask) {
+                Entry<R> entry = table.get(i);
+                if(entry == null)
+                    return false;
+
+                if(entry.key == packed) {
+                    if(entry.room != room)
+                        return false;
+
+                    table.set(i, tombstone());
+                    --size;
+                    ++tombstones;
+                    break;
+                }
+            }
+        }
+
+        allocator.release(code);
+        return true;
+    }
+
+    /**
+     * @param packed A packed room code. (see RoomCode#pack())
+     * @return The room with the code or null if there isn't one.
+     */
+    @Nullable
+    public R get(int packed) {
+        if(packed < 0)
+            return null;
+
+        AtomicReferenceArray<Entry<R>> table = this.table;
+        int mask = table.length() - 1;
+        for(int i = indexOf(packed, mask);; i = (i + 1) & mask) {
+            Entry<R> entry = table.get(i);
+            if(entry == null)
+                return null;
+
+            if(entry.key == packed) // Never a tombstone, their key is -1
+                return entry.room;
+        }
+    }
+
+    /**
+     * @param code A 4-letter code. Not case-sensitive.
+     * @return The room with the code or null if there isn't one.
+     */
+    @Nullable
+    public R get(@NotNull CharSequence code) {
+        return get(RoomCode.pack(code));
+    }
+
+    /**
+     * @param code A room code.
+     * @return The room with the code or null if there isn't one.
+     */
+    @Nullable
+    public R get(@NotNull RoomCode code) {
+        return get(code.pack());
+    }
+
+    /**
+     * @return The number of registered rooms.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return The allocator room codes are handed out from. Block offensive codes with it on startup.
+     */
+    @NotNull
+    public RoomCodeAllocator getAllocator() {
+        return allocator;
+    }
+
+    /**
+     * Copy live entries into a fresh table, dropping tombstones and doubling if needed. Readers still probing the
+     * old table finish against it. Called while locked.
+     */
+    private void resize() {
+        AtomicReferenceArray<Entry<R>> old = table;
+        int capacity = old.length();
+        while((size + 1) << 2 > capacity) // Leave the new table at most a quarter full
+            capacity <<= 1;
+
+        AtomicReferenceArray<Entry<R>> grown = new AtomicReferenceArray<>(capacity);
+        int mask = capacity - 1;
+        for(int j=0; j<old.length(); j++) {
+            Entry<R> entry = old.get(j);
+            if(entry == null || entry == TOMBSTONE)
+                continue;
+
+            int i = indexOf(entry.key, mask);
+            while(grown.get(i) != null)
+                i = (i + 1) & mask;
+            grown.set(i, entry);
+        }
+
+        tombstones = 0;
+        table = grown;
+    }
+
+    private static int indexOf(int packed, int mask) {
+        int hash = packed * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <R> Entry<R> tombstone() {
+        return (Entry<R>) TOMBSTONE;
+    }
+
+    private static final class Entry<R> {
+
+        private final int key;
+        private final R room;
+
+        private Entry(int key, R room) {
+            this.key = key;
+            this.room = room;
+        }
+    }
+}
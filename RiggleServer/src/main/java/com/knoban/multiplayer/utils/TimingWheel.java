@@ -0,0 +1,133 @@
+package com.knoban.multiplayer.utils;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A hashed timing wheel. Time is cut into ticks and every scheduled item sits in the slot for the tick its deadline
+ * falls in, so scheduling is O(1) and each tick only looks at the items in its own slot. Deadlines further out than
+ * one turn of the wheel wait in their slot for later turns.
+ * <br><br>
+ * Items are never cancelled. When an item comes due, the expiry decides whether it is done or when to look at it
+ * next. Owners that keep pushing their deadline back (ex. on every read) just note the time and answer with the
+ * real deadline once the old one comes up, which costs nothing per update.
+ * <br><br>
+ * schedule() is safe to call from any Thread. advance() must only ever be called from one.
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class TimingWheel<T> {
+
+    public static final long CANCEL = Long.MIN_VALUE; // Returned by an Expiry to drop the item
+
+    private final long tickNanos;
+    private final Node<T>[] slots;
+    private final int mask;
+    private final long origin;
+    private long tick; // The next tick to expire. Only touched by the advancing Thread.
+    private final Queue<Node<T>> pending = new ConcurrentLinkedQueue<>(); // Scheduled, not yet in a slot
+
+    /**
+     * @param tickNanos How long each tick lasts. Deadlines are rounded up to the end of their tick.
+     * @param slots The number of slots. Rounded up to a power of two.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimingWheel(long tickNanos, int slots) {
+        if(tickNanos < 1 || slots < 1)
+            throw new IllegalArgumentException("Timing wheels need a positive tick and slot count!");
+
+        int size = Integer.highestOneBit(slots);
+        if(size < slots)
+            size <<= 1;
+
+        this.tickNanos = tickNanos;
+        this.slots = (Node<T>[]) new Node[size];
+        this.mask = size - 1;
+        this.origin = System.nanoTime();
+    }
+
+    /**
+     * @return How long each tick lasts.
+     */
+    public long getTickNanos() {
+        return tickNanos;
+    }
+
+    /**
+     * Schedule an item. It lands in its slot on the next call to advance().
+     * @param item The item.
+     * @param deadline When the item is due. (in System.nanoTime())
+     */
+    public void schedule(@NotNull T item, long deadline) {
+        pending.offer(new Node<>(item, deadline));
+    }
+
+    /**
+     * Expire every tick that ended by now, handing each due item to the expiry.
+     * @param now The current System.nanoTime().
+     * @param expiry Decides what happens to due items.
+     * @return The number of items that came due.
+     */
+    public int advance(long now, @NotNull Expiry<T> expiry) {
+        Node<T> node;
+        while((node = pending.poll()) != null)
+            insert(node);
+
+        int expired = 0;
+        long tickEnd;
+        while(now - (tickEnd = origin + (tick + 1) * tickNanos) >= 0) {
+            int i = (int) (tick++ & mask);
+            node = slots[i];
+            slots[i] = null;
+            while(node != null) {
+                Node<T> next = node.next;
+                if(node.deadline - tickEnd >= 0) {
+                    insert(node); // Due on a later turn of the wheel
+                } else {
+                    ++expired;
+                    long deadline = expiry.expired(node.item, now);
+                    if(deadline != CANCEL) {
+                        node.deadline = deadline;
+                        insert(node); // No earlier than the next tick, so this loop always ends
+                    }
+                }
+                node = next;
+            }
+        }
+        return expired;
+    }
+
+    private void insert(@NotNull Node<T> node) {
+        long due = Math.max(tick, Math.floorDiv(node.deadline - origin, tickNanos));
+        int i = (int) (due & mask);
+        node.next = slots[i];
+        slots[i] = node;
+    }
+
+    /**
+     * Decides what happens to an item once its deadline passes.
+     */
+    @FunctionalInterface
+    public interface Expiry<T> {
+
+        /**
+         * @param item The item that came due.
+         * @param now The time the wheel was advanced to.
+         * @return The item's next deadline or CANCEL to drop it.
+         */
+        long expired(@NotNull T item, long now);
+    }
+
+    private static final class Node<T> {
+
+        private final T item;
+        private long deadline;
+        private Node<T> next;
+
+        private Node(T item, long deadline) {
+            this.item = item;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.knoban.multiplayer.utils;
+
+/**
+ * A token bucket. Tokens refill at a steady rate up to the bucket's capacity, and every unit of work takes one. Bursts
+ * up to the capacity go through right away, after which work is limited to the refill rate. Starts out full.
+ * <br><br>
+ * Not Thread-safe. Meant to be owned by a single Thread, like a connection's reader.
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class TokenBucket {
+
+    private final double tokensPerNano;
+    private final int capacity;
+    private double tokens;
+    private long refilledAt;
+
+    /**
+     * @param tokensPerSecond How fast tokens refill.
+     * @param capacity The most tokens the bucket holds.
+     */
+    public TokenBucket(double tokensPerSecond, int capacity) {
+        if(tokensPerSecond <= 0 || capacity < 1)
+            throw new IllegalArgumentException("Token buckets need a positive rate and capacity!");
+
+        this.tokensPerNano = tokensPerSecond / 1e9;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.refilledAt = System.nanoTime();
+    }
+
+    private void refill(long now) {
+        long elapsed = now - refilledAt;
+        if(elapsed <= 0)
+            return;
+
+        tokens = Math.min(capacity, tokens + elapsed * tokensPerNano);
+        refilledAt = now;
+    }
+
+    /**
+     * @param count The number of tokens needed.
+     * @param now The current System.nanoTime().
+     * @return How many nanoseconds until the tokens are available, 0 if they are now, or Long.MAX_VALUE if the
+     * bucket can never hold that many.
+     */
+    public long nanosUntil(int count, long now) {
+        if(count > capacity)
+            return Long.MAX_VALUE;
+
+        refill(now);
+        if(tokens >= count)
+            return 0;
+
+        return Math.max(1, (long) Math.ceil((count - tokens) / tokensPerNano));
+    }
+
+    /**
+     * Take tokens if they are available.
+     * @param count The number of tokens to take.
+     * @param now The current System.nanoTime().
+     * @return True, if the tokens were taken.
+     */
+    public boolean tryTake(int count, long now) {
+        if(nanosUntil(count, now) != 0)
+            return false;
+
+        tokens -= count;
+        return true;
+    }
+
+    /**
+     * Put back tokens that were taken but not used.
+     * @param count The number of tokens to put back.
+     */
+    public void giveBack(int count) {
+        tokens = Math.min(capacity, tokens + count);
+    }
+
+    /**
+     * @return The most tokens the bucket holds.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,30 @@
+package com.knoban.multiplayer.server;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Virtual thread support for Java 21 and newer.
+ * @author Alden Bansemer (kNoAPP)
+ */
+class VirtualThreads {
+
+    private VirtualThreads() {}
+
+    /**
+     * @return True, if this runtime supports virtual threads.
+     */
+    static boolean isSupported() {
+        return true;
+    }
+
+    /**
+     * Start running a task on a new virtual thread.
+     * @param name The name to give the thread.
+     * @param task The task to run.
+     * @return The started thread.
+     */
+    @NotNull
+    static Thread start(@NotNull String name, @NotNull Runnable task) {
+        return Thread.ofVirtual().name(name).start(task);
+    }
+}
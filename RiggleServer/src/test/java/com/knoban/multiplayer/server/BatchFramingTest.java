@@ -0,0 +1,200 @@
+package com.knoban.multiplayer.server;
+
+import com.knoban.multiplayer.requests.GeneralRequestCode;
+import com.knoban.multiplayer.requests.RequestFulfillment;
+import com.knoban.multiplayer.requests.RequestRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Sends batches to a server on a loopback port and reads back the raw frames.
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class BatchFramingTest {
+
+    private static final short ECHO = 1; // S32 in, the same S32 out
+
+    @Test
+    public void answersABatchInOneFrameInOrderOnBlocking() throws Exception {
+        answersABatchInOneFrameInOrder(MultiplayerServer.TransportMode.BLOCKING);
+    }
+
+    @Test
+    public void answersABatchInOneFrameInOrderOnNio() throws Exception {
+        answersABatchInOneFrameInOrder(MultiplayerServer.TransportMode.NIO);
+    }
+
+    private void answersABatchInOneFrameInOrder(MultiplayerServer.TransportMode transportMode) throws Exception {
+        MultiplayerServer server = open(transportMode);
+        try(Client client = new Client(server.getPort())) {
+            client.batch(
+                    request(ECHO, le32(1)),
+                    request(GeneralRequestCode.HEARTBEAT, new byte[] {0}),
+                    request(ECHO, new byte[] {2, 0}), // Too short to decode, so it's skipped
+                    request(GeneralRequestCode.PROTOCOL, new byte[] {2, 0}), // Can't be batched
+                    request(ECHO, le32(3)));
+
+            ByteBuffer batch = client.read(GeneralRequestCode.BATCH);
+            assertEquals(Arrays.asList("1:1", GeneralRequestCode.HEARTBEAT + ":1", "1:3"), subResponses(batch));
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void aBadLengthDropsOnlyTheBatch() throws Exception {
+        MultiplayerServer server = open(MultiplayerServer.TransportMode.BLOCKING);
+        try(Client client = new Client(server.getPort())) {
+            client.batch(request(ECHO, le32(1)), concat(le16(ECHO), le32(50))); // Claims more than the batch holds
+            client.send(le16(GeneralRequestCode.HANDSHAKE), le16(ECHO), le32(4), le32(7));
+
+            ByteBuffer echo = client.read(ECHO);
+            assertEquals(7, echo.getInt());
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void aBatchOfNothingButSkippedRequestsIsNotAnswered() throws Exception {
+        MultiplayerServer server = open(MultiplayerServer.TransportMode.NIO);
+        try(Client client = new Client(server.getPort())) {
+            client.batch(request(GeneralRequestCode.BATCH, new byte[0]), request(ECHO, new byte[0]));
+            client.send(le16(GeneralRequestCode.HANDSHAKE), le16(ECHO), le32(4), le32(8));
+
+            ByteBuffer echo = client.read(ECHO); // Would be the batch's answer if it had one
+            assertEquals(8, echo.getInt());
+        } finally {
+            server.close();
+        }
+    }
+
+    private static MultiplayerServer open(MultiplayerServer.TransportMode transportMode) throws IOException {
+        int port;
+        try(ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+
+        RequestRegistry<MultiplayerConnection> registry = new RequestRegistry<>(MultiplayerConnection.class);
+        registry.register(ECHO, "ECHO", in -> new Echo(in.readS32()), (connection, data) -> {
+            connection.beginResponse(ECHO);
+            connection.out.writeS32(data.value);
+        });
+
+        MultiplayerServer server = new MultiplayerServer(port);
+        server.setTransportMode(transportMode);
+        server.setRequestRegistry(registry);
+        server.open();
+        server.startProcessingRequests();
+        return server;
+    }
+
+    /**
+     * @param batch The body of a batch response.
+     * @return Each response in it as code:S32 for echoes or code:S8 for heartbeats.
+     */
+    private static List<String> subResponses(ByteBuffer batch) {
+        List<String> responses = new ArrayList<>();
+        while(batch.hasRemaining()) {
+            short requestCode = batch.getShort();
+            int length = batch.getInt();
+            int value = length == 4 ? batch.getInt() : batch.get();
+            responses.add(requestCode + ":" + value);
+        }
+        return responses;
+    }
+
+    private static byte[] request(short requestCode, byte[] data) {
+        return concat(le16(requestCode), le32(data.length), data);
+    }
+
+    private static byte[] le16(short value) {
+        return ByteBuffer.allocate(2).order(ByteOrder.LITTLE_ENDIAN).putShort(value).array();
+    }
+
+    private static byte[] le32(int value) {
+        return ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(value).array();
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for(byte[] part : parts)
+            bytes.write(part, 0, part.length);
+        return bytes.toByteArray();
+    }
+
+    private static final class Echo implements RequestFulfillment {
+
+        private final int value;
+
+        private Echo(int value) {
+            this.value = value;
+        }
+    }
+
+    /**
+     * A client that has agreed on protocol v2, so every frame in either direction carries its length.
+     */
+    private static final class Client implements AutoCloseable {
+
+        private final Socket socket;
+        private final OutputStream out;
+        private final DataInputStream in;
+
+        private Client(int port) throws IOException {
+            socket = new Socket("127.0.0.1", port);
+            socket.setSoTimeout(5000);
+            out = socket.getOutputStream();
+            in = new DataInputStream(socket.getInputStream());
+
+            send(le16(GeneralRequestCode.HANDSHAKE), le16(GeneralRequestCode.PROTOCOL), le16((short) 2));
+            byte[] answer = new byte[6];
+            in.readFully(answer); // Still in v1 framing
+            assertEquals(2, ByteBuffer.wrap(answer).order(ByteOrder.LITTLE_ENDIAN).getShort(4));
+        }
+
+        private void send(byte[]... parts) throws IOException {
+            out.write(concat(parts));
+            out.flush();
+        }
+
+        private void batch(byte[]... requests) throws IOException {
+            byte[] body = concat(requests);
+            send(le16(GeneralRequestCode.HANDSHAKE), le16(GeneralRequestCode.BATCH), le32(body.length), body);
+        }
+
+        /**
+         * @param requestCode The response expected next.
+         * @return Its body.
+         */
+        private ByteBuffer read(short requestCode) throws IOException {
+            byte[] header = new byte[8];
+            in.readFully(header);
+            ByteBuffer buffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+            assertEquals(GeneralRequestCode.HANDSHAKE, buffer.getShort());
+            assertEquals(requestCode, buffer.getShort());
+
+            byte[] body = new byte[buffer.getInt()];
+            in.readFully(body);
+            return ByteBuffer.wrap(body).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.knoban.multiplayer.streams;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class CSInputStreamTest {
+
+    @Test
+    public void fixedWidthValuesRoundTrip() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CSOutputStream out = new CSOutputStream(bytes);
+        out.writeS8(Byte.MIN_VALUE);
+        out.writeS16(Short.MAX_VALUE);
+        out.writeS32(Integer.MIN_VALUE);
+        out.writeS64(Long.MAX_VALUE);
+        out.writeF32(1.5F);
+        out.writeF64(-0.25);
+        out.flush();
+
+        CSInputStream in = new CSInputStream(trickle(bytes.toByteArray()));
+        assertEquals(Byte.MIN_VALUE, in.readS8());
+        assertEquals(Short.MAX_VALUE, in.peekS16());
+        assertEquals(Short.MAX_VALUE, in.readS16());
+        assertEquals(Integer.MIN_VALUE, in.readS32());
+        assertEquals(Long.MAX_VALUE, in.readS64());
+        assertEquals(1.5F, in.readF32());
+        assertEquals(-0.25, in.readF64());
+        assertThrows(EOFException.class, in::readS8);
+    }
+
+    @Test
+    public void valuesAreLittleEndian() throws IOException {
+        CSInputStream in = new CSInputStream(new ByteArrayInputStream(new byte[] {0x01, 0x02, 0x03, 0x04}));
+        assertEquals(0x04030201, in.readS32());
+    }
+
+    @Test
+    public void readsPastTheDefaultBufferSize() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CSOutputStream out = new CSOutputStream(bytes);
+        for(int i=0; i<10_000; i++)
+            out.writeS32(i);
+        out.flush();
+
+        CSInputStream in = new CSInputStream(trickle(bytes.toByteArray()));
+        for(int i=0; i<10_000; i++)
+            assertEquals(i, in.readS32());
+    }
+
+    @Test
+    public void framesStopReadsAtTheirEnd() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CSOutputStream out = new CSOutputStream(bytes);
+        out.beginFrame();
+        out.writeS32(7);
+        out.writeS32(8); // Left unread
+        out.endFrame();
+        out.writeS16((short) 9);
+        out.flush();
+
+        CSInputStream in = new CSInputStream(trickle(bytes.toByteArray()));
+        in.beginFrame(in.readS32());
+        assertEquals(7, in.readS32());
+        assertEquals(4, in.available());
+        assertThrows(EOFException.class, in::readS64);
+        in.endFrame();
+        assertEquals(9, in.readS16());
+    }
+
+    @Test
+    public void nestedFramesRestoreTheOuterLimit() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        CSInputStream in = new CSInputStream(buffer);
+        buffer.putInt(1).putInt(2).putInt(3);
+        buffer.flip();
+
+        in.beginFrame(8);
+        in.beginFrame(4);
+        assertEquals(1, in.readS32());
+        assertThrows(EOFException.class, in::readS8);
+        in.endFrame();
+        assertEquals(2, in.readS32());
+        in.endFrame();
+        assertEquals(3, in.readS32());
+    }
+
+    @Test
+    public void skipReadsThroughTheSource() throws IOException {
+        byte[] data = new byte[20_000];
+        data[data.length - 1] = 42;
+        CSInputStream in = new CSInputStream(trickle(data));
+        assertEquals(data.length - 1, in.skip(data.length - 1));
+        assertEquals(42, in.readS8());
+        assertThrows(EOFException.class, () -> in.skip(1));
+    }
+
+    @Test
+    public void bufferBackedStreamsThrowInsteadOfBlocking() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        buffer.put((byte) 1).put((byte) 0);
+        buffer.flip();
+
+        CSInputStream in = new CSInputStream(buffer);
+        buffer.mark();
+        assertThrows(EOFException.class, in::readS32);
+        buffer.reset(); // Callers retry once the rest arrives
+        assertEquals(1, in.readS16());
+        assertEquals(0, in.available());
+    }
+
+    @Test
+    public void varIntsRoundTripAtEveryLength() throws IOException {
+        int[] values = {0, 1, 0x7F, 0x80, 0x3FFF, 0x4000, 0x1FFFFF, 0x200000, 0xFFFFFFF, 0x10000000, Integer.MAX_VALUE};
+        int[] lengths = {1, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5};
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CSOutputStream out = new CSOutputStream(bytes);
+        for(int i=0; i<values.length; i++) {
+            int before = out.size();
+            out.writeVarInt(values[i]);
+            assertEquals(lengths[i], out.size() - before, "Length of " + values[i]);
+        }
+        out.flush();
+
+        CSInputStream in = new CSInputStream(trickle(bytes.toByteArray()));
+        for(int value : values)
+            assertEquals(value, in.readVarInt());
+    }
+
+    @Test
+    public void varIntsThatDontFitAnIntAreRejected() {
+        assertEquals(Integer.MAX_VALUE, assertDoesNotThrow(() -> varInt(0xFF, 0xFF, 0xFF, 0xFF, 0x07)));
+        assertThrows(IOException.class, () -> varInt(0xFF, 0xFF, 0xFF, 0xFF, 0x08)); // Sign bit
+        assertThrows(IOException.class, () -> varInt(0x80, 0x80, 0x80, 0x80, 0x10)); // Bits past 32
+        assertThrows(IOException.class, () -> varInt(0x80, 0x80, 0x80, 0x80, 0x70));
+        assertThrows(IOException.class, () -> varInt(0x80, 0x80, 0x80, 0x80, 0x80, 0x00)); // Six bytes
+    }
+
+    @Test
+    public void negativeVarIntsAreWrittenButNotRead() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CSOutputStream out = new CSOutputStream(bytes);
+        out.writeVarInt(-1);
+        assertEquals(5, out.size());
+        out.flush();
+
+        assertThrows(IOException.class, new CSInputStream(new ByteArrayInputStream(bytes.toByteArray()))::readVarInt);
+    }
+
+    @Test
+    public void utf8StringsRoundTrip() throws IOException {
+        String[] strings = {"", "ABCD", "caf\u00e9", "\u65e5\u672c", "\ud83d\ude00 smile", repeat('x', 20_000)};
+        CSInputStream in = roundTrip(StringEncoding.UTF8_PREFIXED, strings);
+        for(String string : strings)
+            assertEquals(string, in.readString());
+    }
+
+    @Test
+    public void unpairedSurrogatesBecomeQuestionMarks() throws IOException {
+        CSInputStream in = roundTrip(StringEncoding.UTF8_PREFIXED, "a\ud83db", "\ude00");
+        assertEquals("a?b", in.readString());
+        assertEquals("?", in.readString());
+    }
+
+    @Test
+    public void nulTerminatedStringsRoundTripLatin1() throws IOException {
+        CSInputStream in = roundTrip(StringEncoding.NUL_TERMINATED, "", "caf\u00e9", "\u65e5", repeat('y', 20_000));
+        assertEquals("", in.readString());
+        assertEquals("caf\u00e9", in.readString());
+        assertEquals("?", in.readString()); // Past Latin-1
+        assertEquals(repeat('y', 20_000), in.readString());
+    }
+
+    @Test
+    public void skippedStringsLeaveTheNextOneIntact() throws IOException {
+        for(StringEncoding encoding : StringEncoding.values()) {
+            CSInputStream in = roundTrip(encoding, "skip me", "\u00e9", "keep");
+            in.skipString();
+            in.skipString();
+            assertEquals("keep", in.readString(), encoding.name());
+        }
+    }
+
+    @Test
+    public void cachedStringsAreReused() throws IOException {
+        StringCache cache = new StringCache(16);
+        CSInputStream in = roundTrip(StringEncoding.UTF8_PREFIXED, "ABCD", "ABCD", "caf\u00e9");
+        in.setStringCache(cache);
+        String first = in.readString();
+        assertSame(first, in.readString());
+        assertEquals("caf\u00e9", in.readString()); // Not ASCII, so decoded instead
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @NotNull
+    private static CSInputStream roundTrip(@NotNull StringEncoding encoding, @NotNull String... strings)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CSOutputStream out = new CSOutputStream(bytes);
+        out.setStringEncoding(encoding);
+        for(String string : strings)
+            out.writeString(string);
+        out.flush();
+
+        CSInputStream in = new CSInputStream(trickle(bytes.toByteArray()));
+        in.setStringEncoding(encoding);
+        return in;
+    }
+
+    private static int varInt(int... bytes) throws IOException {
+        byte[] data = new byte[bytes.length];
+        for(int i=0; i<bytes.length; i++)
+            data[i] = (byte) bytes[i];
+        return new CSInputStream(new ByteArrayInputStream(data)).readVarInt();
+    }
+
+    @NotNull
+    private static String repeat(char c, int times) {
+        char[] chars = new char[times];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    /**
+     * @param data The bytes to read.
+     * @return A stream that hands out at most 3 bytes per read, so every value straddles refills.
+     */
+    @NotNull
+    static InputStream trickle(@NotNull byte[] data) {
+        return new ByteArrayInputStream(data) {
+            @Override
+            public synchronized int read(@NotNull byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 3));
+            }
+        };
+    }
+}
@@ -0,0 +1,179 @@
+package com.knoban.multiplayer.streams;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class FrameDeflaterTest {
+
+    private static final byte[] DICTIONARY = "{\"room\":\"\",\"players\":[],\"leader\":\"\",\"inGame\":false}"
+            .getBytes(StandardCharsets.UTF_8);
+    private static final byte[] DATA = ("{\"room\":\"ABCD\",\"players\":[\"alice\",\"bob\"],\"leader\":\"alice\","
+            + "\"inGame\":false}").getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void roundTripsWithoutADictionary() throws IOException {
+        byte[] data = repeat(DATA, 20);
+        ByteBuffer frame = deflate(new FrameDeflater(Deflater.DEFAULT_COMPRESSION, null, 64, null), data);
+        assertTrue(frame.limit() < data.length);
+
+        assertArrayEquals(data, inflate(new FrameInflater(null, 1 << 20, null), frame));
+    }
+
+    @Test
+    public void roundTripsWithADictionary() throws IOException {
+        FrameDeflater plain = new FrameDeflater(Deflater.DEFAULT_COMPRESSION, null, 0, null);
+        assertFalse(plain.deflate(frame(DATA), 4, DATA.length)); // Too short to shrink without the dictionary
+
+        ByteBuffer primed = deflate(new FrameDeflater(Deflater.DEFAULT_COMPRESSION, DICTIONARY, 0, null), DATA);
+        assertTrue(primed.limit() < 4 + DATA.length);
+
+        assertArrayEquals(DATA, inflate(new FrameInflater(DICTIONARY, 1 << 20, null), primed));
+    }
+
+    @Test
+    public void framesDoNotDependOnEachOther() throws IOException {
+        FrameDeflater deflater = new FrameDeflater(Deflater.DEFAULT_COMPRESSION, DICTIONARY, 0, null);
+        FrameInflater inflater = new FrameInflater(DICTIONARY, 1 << 20, null);
+        ByteBuffer first = deflate(deflater, DATA);
+        ByteBuffer second = deflate(deflater, repeat(DATA, 3));
+
+        assertArrayEquals(repeat(DATA, 3), inflate(inflater, second)); // Out of order on purpose
+        assertArrayEquals(DATA, inflate(inflater, first));
+        deflater.end();
+        inflater.end();
+    }
+
+    @Test
+    public void smallAndIncompressibleFramesAreLeftRaw() {
+        FrameDeflater deflater = new FrameDeflater(Deflater.DEFAULT_COMPRESSION, null, 64, null);
+        assertFalse(deflater.deflate(frame(Arrays.copyOf(DATA, 63)), 4, 63));
+
+        byte[] noise = new byte[1024];
+        new Random(7).nextBytes(noise);
+        ByteBuffer frame = frame(noise);
+        assertFalse(deflater.deflate(frame, 4, noise.length));
+        assertEquals(4 + noise.length, frame.position());
+        assertEquals(noise.length, frame.getInt(0));
+    }
+
+    @Test
+    public void aMissingOrDifferentDictionaryFailsAsAnIOException() {
+        ByteBuffer primed = deflate(new FrameDeflater(Deflater.DEFAULT_COMPRESSION, DICTIONARY, 0, null), DATA);
+        byte[] other = Arrays.copyOf(DICTIONARY, DICTIONARY.length);
+        other[0] = '[';
+
+        assertThrows(IOException.class, () -> inflate(new FrameInflater(null, 1 << 20, null), primed.duplicate()));
+        assertThrows(IOException.class, () -> inflate(new FrameInflater(other, 1 << 20, null), primed.duplicate()));
+    }
+
+    @Test
+    public void rejectsFramesThatLieAboutTheirLength() {
+        ByteBuffer frame = deflate(new FrameDeflater(Deflater.DEFAULT_COMPRESSION, null, 0, null), repeat(DATA, 20));
+        FrameInflater inflater = new FrameInflater(null, 1 << 20, null);
+
+        ByteBuffer tooLong = frame.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        tooLong.putInt(4, 2 << 20);
+        assertThrows(IOException.class, () -> inflate(inflater, tooLong));
+
+        ByteBuffer wrongLength = frame.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        wrongLength.putInt(4, DATA.length * 20 - 1);
+        assertThrows(IOException.class, () -> inflate(inflater, wrongLength));
+
+        ByteBuffer truncated = frame.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        truncated.limit(truncated.limit() - 4);
+        assertThrows(IOException.class, () -> inflate(inflater, truncated));
+
+        ByteBuffer corrupt = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        corrupt.putInt(0, 8 | FrameDeflater.COMPRESSED).putInt(4, 100).putInt(8, 0xDEADBEEF);
+        assertThrows(IOException.class, () -> inflate(inflater, corrupt));
+    }
+
+    @Test
+    public void inflatesFromDirectBuffers() throws IOException {
+        ByteBuffer frame = deflate(new FrameDeflater(Deflater.DEFAULT_COMPRESSION, DICTIONARY, 0, null), DATA);
+        ByteBuffer direct = ByteBuffer.allocateDirect(frame.limit()).order(ByteOrder.LITTLE_ENDIAN);
+        direct.put(frame.duplicate()).flip();
+
+        assertArrayEquals(DATA, inflate(new FrameInflater(DICTIONARY, 1 << 20, null), direct));
+    }
+
+    @Test
+    public void streamsRoundTripCompressedFrames() throws IOException {
+        String text = new String(repeat(DATA, 10), StandardCharsets.UTF_8);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CSOutputStream out = new CSOutputStream(bytes);
+        out.setDeflater(new FrameDeflater(Deflater.BEST_SPEED, DICTIONARY, 64, null));
+        out.beginFrame();
+        out.writeString(text);
+        out.endFrame();
+        out.writeS8((byte) 42); // Raw, after the frame
+        out.flush();
+        assertTrue(bytes.size() < text.length());
+
+        CSInputStream in = new CSInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        in.setInflater(new FrameInflater(DICTIONARY, 1 << 20, null));
+        int length = in.readS32();
+        assertTrue((length & FrameDeflater.COMPRESSED) != 0);
+        in.beginFrame(length);
+        assertEquals(text, in.readString());
+        in.endFrame();
+        assertEquals(42, in.readS8());
+    }
+
+    /**
+     * @param data The frame's data.
+     * @return A little-endian buffer holding the frame, positioned at its end.
+     */
+    private static ByteBuffer frame(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + data.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(data.length).put(data);
+        return buffer;
+    }
+
+    /**
+     * @return The compressed frame, S32 length included, ready for reading.
+     */
+    private static ByteBuffer deflate(FrameDeflater deflater, byte[] data) {
+        ByteBuffer buffer = frame(data);
+        assertTrue(deflater.deflate(buffer, 4, data.length));
+        buffer.flip();
+        return buffer;
+    }
+
+    private static byte[] inflate(FrameInflater inflater, ByteBuffer frame) throws IOException {
+        frame.order(ByteOrder.LITTLE_ENDIAN); // Lost by duplicate()
+        int length = frame.getInt(frame.position());
+        assertTrue((length & FrameDeflater.COMPRESSED) != 0);
+        frame.position(frame.position() + 4);
+
+        ByteBuffer inflated = inflater.inflate(frame, Math.min(length & ~FrameDeflater.COMPRESSED, frame.remaining()));
+        byte[] data = new byte[inflated.remaining()];
+        inflated.get(data);
+        return data;
+    }
+
+    private static byte[] repeat(byte[] data, int times) {
+        byte[] repeated = new byte[data.length * times];
+        for(int i=0; i<times; i++)
+            System.arraycopy(data, 0, repeated, i * data.length, data.length);
+        return repeated;
+    }
+}
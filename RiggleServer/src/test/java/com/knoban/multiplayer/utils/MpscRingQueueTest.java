@@ -0,0 +1,124 @@
+package com.knoban.multiplayer.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class MpscRingQueueTest {
+
+    @Test
+    public void capacityIsRoundedUpToAPowerOfTwo() {
+        assertEquals(8, new MpscRingQueue<Integer>(5).capacity());
+        assertEquals(8, new MpscRingQueue<Integer>(8).capacity());
+    }
+
+    @Test
+    public void emptyQueueHasNothingToTake() {
+        MpscRingQueue<Integer> queue = new MpscRingQueue<>(4);
+        assertTrue(queue.isEmpty());
+        assertEquals(0, queue.size());
+        assertNull(queue.peek());
+        assertNull(queue.poll());
+        assertEquals(0, queue.drain(e -> {}, 10));
+    }
+
+    @Test
+    public void fullQueueRejectsOffers() {
+        MpscRingQueue<Integer> queue = new MpscRingQueue<>(4);
+        for(int i=0; i<4; i++)
+            assertTrue(queue.offer(i));
+
+        assertFalse(queue.offer(4));
+        assertEquals(4, queue.size());
+        assertEquals(0, queue.poll());
+        assertTrue(queue.offer(4)); // A slot frees up once the consumer takes one
+        assertFalse(queue.offer(5));
+    }
+
+    @Test
+    public void keepsOrderAcrossWrapAround() {
+        MpscRingQueue<Integer> queue = new MpscRingQueue<>(4);
+        int next = 0, expected = 0;
+        for(int round=0; round<10; round++) {
+            while(queue.offer(next))
+                next++;
+
+            assertEquals(expected, queue.peek());
+            assertEquals(expected++, queue.poll());
+            assertEquals(expected++, queue.poll());
+        }
+
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(queue.size(), queue.drain(drained::add, Integer.MAX_VALUE));
+        for(Integer e : drained)
+            assertEquals(expected++, e);
+        assertEquals(next, expected);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void drainStopsAtTheLimit() {
+        MpscRingQueue<Integer> queue = new MpscRingQueue<>(8);
+        for(int i=0; i<6; i++)
+            queue.offer(i);
+
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(4, queue.drain(drained::add, 4));
+        assertEquals(4, drained.size());
+        assertEquals(2, queue.size());
+        assertEquals(4, queue.poll());
+    }
+
+    @Test
+    public void everyProducersElementArrivesOnceInProducerOrder() throws InterruptedException {
+        int producers = 4, perProducer = 100_000;
+        MpscRingQueue<long[]> queue = new MpscRingQueue<>(64);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for(int p=0; p<producers; p++) {
+            int producer = p;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch(InterruptedException e) {
+                    return;
+                }
+
+                for(long i=0; i<perProducer; i++) {
+                    long[] e = {producer, i};
+                    while(!queue.offer(e))
+                        Thread.yield();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        long[] nextOf = new long[producers];
+        start.countDown();
+        for(int received=0; received<producers * perProducer;) {
+            long[] e = queue.poll();
+            if(e == null) {
+                Thread.yield();
+                continue;
+            }
+
+            assertEquals(nextOf[(int) e[0]]++, e[1]);
+            received++;
+        }
+
+        for(Thread thread : threads)
+            thread.join();
+        assertTrue(queue.isEmpty());
+    }
+}
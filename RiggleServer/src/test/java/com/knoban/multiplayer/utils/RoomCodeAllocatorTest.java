@@ -0,0 +1,75 @@
+package com.knoban.multiplayer.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class RoomCodeAllocatorTest {
+
+    @Test
+    public void handsOutEveryCodeOnceThenRunsOut() {
+        RoomCodeAllocator allocator = new RoomCodeAllocator();
+        boolean[] seen = new boolean[RoomCode.CODES];
+        for(int i=0; i<RoomCode.CODES; i++) {
+            int index = allocator.allocate().getIndex();
+            assertFalse(seen[index], "Handed out twice: " + new RoomCode(index));
+            seen[index] = true;
+        }
+
+        assertEquals(0, allocator.getFree());
+        assertThrows(RoomCodesExhaustedException.class, allocator::allocate);
+    }
+
+    @Test
+    public void releasedCodesAreHandedOutAgain() {
+        RoomCodeAllocator allocator = new RoomCodeAllocator();
+        RoomCode kept = null;
+        for(int i=0; i<RoomCode.CODES; i++)
+            kept = allocator.allocate();
+
+        allocator.release(kept);
+        assertEquals(1, allocator.getFree());
+        assertEquals(kept, allocator.allocate());
+        assertThrows(RoomCodesExhaustedException.class, allocator::allocate);
+    }
+
+    @Test
+    public void releasingAFreeCodeThrows() {
+        RoomCodeAllocator allocator = new RoomCodeAllocator();
+        RoomCode code = allocator.allocate();
+        allocator.release(code);
+        assertThrows(IllegalStateException.class, () -> allocator.release(code));
+    }
+
+    @Test
+    public void blockedCodesAreNeverHandedOut() {
+        RoomCodeAllocator allocator = new RoomCodeAllocator(Collections.singletonList("abcd"));
+        assertEquals(RoomCode.CODES - 1, allocator.getFree());
+        assertFalse(allocator.block("ABCD"));
+
+        int blocked = new RoomCode("ABCD").getIndex();
+        while(allocator.getFree() > 0)
+            assertNotEquals(blocked, allocator.allocate().getIndex());
+    }
+
+    @Test
+    public void codesBlockedWhileInUseAreKeptOnceReleased() {
+        RoomCodeAllocator allocator = new RoomCodeAllocator();
+        RoomCode code = allocator.allocate();
+        int free = allocator.getFree();
+        assertTrue(allocator.block(code.toString()));
+        assertEquals(free, allocator.getFree());
+
+        allocator.release(code);
+        assertEquals(free, allocator.getFree());
+    }
+}
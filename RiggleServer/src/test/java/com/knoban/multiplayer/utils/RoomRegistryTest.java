@@ -0,0 +1,102 @@
+package com.knoban.multiplayer.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class RoomRegistryTest {
+
+    @Test
+    public void findsRoomsByEveryKindOfCode() {
+        RoomRegistry<String> registry = new RoomRegistry<>();
+        RoomCode code = registry.allocate();
+        registry.register(code, "room");
+
+        assertSame("room", registry.get(code));
+        assertSame("room", registry.get(code.pack()));
+        assertSame("room", registry.get(code.toString().toLowerCase()));
+        assertNull(registry.get(-1));
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void registeringACodeTwiceThrows() {
+        RoomRegistry<String> registry = new RoomRegistry<>();
+        RoomCode code = registry.allocate();
+        registry.register(code, "first");
+        assertThrows(IllegalStateException.class, () -> registry.register(code, "second"));
+    }
+
+    @Test
+    public void unregisteringAnotherRoomsCodeDoesNothing() {
+        RoomRegistry<String> registry = new RoomRegistry<>();
+        RoomCode code = registry.allocate();
+        registry.register(code, "room");
+
+        assertFalse(registry.unregister(code, "impostor"));
+        assertSame("room", registry.get(code));
+        assertTrue(registry.unregister(code, "room"));
+        assertFalse(registry.unregister(code, "room"));
+        assertNull(registry.get(code));
+    }
+
+    @Test
+    public void probesPastRemovedRoomsThroughResizes() {
+        RoomRegistry<String> registry = new RoomRegistry<>();
+        List<RoomCode> codes = new ArrayList<>();
+        List<String> rooms = new ArrayList<>();
+        for(int i=0; i<5000; i++) { // Several resizes, and plenty of collisions to probe past
+            RoomCode code = registry.allocate();
+            registry.register(code, code.toString());
+            codes.add(code);
+            rooms.add(registry.get(code));
+        }
+
+        for(int i=0; i<codes.size(); i+=2)
+            assertTrue(registry.unregister(codes.get(i), rooms.get(i)));
+
+        assertEquals(codes.size() / 2, registry.size());
+        for(int i=0; i<codes.size(); i++) {
+            String room = registry.get(codes.get(i));
+            if(i % 2 == 0)
+                assertNull(room, "Still found " + codes.get(i));
+            else
+                assertSame(rooms.get(i), room);
+        }
+
+        for(int i=1; i<codes.size(); i+=2) { // Still caught when a removed room sits earlier in the probe chain
+            RoomCode code = codes.get(i);
+            assertThrows(IllegalStateException.class, () -> registry.register(code, "duplicate"));
+        }
+
+        for(int i=0; i<codes.size(); i+=2) // Reuses tombstones until a resize clears them
+            registry.register(codes.get(i), "again");
+
+        assertEquals(codes.size(), registry.size());
+        for(int i=0; i<codes.size(); i++)
+            assertSame(i % 2 == 0 ? "again" : rooms.get(i), registry.get(codes.get(i)));
+    }
+
+    @Test
+    public void unregisteringFreesTheCode() {
+        RoomCodeAllocator allocator = new RoomCodeAllocator();
+        RoomRegistry<String> registry = new RoomRegistry<>(allocator);
+        RoomCode code = registry.allocate();
+        registry.register(code, "room");
+        int free = allocator.getFree();
+
+        registry.unregister(code, "room");
+        assertEquals(free + 1, allocator.getFree());
+    }
+}
@@ -0,0 +1,136 @@
+package com.knoban.multiplayer.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class TimingWheelTest {
+
+    private static final long TICK = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void expiresItemsOnceTheirTickEnds() {
+        TimingWheel<String> wheel = new TimingWheel<>(TICK, 8);
+        long now = System.nanoTime();
+        wheel.schedule("a", now + 5 * TICK);
+
+        List<String> expired = new ArrayList<>();
+        assertEquals(0, wheel.advance(now + 5 * TICK - 1, collect(expired)));
+        assertEquals(1, wheel.advance(now + 6 * TICK, collect(expired)));
+        assertEquals(0, wheel.advance(now + 20 * TICK, collect(expired)));
+        assertEquals(1, expired.size());
+    }
+
+    @Test
+    public void keepsItemsDueOnLaterTurnsOfTheWheel() {
+        TimingWheel<String> wheel = new TimingWheel<>(TICK, 8);
+        long now = System.nanoTime();
+        wheel.schedule("far", now + 20 * TICK); // Two and a half turns out
+
+        List<String> expired = new ArrayList<>();
+        for(long at = now; at < now + 20 * TICK; at += TICK / 2)
+            assertEquals(0, wheel.advance(at, collect(expired)));
+        assertEquals(1, wheel.advance(now + 21 * TICK, collect(expired)));
+    }
+
+    @Test
+    public void expiresDeadlinesAlreadyPastOnTheNextTick() {
+        TimingWheel<String> wheel = new TimingWheel<>(TICK, 8);
+        long now = System.nanoTime();
+        wheel.advance(now + 100 * TICK, collect(new ArrayList<>()));
+        wheel.schedule("late", now);
+
+        assertEquals(1, wheel.advance(now + 101 * TICK, collect(new ArrayList<>())));
+    }
+
+    @Test
+    public void anExpiryCanPushTheDeadlineBack() {
+        TimingWheel<String> wheel = new TimingWheel<>(TICK, 8);
+        long now = System.nanoTime();
+        wheel.schedule("idle", now + 2 * TICK);
+
+        List<Long> seen = new ArrayList<>();
+        TimingWheel.Expiry<String> expiry = (item, at) -> {
+            seen.add(at);
+            return seen.size() < 3 ? at + 10 * TICK : TimingWheel.CANCEL;
+        };
+
+        for(long at = now; at < now + 100 * TICK; at += TICK)
+            wheel.advance(at, expiry);
+        assertEquals(3, seen.size());
+        assertTrue(seen.get(1) - seen.get(0) >= 10 * TICK);
+        assertTrue(seen.get(2) - seen.get(1) >= 10 * TICK);
+    }
+
+    @Test
+    public void expiresEveryItemOnceAndNeverEarly() {
+        TimingWheel<Long> wheel = new TimingWheel<>(TICK, 16);
+        long now = System.nanoTime();
+        Random random = new Random(11);
+        long[] deadlines = new long[1000];
+        for(int i=0; i<deadlines.length; i++) {
+            deadlines[i] = now + (long) (random.nextDouble() * 100 * TICK);
+            wheel.schedule((long) i, deadlines[i]);
+        }
+
+        Map<Long, Long> expiredAt = new HashMap<>();
+        long step = TICK / 3;
+        for(long at = now; at < now + 110 * TICK; at += step) {
+            long time = at;
+            wheel.advance(at, (item, ignored) -> {
+                assertNull(expiredAt.put(item, time));
+                return TimingWheel.CANCEL;
+            });
+        }
+
+        assertEquals(1000, expiredAt.size());
+        for(int i=0; i<1000; i++) {
+            long late = expiredAt.get((long) i) - deadlines[i];
+            assertTrue(late > 0 && late <= TICK + step, "Item " + i + " expired " + late + "ns late");
+        }
+    }
+
+    @Test
+    public void takesItemsScheduledFromOtherThreads() throws InterruptedException {
+        TimingWheel<Integer> wheel = new TimingWheel<>(TICK, 8);
+        long now = System.nanoTime();
+        Thread[] threads = new Thread[4];
+        for(int t=0; t<threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for(int i=0; i<1000; i++)
+                    wheel.schedule(i, now + (i % 30) * TICK);
+            });
+            threads[t].start();
+        }
+        for(Thread thread : threads)
+            thread.join();
+
+        assertEquals(4000, wheel.advance(now + 31 * TICK, (item, at) -> TimingWheel.CANCEL));
+    }
+
+    @Test
+    public void rejectsWheelsThatCanNeverTurn() {
+        assertThrows(IllegalArgumentException.class, () -> new TimingWheel<String>(0, 8));
+        assertThrows(IllegalArgumentException.class, () -> new TimingWheel<String>(TICK, 0));
+    }
+
+    private static TimingWheel.Expiry<String> collect(List<String> expired) {
+        return (item, now) -> {
+            expired.add(item);
+            return TimingWheel.CANCEL;
+        };
+    }
+}
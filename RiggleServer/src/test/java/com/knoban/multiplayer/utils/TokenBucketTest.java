@@ -0,0 +1,93 @@
+package com.knoban.multiplayer.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Alden Bansemer (kNoAPP)
+ */
+public class TokenBucketTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void startsFullAndLetsABurstThrough() {
+        TokenBucket bucket = new TokenBucket(10, 5);
+        long now = System.nanoTime();
+        for(int i=0; i<5; i++)
+            assertTrue(bucket.tryTake(1, now));
+        assertFalse(bucket.tryTake(1, now));
+    }
+
+    @Test
+    public void refillsAtItsRate() {
+        TokenBucket bucket = new TokenBucket(10, 5);
+        long now = System.nanoTime();
+        assertTrue(bucket.tryTake(5, now));
+
+        long wait = bucket.nanosUntil(1, now);
+        assertEquals(100 * MILLIS, wait, 1);
+        assertFalse(bucket.tryTake(1, now + wait - MILLIS));
+        assertTrue(bucket.tryTake(1, now + wait));
+        assertFalse(bucket.tryTake(1, now + wait));
+
+        long later = now + wait + 250 * MILLIS; // 2.5 more tokens
+        assertTrue(bucket.tryTake(2, later));
+        assertFalse(bucket.tryTake(1, later));
+    }
+
+    @Test
+    public void refillsNoFurtherThanItsCapacity() {
+        TokenBucket bucket = new TokenBucket(10, 5);
+        long now = System.nanoTime();
+        assertTrue(bucket.tryTake(5, now));
+
+        long later = now + TimeUnit.MINUTES.toNanos(1);
+        assertEquals(0, bucket.nanosUntil(5, later));
+        assertTrue(bucket.tryTake(5, later));
+        assertFalse(bucket.tryTake(1, later));
+    }
+
+    @Test
+    public void aClockThatStepsBackDoesNotRefill() {
+        TokenBucket bucket = new TokenBucket(10, 5);
+        long now = System.nanoTime();
+        assertTrue(bucket.tryTake(5, now));
+        assertFalse(bucket.tryTake(1, now - TimeUnit.SECONDS.toNanos(1)));
+        assertEquals(100 * MILLIS, bucket.nanosUntil(1, now), 1);
+    }
+
+    @Test
+    public void neverFitsMoreThanItsCapacity() {
+        TokenBucket bucket = new TokenBucket(10, 5);
+        long now = System.nanoTime();
+        assertEquals(Long.MAX_VALUE, bucket.nanosUntil(6, now));
+        assertFalse(bucket.tryTake(6, now + TimeUnit.MINUTES.toNanos(1)));
+    }
+
+    @Test
+    public void givingBackStopsAtCapacity() {
+        TokenBucket bucket = new TokenBucket(10, 5);
+        long now = System.nanoTime();
+        assertTrue(bucket.tryTake(3, now));
+        bucket.giveBack(2);
+        assertTrue(bucket.tryTake(4, now));
+        assertFalse(bucket.tryTake(1, now));
+
+        bucket.giveBack(100);
+        assertTrue(bucket.tryTake(5, now));
+        assertFalse(bucket.tryTake(1, now));
+    }
+
+    @Test
+    public void rejectsBucketsThatCanNeverRefill() {
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket(0, 5));
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket(10, 0));
+    }
+}
@@ -0,0 +1,104 @@
+package com.knoban.benchmarks;
+
+import com.knoban.hih.player.Player;
+import com.knoban.hih.requests.RequestCode;
+import com.knoban.multiplayer.requests.GeneralRequestCode;
+import com.knoban.multiplayer.server.MultiplayerServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requests through a real server over loopback: read and enqueued by the connection, handed to a processing shard,
+ * handled by a Player and answered. Each operation writes the given number of USER_ID requests
+ * at once and waits for every answer, so results are per round trip, not per request. The server's heap
+ * allocations show up in the GC profiler since it runs in the benchmark's JVM.
+ * @author Alden Bansemer (kNoAPP)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConnectionBenchmark {
+
+    private static final int RESPONSE_LENGTH = 2 + 2 + 36 + 1; // Header, then the UUID as a NUL-terminated String
+
+    @Param({"BLOCKING", "NIO"})
+    public MultiplayerServer.TransportMode transport;
+
+    @Param({"1", "64"})
+    public int pipelined;
+
+    private PrintStream console;
+    private MultiplayerServer server;
+    private Socket client;
+    private OutputStream out;
+    private DataInputStream in;
+    private byte[] requests;
+    private byte[] responses;
+
+    @Setup
+    public void setup() throws IOException {
+        console = System.out;
+        System.setOut(new PrintStream(new NullOutputStream())); // The server logs every request
+
+        int port;
+        try(ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+
+        server = new MultiplayerServer(port);
+        server.setConnectionDriver(Player.class);
+        server.setRequestRegistry(Player.createRequestRegistry());
+        server.setTransportMode(transport);
+        server.open();
+        server.startProcessingRequests();
+
+        client = new Socket(InetAddress.getLoopbackAddress(), port);
+        client.setTcpNoDelay(true);
+        out = client.getOutputStream();
+        in = new DataInputStream(client.getInputStream());
+
+        ByteBuffer request = ByteBuffer.allocate(4 * pipelined).order(ByteOrder.LITTLE_ENDIAN);
+        for(int i=0; i<pipelined; i++)
+            request.putShort(GeneralRequestCode.HANDSHAKE).putShort(RequestCode.USER_ID);
+        requests = request.array();
+        responses = new byte[RESPONSE_LENGTH * pipelined];
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.close();
+        server.close();
+        System.setOut(console);
+    }
+
+    @Benchmark
+    public byte[] roundTrip() throws IOException {
+        out.write(requests);
+        in.readFully(responses);
+        return responses;
+    }
+}
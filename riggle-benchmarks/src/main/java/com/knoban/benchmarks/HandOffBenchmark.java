@@ -0,0 +1,58 @@
+package com.knoban.benchmarks;
+
+import com.knoban.multiplayer.utils.MpscRingQueue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The queue between reader threads and a processing shard, the way MultiplayerConnection uses it: several readers
+ * enqueue requests while the shard drains whatever is queued in one pass. Offers to a full queue count too, since
+ * readers back off and retry those.
+ * @author Alden Bansemer (kNoAPP)
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandOffBenchmark {
+
+    private static final int CAPACITY = 1024; // Same as a connection's request queue
+    private static final Object REQUEST = new Object();
+
+    private MpscRingQueue<Object> queue;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        queue = new MpscRingQueue<>(CAPACITY);
+    }
+
+    @Benchmark
+    @Group("handOff")
+    @GroupThreads(3)
+    public boolean enqueue() {
+        return queue.offer(REQUEST);
+    }
+
+    @Benchmark
+    @Group("handOff")
+    @GroupThreads(1)
+    public int processRequests(Blackhole blackhole) {
+        return queue.drain(blackhole::consume, CAPACITY);
+    }
+}
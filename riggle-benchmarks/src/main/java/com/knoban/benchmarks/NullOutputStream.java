@@ -0,0 +1,16 @@
+package com.knoban.benchmarks;
+
+import java.io.OutputStream;
+
+/**
+ * Throws away everything written to it, so benchmarks measure encoding rather than I/O.
+ * @author Alden Bansemer (kNoAPP)
+ */
+final class NullOutputStream extends OutputStream {
+
+    @Override
+    public void write(int b) {}
+
+    @Override
+    public void write(byte[] b, int off, int len) {}
+}
@@ -0,0 +1,89 @@
+package com.knoban.benchmarks;
+
+import com.knoban.hih.player.Player;
+import com.knoban.hih.requests.RequestCode;
+import com.knoban.hih.requests.impl.SetUsernameRequest;
+import com.knoban.multiplayer.requests.RequestFulfillment;
+import com.knoban.multiplayer.requests.RequestRegistry;
+import com.knoban.multiplayer.streams.CSOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Player's registered handlers for requests that need no room, written to a stream that throws responses away.
+ * Console output is thrown away too, so the terminal's speed doesn't decide the result. Queueing the log event
+ * still counts.
+ * @author Alden Bansemer (kNoAPP)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlayerBenchmark {
+
+    @Param({"USER_ID", "ROOM_INFO", "SET_USERNAME"})
+    public String request;
+
+    private BenchmarkPlayer player;
+    private RequestRegistry.Registration<Player, ?> registration;
+    private RequestFulfillment data;
+    private PrintStream console;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        console = System.out;
+        System.setOut(new PrintStream(new NullOutputStream()));
+        player = new BenchmarkPlayer();
+        short requestCode = RequestCode.class.getField(request).getShort(null);
+        registration = Player.createRequestRegistry().get(requestCode);
+        data = requestCode == RequestCode.SET_USERNAME ? new SetUsernameRequest("Unnamed Player") : null;
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(console);
+    }
+
+    @Benchmark
+    public void handleRequest() throws IOException {
+        player.dispatch(registration, data);
+    }
+
+    /**
+     * A Player that was never opened, writing its responses nowhere.
+     */
+    private static final class BenchmarkPlayer extends Player {
+
+        private BenchmarkPlayer() {
+            super(new Socket());
+            out = new CSOutputStream(new NullOutputStream());
+        }
+
+        /**
+         * Handle a request and send its response, like the processing shard does.
+         */
+        private void dispatch(RequestRegistry.Registration<Player, ?> registration, RequestFulfillment data)
+                throws IOException {
+            registration.handle(this, data);
+            endResponse();
+            out.flush();
+        }
+    }
+}
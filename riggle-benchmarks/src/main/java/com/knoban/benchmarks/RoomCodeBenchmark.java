@@ -0,0 +1,91 @@
+package com.knoban.benchmarks;
+
+import com.knoban.multiplayer.utils.RoomCode;
+import com.knoban.multiplayer.utils.RoomCodeAllocator;
+import com.knoban.multiplayer.utils.RoomRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handing out room codes and looking rooms up by code, with a registry holding the given number of rooms. Codes
+ * are looked up in the order they were handed out, which is as random as the allocator makes them.
+ * @author Alden Bansemer (kNoAPP)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoomCodeBenchmark {
+
+    @Param({"1000", "100000"})
+    public int rooms;
+
+    private RoomRegistry<RoomCode> registry;
+    private int[] packed;
+    private String[] codes;
+    private int[] missing; // Valid codes no room has
+    private int next;
+
+    @Setup
+    public void setup() {
+        registry = new RoomRegistry<>();
+        packed = new int[rooms];
+        codes = new String[rooms];
+        for(int i=0; i<rooms; i++) {
+            RoomCode code = registry.allocate();
+            registry.register(code, code);
+            packed[i] = code.pack();
+            codes[i] = code.toString();
+        }
+
+        missing = new int[rooms];
+        RoomCodeAllocator others = new RoomCodeAllocator();
+        for(int i=0; i<rooms;) {
+            RoomCode code = others.allocate();
+            if(registry.get(code) == null)
+                missing[i++] = code.pack();
+        }
+    }
+
+    private int next() {
+        int i = next;
+        next = i + 1 == rooms ? 0 : i + 1;
+        return i;
+    }
+
+    @Benchmark
+    public RoomCode allocateAndRelease() {
+        RoomCodeAllocator allocator = registry.getAllocator();
+        RoomCode code = allocator.allocate();
+        allocator.release(code);
+        return code;
+    }
+
+    @Benchmark
+    public RoomCode getPacked() {
+        return registry.get(packed[next()]);
+    }
+
+    @Benchmark
+    public RoomCode getString() {
+        return registry.get(codes[next()]); // What a JOIN_ROOM request goes through
+    }
+
+    @Benchmark
+    public RoomCode getMissing() {
+        return registry.get(missing[next()]);
+    }
+}
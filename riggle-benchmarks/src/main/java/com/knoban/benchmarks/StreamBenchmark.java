@@ -0,0 +1,273 @@
+package com.knoban.benchmarks;
+
+import com.knoban.multiplayer.streams.CSInputStream;
+import com.knoban.multiplayer.streams.CSOutputStream;
+import com.knoban.multiplayer.streams.StringEncoding;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode and decode throughput of CSOutputStream and CSInputStream. Every invocation writes or reads a run of
+ * values, so results are per value. Writes are flushed to a stream that throws them away.
+ * @author Alden Bansemer (kNoAPP)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamBenchmark {
+
+    static final int VALUES = 256;
+
+    @State(Scope.Thread)
+    public static class Output {
+
+        final CSOutputStream out = new CSOutputStream(new NullOutputStream());
+    }
+
+    @State(Scope.Thread)
+    public static class Input {
+
+        ByteBuffer raw;
+        ByteBuffer varInts;
+        CSInputStream in;
+
+        @Setup
+        public void setup() throws IOException {
+            raw = ByteBuffer.allocate(VALUES * 8);
+            new Random(42).nextBytes(raw.array());
+            varInts = encode(StringEncoding.NUL_TERMINATED, out -> {
+                Random random = new Random(42);
+                for(int i=0; i<VALUES; i++)
+                    out.writeVarInt(random.nextInt() >>> 1 + random.nextInt(31)); // Non-negative, spread over every length
+            });
+            in = new CSInputStream(raw);
+        }
+
+        /**
+         * @param buffer The buffer to read from the start of.
+         * @return The stream, reading from the buffer.
+         */
+        CSInputStream read(ByteBuffer buffer) {
+            buffer.clear();
+            in.setBuffer(buffer);
+            return in;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Strings {
+
+        @Param({"NUL_TERMINATED", "UTF8_PREFIXED"})
+        public StringEncoding encoding;
+
+        @Param({"Unnamed Player", "Bj\u00f6rn \u00c5str\u00f6m", "\u30d7\u30ec\u30a4\u30e4\u30fc"}) // ASCII, Latin-1, 3-byte UTF-8
+        public String text;
+
+        CSOutputStream out;
+        ByteBuffer encoded;
+        CSInputStream in;
+
+        @Setup
+        public void setup() throws IOException {
+            out = new CSOutputStream(new NullOutputStream());
+            out.setStringEncoding(encoding);
+            encoded = encode(encoding, out -> {
+                for(int i=0; i<VALUES; i++)
+                    out.writeString(text);
+            });
+            in = new CSInputStream(encoded);
+            in.setStringEncoding(encoding);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void writeS8(Output output) throws IOException {
+        CSOutputStream out = output.out;
+        for(int i=0; i<VALUES; i++)
+            out.writeS8((byte) i);
+        out.flush();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void writeS16(Output output) throws IOException {
+        CSOutputStream out = output.out;
+        for(int i=0; i<VALUES; i++)
+            out.writeS16((short) i);
+        out.flush();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void writeS32(Output output) throws IOException {
+        CSOutputStream out = output.out;
+        for(int i=0; i<VALUES; i++)
+            out.writeS32(i);
+        out.flush();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void writeS64(Output output) throws IOException {
+        CSOutputStream out = output.out;
+        for(int i=0; i<VALUES; i++)
+            out.writeS64(i);
+        out.flush();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void writeF32(Output output) throws IOException {
+        CSOutputStream out = output.out;
+        for(int i=0; i<VALUES; i++)
+            out.writeF32(i);
+        out.flush();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void writeF64(Output output) throws IOException {
+        CSOutputStream out = output.out;
+        for(int i=0; i<VALUES; i++)
+            out.writeF64(i);
+        out.flush();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void writeVarInt(Output output) throws IOException {
+        CSOutputStream out = output.out;
+        for(int i=0; i<VALUES; i++)
+            out.writeVarInt(i << (i & 31));
+        out.flush();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void writeString(Strings strings) throws IOException {
+        CSOutputStream out = strings.out;
+        String text = strings.text;
+        for(int i=0; i<VALUES; i++)
+            out.writeString(text);
+        out.flush();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public int readS8(Input input) throws IOException {
+        CSInputStream in = input.read(input.raw);
+        int sum = 0;
+        for(int i=0; i<VALUES; i++)
+            sum += in.readS8();
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public int readS16(Input input) throws IOException {
+        CSInputStream in = input.read(input.raw);
+        int sum = 0;
+        for(int i=0; i<VALUES; i++)
+            sum += in.readS16();
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public int readS32(Input input) throws IOException {
+        CSInputStream in = input.read(input.raw);
+        int sum = 0;
+        for(int i=0; i<VALUES; i++)
+            sum += in.readS32();
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public long readS64(Input input) throws IOException {
+        CSInputStream in = input.read(input.raw);
+        long sum = 0;
+        for(int i=0; i<VALUES; i++)
+            sum += in.readS64();
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public float readF32(Input input) throws IOException {
+        CSInputStream in = input.read(input.raw);
+        float sum = 0;
+        for(int i=0; i<VALUES; i++)
+            sum += in.readF32();
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public double readF64(Input input) throws IOException {
+        CSInputStream in = input.read(input.raw);
+        double sum = 0;
+        for(int i=0; i<VALUES; i++)
+            sum += in.readF64();
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public int readVarInt(Input input) throws IOException {
+        CSInputStream in = input.read(input.varInts);
+        int sum = 0;
+        for(int i=0; i<VALUES; i++)
+            sum += in.readVarInt();
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void readString(Strings strings, Blackhole blackhole) throws IOException {
+        strings.encoded.clear();
+        CSInputStream in = strings.in;
+        in.setBuffer(strings.encoded);
+        for(int i=0; i<VALUES; i++)
+            blackhole.consume(in.readString());
+    }
+
+    /**
+     * @param encoding How Strings are encoded.
+     * @param writes What to write.
+     * @return Everything written, ready for reading.
+     */
+    static ByteBuffer encode(StringEncoding encoding, Writes writes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CSOutputStream out = new CSOutputStream(bytes);
+        out.setStringEncoding(encoding);
+        writes.write(out);
+        out.flush();
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    interface Writes {
+
+        void write(CSOutputStream out) throws IOException;
+    }
+}